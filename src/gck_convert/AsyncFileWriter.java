@@ -0,0 +1,255 @@
+package gck_convert;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.logging.Logger;
+
+/**
+ * Writes files through AsynchronousFileChannel, so the thread producing a file does not wait for the disk.
+ *
+ * Data written to an Output is collected in buffers taken from a shared pool. A full buffer is handed to the
+ * channel and the producer carries on with the next one. The number of buffers being written at the same time is
+ * limited for all the files together; a producer only waits when that limit is reached. Every Output has a
+ * completion that is finished once all its data is on the disk and the file is closed.
+ *
+ * @author Matyas Medzihradszky
+ * @version 0.1
+ */
+public class AsyncFileWriter {
+
+    /**
+     * Constructor.
+     *
+     * @param bufferSize The size of the pooled buffers.
+     * @param maxInFlight The largest number of buffers being written at the same time.
+     */
+    public AsyncFileWriter(int bufferSize, int maxInFlight) {
+        super();
+        this.bufferSize = bufferSize;
+        inFlight = new Semaphore(Math.max(1, maxInFlight));
+        pool = new ConcurrentLinkedQueue<ByteBuffer>();
+    }
+
+    /**
+     * Creates or truncates a file and opens it for writing.
+     *
+     * @param file The file to write.
+     * @return The stream to write the file through. Closing it sends the rest of the data.
+     * @throws IOException Thrown if the file cannot be opened.
+     */
+    public Output open(File file) throws IOException {
+        AsynchronousFileChannel channel = AsynchronousFileChannel.open(file.toPath(), StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+        return new Output(file, channel);
+    }
+
+    /**
+     * A file being written.
+     */
+    public class Output extends OutputStream {
+
+        private Output(File file, AsynchronousFileChannel channel) {
+            super();
+            this.file = file;
+            this.channel = channel;
+            completion = new CompletableFuture<Void>();
+            buffer = takeBuffer();
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (!buffer.hasRemaining()) {
+                send();
+            }
+            buffer.put((byte) b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (!buffer.hasRemaining()) {
+                    send();
+                }
+                int count = Math.min(len, buffer.remaining());
+                buffer.put(b, off, count);
+                off += count;
+                len -= count;
+            }
+        }
+
+        /**
+         * Sends the data left in the buffer. Returns without waiting for it to be written, see getCompletion.
+         */
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            try {
+                if (buffer.position() > 0) {
+                    send();
+                }
+            } finally {
+                giveBuffer(buffer);
+                buffer = null;
+                synchronized (this) {
+                    closed = true;
+                }
+                writeFinished();
+            }
+        }
+
+        /**
+         * @return A future finished once the file is fully written and closed, or failed with the first error.
+         */
+        public CompletableFuture<Void> getCompletion() {
+            return completion;
+        }
+
+        /**
+         * Hands the current buffer to the channel and takes a new one.
+         */
+        private void send() throws IOException {
+            if (error != null) {
+                throw new IOException("Writing " + file.getName() + " failed", error);
+            }
+            try {
+                inFlight.acquire();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                error = new IOException("Interrupted while writing " + file.getName());
+                throw (IOException) error;
+            }
+            ByteBuffer full = buffer;
+            full.flip();
+            long filePosition = position;
+            position += full.remaining();
+            synchronized (this) {
+                pending++;
+            }
+            try {
+                channel.write(full, filePosition, new Write(full, filePosition), handler);
+            } catch (RuntimeException ex) {
+                //The channel refused the buffer, so no handler will give back its permit. The buffer stays in use.
+                full.clear();
+                inFlight.release();
+                synchronized (this) {
+                    pending--;
+                }
+                if (error == null) {
+                    error = ex;
+                }
+                throw new IOException("Writing " + file.getName() + " failed", ex);
+            }
+            buffer = takeBuffer();
+        }
+
+        /**
+         * Called when a write has finished, or once after closing. Completes the file when nothing is left.
+         */
+        private void writeFinished() {
+            synchronized (this) {
+                if (!closed || pending > 0 || finished) {
+                    return;
+                }
+                finished = true;
+            }
+            try {
+                channel.close();
+            } catch (IOException ex) {
+                if (error == null) {
+                    error = ex;
+                }
+            }
+            if (error == null) {
+                completion.complete(null);
+            } else {
+                logger.severe("Failed to write " + file.getName() + ": " + error);
+                completion.completeExceptionally(error);
+            }
+        }
+
+        private final CompletionHandler<Integer, Write> handler = new CompletionHandler<Integer, Write>() {
+            @Override
+            public void completed(Integer written, Write write) {
+                if (write.buffer.hasRemaining()) {
+                    //Only part of the buffer was written, send the rest.
+                    write.position += written;
+                    try {
+                        channel.write(write.buffer, write.position, write, this);
+                    } catch (RuntimeException ex) {
+                        failed(ex, write);
+                    }
+                    return;
+                }
+                done(write.buffer);
+            }
+
+            @Override
+            public void failed(Throwable ex, Write write) {
+                if (error == null) {
+                    error = ex;
+                }
+                done(write.buffer);
+            }
+        };
+
+        private void done(ByteBuffer written) {
+            giveBuffer(written);
+            inFlight.release();
+            synchronized (this) {
+                pending--;
+            }
+            writeFinished();
+        }
+
+        private final File file;
+        private final AsynchronousFileChannel channel;
+        private final CompletableFuture<Void> completion;
+        private ByteBuffer buffer; //the buffer being filled
+        private long position; //file position of the start of the buffer being filled
+        private int pending; //buffers handed to the channel and not written yet
+        private boolean closed;
+        private boolean finished; //set by the thread that closes the channel
+        private volatile Throwable error;
+    }
+
+    /**
+     * A buffer handed to the channel, with the file position its remaining data goes to.
+     */
+    private static class Write {
+        Write(ByteBuffer buffer, long position) {
+            this.buffer = buffer;
+            this.position = position;
+        }
+
+        private final ByteBuffer buffer;
+        private long position;
+    }
+
+    private ByteBuffer takeBuffer() {
+        ByteBuffer buffer = pool.poll();
+        if (buffer == null) {
+            buffer = ByteBuffer.allocateDirect(bufferSize);
+        }
+        buffer.clear();
+        return buffer;
+    }
+
+    private void giveBuffer(ByteBuffer buffer) {
+        pool.offer(buffer);
+    }
+
+    private final int bufferSize;
+    private final Semaphore inFlight; //permits for the buffers being written
+    private final ConcurrentLinkedQueue<ByteBuffer> pool; //buffers not in use
+    private final static Logger logger = Logger.getLogger("GCK_Converter_logger");
+}
@@ -0,0 +1,983 @@
+package gck_convert;
+
+import gckfilestructure.GCKFile;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+
+/**
+ * Converts a batch of GCK files to GeneBank files using a ConversionPipeline.
+ *
+ * Holds the conversion settings, so the same conversion can be run from the GUI or without it.
+ * Progress is reported to an optional Listener, which is called from the worker threads. Every batch also writes a
+ * JSON Lines manifest with the result of each input, see BatchManifest.
+ *
+ * Outputs are written to a temporary file that is forced to the disk and renamed to the GeneBank file once it is
+ * complete, so a file under its final name is never cut short, not even by a power loss. Every finished input is
+ * then recorded in a BatchJournal kept in the output directory. A resumed batch skips the inputs the journal shows as converted, so a batch that was interrupted does
+ * not have to be started over.
+ *
+ * @author Matyas Medzihradszky
+ * @version 0.1
+ */
+public class BatchConverter {
+
+    /**
+     * Receives progress information about a running batch.
+     */
+    public interface Listener {
+        /**
+         * Called when the conversion of a file has finished.
+         *
+         * @param input The GCK file.
+         * @param output The GeneBank file written.
+         * @param success Whether the conversion succeeded.
+         */
+        void fileFinished(File input, File output, boolean success);
+
+        /**
+         * Called when the conversion of a file has finished, with its full result. Calls the other fileFinished
+         * by default.
+         *
+         * @param result The result of the file, including its status and timings.
+         */
+        default void fileFinished(ConversionResult result) {
+            fileFinished(result.getInput(), result.getOutput(), result.isSuccess());
+        }
+
+        /**
+         * Called after every finished file with the progress of the batch. Does nothing by default.
+         *
+         * @param estimator The progress so far and the predicted completion.
+         */
+        default void progress(CompletionEstimator estimator) {
+        }
+
+        /**
+         * Called with general information about the batch.
+         *
+         * @param message The text to show.
+         */
+        void message(String message);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param library The library used to determine the feature types.
+     */
+    public BatchConverter(FeatureLibrary library) {
+        super();
+        this.library = library;
+        parseLevel = RegionParser.ParseLevel.MEDIUM;
+        threads = Runtime.getRuntime().availableProcessors();
+        readThreads = DEFAULT_IO_THREADS;
+        writeThreads = DEFAULT_IO_THREADS;
+        maxWritesInFlight = DEFAULT_WRITES_IN_FLIGHT;
+        memoryBudget = Runtime.getRuntime().maxMemory() / 2;
+        largestFirst = true;
+    }
+
+    /**
+     * Converts all the supplied files, writing the results into the output directory.
+     *
+     * @param inputs The GCK files to convert.
+     * @param outputDirectory The directory to put the GeneBank files in.
+     * @return True if all the files were converted without errors.
+     */
+    public boolean convert(File[] inputs, File outputDirectory) {
+        File[] outputs = new File[inputs.length];
+        for (int i = 0; i < inputs.length; i++) {
+            outputs[i] = outputFileFor(inputs[i], outputDirectory);
+        }
+        expectations = verify ? new ConcurrentHashMap<File, GbFileVerifier.Expectation>() : null;
+        manifest = openManifest(outputDirectory);
+        File journalFile = new File(outputDirectory, JOURNAL_FILE);
+        if (resume) {
+            List<File> remainingInputs = new ArrayList<File>();
+            List<File> remainingOutputs = new ArrayList<File>();
+            skipConverted(inputs, outputs, journalFile, remainingInputs, remainingOutputs);
+            inputs = remainingInputs.toArray(new File[remainingInputs.size()]);
+            outputs = remainingOutputs.toArray(new File[remainingOutputs.size()]);
+        }
+        journal = openJournal(journalFile);
+        asyncFileWriter = asyncOutput ? new AsyncFileWriter(ASYNC_BUFFER_SIZE, maxWritesInFlight) : null;
+        boolean withoutErrors;
+        if (detectDuplicates) {
+            withoutErrors = convertWithoutDuplicates(inputs, outputs, outputDirectory);
+        } else {
+            withoutErrors = convertAll(inputs, outputs, null);
+        }
+        if (verify) {
+            withoutErrors = verifyOutputs() && withoutErrors;
+        }
+        if (goldenDirectory != null) {
+            withoutErrors = compareWithGolden(outputs) && withoutErrors;
+        }
+        if (manifest != null) {
+            manifest.close();
+            if (listener != null) {
+                listener.message(manifest.getNumFiles() + " files converted, " + manifest.getNumFailed() + " failed. Manifest: "
+                        + manifest.getManifestFile().getPath());
+            }
+            manifest = null;
+        }
+        if (journal != null) {
+            journal.close();
+            journal = null;
+        }
+        asyncFileWriter = null;
+        return withoutErrors;
+    }
+
+    /**
+     * Reports the inputs the journal shows as converted as skipped, and collects the others.
+     */
+    private void skipConverted(File[] inputs, File[] outputs, File journalFile, List<File> remainingInputs, List<File> remainingOutputs) {
+        Map<String, BatchJournal.Entry> entries = BatchJournal.load(journalFile);
+        int numSkipped = 0;
+        for (int i = 0; i < inputs.length; i++) {
+            BatchJournal.Entry entry = entries.get(inputs[i].getPath());
+            if (entry != null && entry.isDone(inputs[i], outputs[i])) {
+                ConversionResult result = new ConversionResult(inputs[i], outputs[i]);
+                result.setStatus(ConversionResult.Status.SKIPPED);
+                result.setOutputHash(entry.getHash());
+                report(result);
+                numSkipped++;
+            } else {
+                remainingInputs.add(inputs[i]);
+                remainingOutputs.add(outputs[i]);
+            }
+        }
+        if (listener != null) {
+            listener.message("Resuming: " + numSkipped + " files already converted, " + remainingInputs.size() + " left.");
+        }
+    }
+
+    /**
+     * Opens the journal of a batch, continuing the existing one when resuming.
+     *
+     * @return The journal, or null if it could not be opened. The batch is converted without it in that case.
+     */
+    private BatchJournal openJournal(File journalFile) {
+        try {
+            return new BatchJournal(journalFile, resume);
+        } catch (IOException ex) {
+            logger.severe("Failed to open the journal " + journalFile.getPath() + ": " + ex.getMessage());
+            if (listener != null) {
+                listener.message("The journal " + journalFile.getPath() + " cannot be written, the batch cannot be resumed.");
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Opens the manifest of a new batch. Without a set manifest file a new one is created in the output directory,
+     * named after the time the batch started.
+     *
+     * @return The manifest, or null if it could not be opened. The batch is converted without it in that case.
+     */
+    private BatchManifest openManifest(File outputDirectory) {
+        File file = manifestFile;
+        if (file == null) {
+            file = new File(outputDirectory, "manifest-" + new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date()) + ".jsonl");
+        }
+        try {
+            return new BatchManifest(file);
+        } catch (IOException ex) {
+            logger.severe("Failed to open the manifest " + file.getPath() + ": " + ex.getMessage());
+            if (listener != null) {
+                listener.message("The manifest " + file.getPath() + " cannot be written.");
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Reads back all the GeneBank files written by the batch and checks them against their GCK files.
+     *
+     * @return True if all the files are correct.
+     */
+    private boolean verifyOutputs() {
+        long startTime = System.nanoTime();
+        List<String> problems = GbFileVerifier.verifyAll(expectations, threads);
+        for (String problem : problems) {
+            logger.severe("Verification failed: " + problem);
+            if (listener != null) {
+                listener.message("Verification failed: " + problem);
+            }
+        }
+        if (listener != null) {
+            listener.message("Verified " + expectations.size() + " files in " + (System.nanoTime() - startTime) / 1000000 + " ms, "
+                    + problems.size() + " problems found.");
+        }
+        return problems.isEmpty();
+    }
+
+    /**
+     * Compares the written GeneBank files with the files of the same name in the golden directory.
+     *
+     * @return True if every output is the same as its golden file.
+     */
+    private boolean compareWithGolden(File[] outputs) {
+        int numDifferent = 0;
+        for (File output : outputs) {
+            if (!output.exists()) {
+                continue;
+            }
+            String difference = GbFileVerifier.compareWithGolden(output, new File(goldenDirectory, output.getName()));
+            if (difference != null) {
+                numDifferent++;
+                logger.severe("Golden comparison failed: " + difference);
+                if (listener != null) {
+                    listener.message("Golden comparison failed: " + difference);
+                }
+            }
+        }
+        if (listener != null) {
+            listener.message(numDifferent + " files differ from the golden files.");
+        }
+        return numDifferent == 0;
+    }
+
+    /**
+     * Converts the inputs in parallel in a pipeline.
+     *
+     * Unless turned off, the largest files are started first. The workers of every stage take the next waiting file
+     * as soon as they are free, so the small files fill in around the large ones and the batch does not wait for a
+     * large file started last.
+     *
+     * @param inputs The GCK files.
+     * @param outputs The GeneBank file to write for each input.
+     * @param skip Inputs not to convert, or null to convert all of them.
+     * @return True if all the converted files were converted without errors.
+     */
+    private boolean convertAll(final File[] inputs, final File[] outputs, final boolean[] skip) {
+        List<ConversionPipeline.Job> jobs = new ArrayList<ConversionPipeline.Job>();
+        long bytesTotal = 0;
+        for (int i = 0; i < inputs.length; i++) {
+            if (skip == null || !skip[i]) {
+                ConversionPipeline.Job job = new ConversionPipeline.Job(inputs[i], outputs[i]);
+                bytesTotal += job.getInputLength();
+                jobs.add(job);
+            }
+        }
+        if (largestFirst) {
+            Collections.sort(jobs, Comparator.comparingLong(ConversionPipeline.Job::getInputLength).reversed());
+        }
+        final CompletionEstimator estimator = new CompletionEstimator(bytesTotal, jobs.size());
+        final AtomicBoolean withoutErrors = new AtomicBoolean(true);
+        ConversionPipeline pipeline = newPipeline(job -> {
+            if (!job.getResult().isSuccess()) {
+                withoutErrors.set(false);
+            }
+            estimator.fileFinished(job.getInputLength());
+            report(job.getResult());
+            if (listener != null) {
+                listener.progress(estimator);
+            }
+        });
+        pipeline.setThreads(readThreads, threads, writeThreads);
+        pipeline.setQueueCapacity(queueCapacity > 0 ? queueCapacity : 2 * threads);
+        if (memoryBudget > 0) {
+            pipeline.setMemoryBudget(new MemoryBudget(memoryBudget));
+        }
+        pipeline.run(jobs);
+        return withoutErrors.get();
+    }
+
+    private ConversionPipeline newPipeline(Consumer<ConversionPipeline.Job> finished) {
+        return new ConversionPipeline(this::readStage, this::parseStage, this::writeStage, finished);
+    }
+
+    /**
+     * Fingerprints all the inputs first, then converts only the first of the copies of a construct that give the
+     * same GeneBank file, and links the outputs of the others to its output. Copies with a different name, different
+     * annotations, or a rotated or reversed sequence give different GeneBank files and are converted on their own.
+     * A report of the duplicates is written to the output directory.
+     */
+    private boolean convertWithoutDuplicates(final File[] inputs, File[] outputs, File outputDirectory) {
+        finishedResults = new ConcurrentHashMap<File, ConversionResult>();
+        final DuplicateDetector detector = new DuplicateDetector();
+        final ConversionResult[] fingerprinted = new ConversionResult[inputs.length];
+        final String[] outputFingerprints = new String[inputs.length];
+        final AtomicBoolean readable = new AtomicBoolean(true);
+        ExecutorService workers = Executors.newFixedThreadPool(threads);
+        for (int i = 0; i < inputs.length; i++) {
+            final int current = i;
+            workers.execute(() -> {
+                try {
+                    GCKFile gckFile = readFile(inputs[current]);
+                    fingerprinted[current] = new ConversionResult(inputs[current], outputs[current]);
+                    fingerprinted[current].setCounts(gckFile);
+                    outputFingerprints[current] = DuplicateDetector.outputFingerprint(gckFile);
+                    detector.add(current, DuplicateDetector.fingerprint(gckFile.getSequence(), gckFile.isCircular()));
+                } catch (Exception ex) {
+                    //Unreadable files are kept on their own, the conversion will report them.
+                    readable.set(false);
+                    detector.add(current, "unreadable:" + current);
+                }
+            });
+        }
+        awaitTermination(workers);
+
+        List<List<Integer>> groups = detector.getDuplicateGroups();
+        int[] linkedTo = new int[inputs.length]; //the input whose output a duplicate is linked to, or -1
+        boolean[] duplicate = new boolean[inputs.length];
+        Arrays.fill(linkedTo, -1);
+        for (List<Integer> group : groups) {
+            Map<String, Integer> converted = new HashMap<String, Integer>();
+            for (int input : group) {
+                Integer original = converted.putIfAbsent(outputFingerprints[input], input);
+                if (original != null) {
+                    linkedTo[input] = original;
+                    duplicate[input] = true;
+                }
+            }
+        }
+        boolean withoutErrors = convertAll(inputs, outputs, duplicate);
+
+        for (int copy = 0; copy < inputs.length; copy++) {
+            if (!duplicate[copy]) {
+                continue;
+            }
+            File original = outputs[linkedTo[copy]];
+            ConversionResult originalResult = finishedResults.get(original);
+            //Only an output written by this batch is linked, never one left by an earlier run.
+            //A copy with the same output name shares the output of the original, which is already in place.
+            boolean success = originalResult != null && originalResult.getStatus() == ConversionResult.Status.CONVERTED
+                    && (outputs[copy].equals(original) || linkOutput(original, outputs[copy]));
+            if (success && verify && expectations.containsKey(original)) {
+                expectations.put(outputs[copy], expectations.get(original));
+            }
+            ConversionResult result = fingerprinted[copy];
+            if (success) {
+                result.setStatus(ConversionResult.Status.LINKED);
+                result.setOutputHash(originalResult.getOutputHash());
+            } else {
+                withoutErrors = false;
+                result.setError(new IOException("The output of " + inputs[linkedTo[copy]].getName() + " to link to was not written"));
+            }
+            report(result);
+        }
+        if (!groups.isEmpty()) {
+            writeDuplicateReport(groups, linkedTo, inputs, outputs, new File(outputDirectory, DUPLICATE_REPORT));
+            if (listener != null) {
+                listener.message(groups.size() + " constructs were found more than once, see " + DUPLICATE_REPORT + ".");
+            }
+        }
+        finishedResults = null;
+        return withoutErrors && readable.get();
+    }
+
+    /**
+     * Makes the output of a duplicate a hard link to the output of the original, or a copy if links are not possible.
+     */
+    private boolean linkOutput(File original, File copy) {
+        try {
+            Files.deleteIfExists(copy.toPath());
+            try {
+                Files.createLink(copy.toPath(), original.toPath());
+                syncDirectory(copy.getAbsoluteFile().getParentFile());
+            } catch (UnsupportedOperationException | IOException ex) {
+                File temporary = temporaryFileFor(copy);
+                Files.copy(original.toPath(), temporary.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                moveIntoPlace(temporary, copy);
+            }
+            return true;
+        } catch (IOException ex) {
+            logger.severe("Failed to link " + copy.getName() + " to " + original.getName());
+            return false;
+        }
+    }
+
+    private void writeDuplicateReport(List<List<Integer>> groups, int[] linkedTo, File[] inputs, File[] outputs, File reportFile) {
+        try (PrintWriter report = new PrintWriter(reportFile)) {
+            for (List<Integer> group : groups) {
+                report.println(inputs[group.get(0)].getPath() + " -> " + outputs[group.get(0)].getName());
+                for (int i = 1; i < group.size(); i++) {
+                    int copy = group.get(i);
+                    report.println("    duplicate: " + inputs[copy].getPath() + " -> " + outputs[copy].getName()
+                            + (linkedTo[copy] >= 0 ? " (linked to " + outputs[linkedTo[copy]].getName() + ")"
+                            : " (converted, its name, annotations or orientation differ)"));
+                }
+            }
+        } catch (FileNotFoundException ex) {
+            logger.severe("Failed to write the duplicate report.");
+        }
+    }
+
+    private void awaitTermination(ExecutorService workers) {
+        workers.shutdown();
+        try {
+            while (!workers.awaitTermination(1, TimeUnit.MINUTES)) {
+                logger.info("Waiting for the conversions to finish.");
+            }
+        } catch (InterruptedException ex) {
+            workers.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Passes the result of a file to the manifest and the listener.
+     */
+    private void report(ConversionResult result) {
+        if (finishedResults != null && result.getOutput() != null) {
+            finishedResults.put(result.getOutput(), result);
+        }
+        if (manifest != null) {
+            manifest.append(result);
+        }
+        if (journal != null && result.getStatus() != ConversionResult.Status.SKIPPED) {
+            journal.record(result);
+        }
+        if (listener != null) {
+            listener.fileFinished(result);
+        }
+    }
+
+    /**
+     * Converts a single file in the calling thread, timing the reading, parsing and writing separately.
+     *
+     * @param inputFile The GCK file to read.
+     * @param outputFile The GeneBank file to write.
+     * @return The result of the conversion.
+     */
+    public ConversionResult convertFile(File inputFile, File outputFile) {
+        ConversionPipeline.Job job = new ConversionPipeline.Job(inputFile, outputFile);
+        newPipeline(null).runSingle(job);
+        return job.getResult();
+    }
+
+    /**
+     * Converts GCK data from a channel to a GeneBank file written to a stream, in the calling thread and without
+     * touching the disk. A channel that cannot seek is read into memory first, as reading a GCK file jumps between
+     * its sections. The verify option does not apply, there is no file to read back.
+     *
+     * @param input The GCK data, starting at the current position of the channel. It is not closed.
+     * @param name The name of the GCK file the data comes from, giving the construct name and, by its extension, the
+     * type of the file.
+     * @param output The stream to write the GeneBank file to. It is flushed but not closed.
+     * @return The result of the conversion, with the name as its input and no output file.
+     */
+    public ConversionResult convertStream(final ReadableByteChannel input, String name, final OutputStream output) {
+        ConversionPipeline.Job job = new ConversionPipeline.Job(new File(name), null);
+        new ConversionPipeline(j -> {
+            SeekableByteChannel seekable = input instanceof SeekableByteChannel ? (SeekableByteChannel) input
+                    : ByteBufferChannel.readFully(input);
+            j.setGCKFile(readChannel(j.getInput(), seekable));
+            j.getResult().setCounts(j.getGCKFile());
+        }, this::parseStage, j -> writeStreamStage(j, output), null).runSingle(job);
+        return job.getResult();
+    }
+
+    private void readStage(ConversionPipeline.Job job) throws IOException {
+        job.setGCKFile(readFile(job.getInput()));
+        job.getResult().setCounts(job.getGCKFile());
+    }
+
+    private void parseStage(ConversionPipeline.Job job) {
+        GbFileWriter gbFileWriter = newGbFileWriter();
+        job.setFeatureList(gbFileWriter.buildFeatureList(job.getGCKFile(), parseLevel, library, includeUnnamed, includePrimers));
+        job.setGbFileWriter(gbFileWriter);
+    }
+
+    /**
+     * Writes the GeneBank file to a temporary file, hashing it on the way, and renames it once it is complete. With
+     * asynchronous output the rename is done when the last buffer is written. If writing fails, also by a feature
+     * comment that cannot be read from the GCK file, the stream is closed and the temporary file deleted.
+     */
+    private void writeStage(ConversionPipeline.Job job) throws IOException {
+        GbFileWriter gbFileWriter = job.getGbFileWriter();
+        final File output = job.getOutput();
+        final File temporary = temporaryFileFor(output);
+        MessageDigest digest = newDigest();
+        AsyncFileWriter asyncFileWriter = this.asyncFileWriter;
+        if (asyncFileWriter != null) {
+            AsyncFileWriter.Output stream = asyncFileWriter.open(temporary);
+            try (OutputStream closing = stream) {
+                gbFileWriter.writeGbFile(job.getGCKFile(), new DigestOutputStream(closing, digest), job.getFeatureList());
+                if (gbFileWriter.hasWriteFailed()) {
+                    throw new IOException("Failed writing " + temporary.getName());
+                }
+            } catch (IOException | RuntimeException ex) {
+                //The buffers already sent are still being written, the file is deleted after them.
+                stream.getCompletion().whenComplete((written, e) -> deleteTemporary(temporary));
+                throw ex;
+            }
+            job.setCompletion(stream.getCompletion().thenRun(() -> {
+                try {
+                    moveIntoPlace(temporary, output);
+                } catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+            }).whenComplete((moved, ex) -> {
+                if (ex != null) {
+                    deleteTemporary(temporary);
+                }
+            }));
+        } else {
+            try (OutputStream stream = new FileOutputStream(temporary)) {
+                gbFileWriter.writeGbFile(job.getGCKFile(), new DigestOutputStream(stream, digest), job.getFeatureList());
+                if (gbFileWriter.hasWriteFailed()) {
+                    throw new IOException("Failed writing " + temporary.getName());
+                }
+            } catch (IOException | RuntimeException ex) {
+                deleteTemporary(temporary);
+                throw ex;
+            }
+            moveIntoPlace(temporary, output);
+        }
+        if (verify && expectations == null) {
+            //A single file, not part of a batch, is checked straight away.
+            List<String> problems = new GbFileVerifier().verify(output, new GbFileVerifier.Expectation(job.getGCKFile(),
+                    gbFileWriter.getNumFeaturesWritten()));
+            for (String problem : problems) {
+                logger.severe("Verification failed: " + problem);
+            }
+            if (!problems.isEmpty()) {
+                throw new IOException("Verification failed: " + problems.get(0));
+            }
+        }
+        job.getResult().setOutputHash(toHex(digest.digest()));
+        job.getResult().setEmittedFeatures(gbFileWriter.getNumFeaturesWritten());
+        job.getResult().setStatus(ConversionResult.Status.CONVERTED);
+        if (verify && expectations != null) {
+            expectations.put(job.getOutput(), new GbFileVerifier.Expectation(job.getGCKFile(), gbFileWriter.getNumFeaturesWritten()));
+        }
+    }
+
+    /**
+     * Writes the GeneBank file to a stream given by the caller, hashing it on the way.
+     */
+    private void writeStreamStage(ConversionPipeline.Job job, OutputStream output) throws IOException {
+        GbFileWriter gbFileWriter = job.getGbFileWriter();
+        MessageDigest digest = newDigest();
+        OutputStream unclosed = new FilterOutputStream(output) {
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+            }
+
+            @Override
+            public void close() throws IOException {
+                flush(); //The stream belongs to the caller.
+            }
+        };
+        gbFileWriter.writeGbFile(job.getGCKFile(), new DigestOutputStream(unclosed, digest), job.getFeatureList());
+        if (gbFileWriter.hasWriteFailed()) {
+            throw new IOException("Failed writing the GeneBank file of " + job.getInput().getName());
+        }
+        job.getResult().setOutputHash(toHex(digest.digest()));
+        job.getResult().setEmittedFeatures(gbFileWriter.getNumFeaturesWritten());
+        job.getResult().setStatus(ConversionResult.Status.CONVERTED);
+    }
+
+    /**
+     * @return The file an output is written to before it is complete.
+     */
+    static File temporaryFileFor(File output) {
+        return new File(output.getParentFile(), output.getName() + TEMPORARY_SUFFIX);
+    }
+
+    /**
+     * Deletes the temporary file of an output that could not be written.
+     */
+    private static void deleteTemporary(File temporary) {
+        try {
+            Files.deleteIfExists(temporary.toPath());
+        } catch (IOException ex) {
+            logger.warning("Failed to delete " + temporary.getPath());
+        }
+    }
+
+    /**
+     * Forces a complete temporary file to the disk and renames it to its final name, replacing the file there in one
+     * step where the file system allows it. The rename is then forced to the disk too, so once this returns the file
+     * is complete under its final name even after a power loss.
+     */
+    static void moveIntoPlace(File temporary, File target) throws IOException {
+        try (FileChannel channel = FileChannel.open(temporary.toPath(), StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+        try {
+            Files.move(temporary.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException ex) {
+            Files.move(temporary.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        syncDirectory(target.getAbsoluteFile().getParentFile());
+    }
+
+    /**
+     * Forces the entries of a directory to the disk. Some platforms cannot open a directory, there the file system
+     * is left to write them.
+     */
+    static void syncDirectory(File directory) {
+        try (FileChannel channel = FileChannel.open(directory.toPath(), StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException ex) {
+            logger.fine("Cannot force the directory " + directory.getPath() + " to the disk: " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Hashes a file the same way outputs are hashed while they are written.
+     *
+     * @return The SHA-256 hash of the file, or null if it cannot be read.
+     */
+    static String hashFile(File file) {
+        MessageDigest digest = newDigest();
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(HASH_BUFFER_SIZE);
+            while (channel.read(buffer) >= 0) {
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+            }
+        } catch (IOException ex) {
+            logger.warning("Failed to read " + file.getPath() + ": " + ex.getMessage());
+            return null;
+        }
+        return toHex(digest.digest());
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            //Every Java platform is required to support SHA-256.
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        char[] hex = new char[2 * bytes.length];
+        for (int i = 0; i < bytes.length; i++) {
+            hex[2 * i] = HEX_DIGITS[(bytes[i] >> 4) & 0xf];
+            hex[2 * i + 1] = HEX_DIGITS[bytes[i] & 0xf];
+        }
+        return new String(hex);
+    }
+
+    /**
+     * Reads a GCK file into a GCKFile object.
+     */
+    GCKFile readFile(File inputFile) throws IOException {
+        GCKFile gckFile = newGCKFile(inputFile);
+        GCKFileAnalyzer fileAnalyzer = new GCKFileAnalyzer(gckFile);
+        fileAnalyzer.setLowerCaseSequence(lowerCaseSequence);
+        fileAnalyzer.readGCKFile();
+        return gckFile;
+    }
+
+    /**
+     * Reads GCK data from a channel into a GCKFile object named after a file.
+     */
+    GCKFile readChannel(File name, SeekableByteChannel input) throws IOException {
+        GCKFile gckFile = newGCKFile(name);
+        GCKFileAnalyzer fileAnalyzer = new GCKFileAnalyzer(gckFile, input);
+        fileAnalyzer.setLowerCaseSequence(lowerCaseSequence);
+        fileAnalyzer.readGCKFile();
+        return gckFile;
+    }
+
+    private GbFileWriter newGbFileWriter() {
+        GbFileWriter gbFileWriter = new GbFileWriter();
+        gbFileWriter.setApEData(includeApEData);
+        gbFileWriter.setRestrictionSiteScanner(restrictionSiteScanner);
+        gbFileWriter.setIncludeStatistics(includeStatistics);
+        return gbFileWriter;
+    }
+
+    /**
+     * Creates an empty GCKFile object of the right type for a file.
+     *
+     * @param inputFile The GCK file.
+     * @return The GCKFile object to read the file into.
+     */
+    public static GCKFile newGCKFile(File inputFile) {
+        if (getExt(inputFile).equalsIgnoreCase("gcc")) {
+            return new GCKFile(inputFile, GCKFile.FileType.GCC);
+        }
+        return new GCKFile(inputFile, GCKFile.FileType.GCS);
+    }
+
+    /**
+     * @param inputFile A GCK file.
+     * @param outputDirectory The directory to write to.
+     * @return The GeneBank file the GCK file is converted to.
+     */
+    public static File outputFileFor(File inputFile, File outputDirectory) {
+        return new File(outputDirectory, getNameWOExt(inputFile) + ".gb");
+    }
+
+    /**
+     * Finds the extension of a file and returns it.
+     * Basically returns everything after the last dot in the file name.
+     *
+     * @param f File to examine.
+     * @return Extension
+     */
+    static String getExt(File f) {
+        String ext = "";
+        String fileName = f.getName();
+        int i = fileName.lastIndexOf('.');
+
+        if (i > 0 &&  i < fileName.length() - 1) {
+            ext = fileName.substring(i+1);
+        }
+        return ext;
+    }
+
+    /**
+     * Finds the name of a file without the extension.
+     * Basically removes the extension of the file, returning the rest of the file name. Without the dot.
+     *
+     * @param f File to examine.
+     * @return Name without the extension
+     */
+    static String getNameWOExt(File f) {
+        String name;
+        String fullName = f.getName();
+        int i = fullName.lastIndexOf('.');
+
+        if (i > 0 && i < fullName.length() - 1) {
+            name = fullName.substring(0, i);
+            return name;
+        }
+
+        return fullName;
+    }
+
+    /**
+     * Applies a set of options to the converter, replacing all the settings they hold.
+     *
+     * @param options The options.
+     */
+    public void setOptions(ConversionOptions options) {
+        options.applyTo(this);
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    public void setParseLevel(RegionParser.ParseLevel parseLevel) {
+        this.parseLevel = parseLevel;
+    }
+
+    public void setApEData(boolean includeApEData) {
+        this.includeApEData = includeApEData;
+    }
+
+    public void setIncludeUnnamed(boolean includeUnnamed) {
+        this.includeUnnamed = includeUnnamed;
+    }
+
+    public void setIncludePrimers(boolean includePrimers) {
+        this.includePrimers = includePrimers;
+    }
+
+    /**
+     * Sets whether the sequences are written in lower case, whatever case they are stored in.
+     *
+     * @param lowerCaseSequence True to write lower case sequences.
+     */
+    public void setLowerCaseSequence(boolean lowerCaseSequence) {
+        this.lowerCaseSequence = lowerCaseSequence;
+    }
+
+    /**
+     * Sets whether the base counts and GC content of every sequence are written as comments in its GeneBank file.
+     *
+     * @param includeStatistics True to write the statistics.
+     */
+    public void setIncludeStatistics(boolean includeStatistics) {
+        this.includeStatistics = includeStatistics;
+    }
+
+    public void setRestrictionSiteScanner(RestrictionSiteScanner restrictionSiteScanner) {
+        this.restrictionSiteScanner = restrictionSiteScanner;
+    }
+
+    /**
+     * Sets whether copies of the same construct should be converted only once.
+     *
+     * @param detectDuplicates If true the outputs of duplicates are linked to the output of the first copy.
+     */
+    public void setDetectDuplicates(boolean detectDuplicates) {
+        this.detectDuplicates = detectDuplicates;
+    }
+
+    /**
+     * Sets whether the written GeneBank files should be read back and checked once the batch is done.
+     *
+     * @param verify If true every output is verified.
+     */
+    public void setVerify(boolean verify) {
+        this.verify = verify;
+    }
+
+    /**
+     * Sets where the manifest of the next batch is written.
+     *
+     * @param manifestFile The manifest file, or null to create a new one in the output directory for every batch.
+     */
+    public void setManifestFile(File manifestFile) {
+        this.manifestFile = manifestFile;
+    }
+
+    /**
+     * Sets a directory of golden GeneBank files, written earlier from the same GCK files, to compare the outputs
+     * of a batch with once it is done.
+     *
+     * @param goldenDirectory The directory holding the golden files, or null not to compare.
+     */
+    public void setGoldenDirectory(File goldenDirectory) {
+        this.goldenDirectory = goldenDirectory;
+    }
+
+    /**
+     * Sets whether GeneBank files are written asynchronously in a batch. The writing threads then only render the
+     * files into pooled buffers and move on, while the buffers are written to the disk in the background.
+     *
+     * @param asyncOutput If true the outputs are written through an AsyncFileWriter.
+     * @param maxWritesInFlight The largest number of buffers being written at the same time.
+     */
+    public void setAsyncOutput(boolean asyncOutput, int maxWritesInFlight) {
+        this.asyncOutput = asyncOutput;
+        this.maxWritesInFlight = Math.max(1, maxWritesInFlight);
+    }
+
+    /**
+     * Sets the number of threads parsing files, which is also used for fingerprinting and verification.
+     *
+     * @param threads The number of threads.
+     */
+    public void setThreads(int threads) {
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * Sets the number of threads reading and writing files in the pipeline.
+     *
+     * @param readThreads Threads reading GCK files.
+     * @param writeThreads Threads writing GeneBank files.
+     */
+    public void setIOThreads(int readThreads, int writeThreads) {
+        this.readThreads = Math.max(1, readThreads);
+        this.writeThreads = Math.max(1, writeThreads);
+    }
+
+    /**
+     * Sets how many files can wait in front of each stage of the pipeline.
+     *
+     * @param queueCapacity The capacity of the queues, or 0 to use twice the number of parsing threads.
+     */
+    public void setQueueCapacity(int queueCapacity) {
+        this.queueCapacity = Math.max(0, queueCapacity);
+    }
+
+    /**
+     * Sets the memory the files being converted at the same time may take together. The footprint of every file is
+     * estimated from its header before it is read, see MemoryBudget.
+     *
+     * @param memoryBudget The budget in bytes, or 0 to convert files regardless of their size.
+     */
+    public void setMemoryBudget(long memoryBudget) {
+        this.memoryBudget = Math.max(0, memoryBudget);
+    }
+
+    /**
+     * Sets whether the batch continues from its journal, skipping the inputs converted by an earlier run. Otherwise
+     * the journal is started again.
+     *
+     * @param resume True to resume the batch.
+     */
+    public void setResume(boolean resume) {
+        this.resume = resume;
+    }
+
+    /**
+     * Sets whether the largest inputs are converted first, which shortens batches of mixed sizes. Otherwise the
+     * inputs are converted in the order given.
+     *
+     * @param largestFirst True to order the inputs by size.
+     */
+    public void setLargestFirst(boolean largestFirst) {
+        this.largestFirst = largestFirst;
+    }
+
+    private final FeatureLibrary library;
+    private Listener listener;
+    private RegionParser.ParseLevel parseLevel;
+    private boolean includeApEData;
+    private boolean includeUnnamed;
+    private boolean includePrimers;
+    private boolean lowerCaseSequence;
+    private boolean includeStatistics;
+    private RestrictionSiteScanner restrictionSiteScanner;
+    private boolean detectDuplicates;
+    private boolean verify;
+    private ConcurrentHashMap<File, GbFileVerifier.Expectation> expectations; //what the outputs of the running batch should contain
+    private File manifestFile;
+    private BatchManifest manifest; //manifest of the running batch
+    private boolean resume;
+    private boolean largestFirst;
+    private BatchJournal journal; //journal of the running batch
+    private ConcurrentHashMap<File, ConversionResult> finishedResults; //results by output, while duplicates are linked
+    private File goldenDirectory;
+    private boolean asyncOutput;
+    private int maxWritesInFlight;
+    private AsyncFileWriter asyncFileWriter; //writes the outputs of the running batch if asyncOutput is set
+    private int threads;
+    private int readThreads;
+    private int writeThreads;
+    private int queueCapacity;
+    private long memoryBudget; //in bytes, 0 for no limit
+    private final static Logger logger = Logger.getLogger("GCK_Converter_logger");
+
+    /***** CONSTANTS *****/
+    public final static String DUPLICATE_REPORT = "duplicates.txt";
+    public final static String JOURNAL_FILE = "journal.jsonl";
+    private final static String TEMPORARY_SUFFIX = ".part";
+    private final static int HASH_BUFFER_SIZE = 64 * 1024;
+    private final static char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+    final static int DEFAULT_IO_THREADS = 2;
+    final static int DEFAULT_WRITES_IN_FLIGHT = 16;
+    private final static int ASYNC_BUFFER_SIZE = 256 * 1024;
+}
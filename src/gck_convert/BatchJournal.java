@@ -0,0 +1,220 @@
+package gck_convert;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * An append only record of the inputs a batch has finished, kept on the disk so that an interrupted batch can be
+ * resumed.
+ *
+ * Every finished input is written as one JSON line with its size and modification time, the output written and its
+ * size and SHA-256 hash. An input is only recorded once its output has been forced to the disk under its final name. The lines are written by a single appender thread, which forces them to the disk at most
+ * once every SYNC_INTERVAL_MS: all the lines arriving in that time share one fsync, and the workers never wait for
+ * it. A crash loses at most the lines of the last interval, and a line cut short by the crash is ignored when the
+ * journal is loaded.
+ *
+ * @author Matyas Medzihradszky
+ * @version 0.1
+ */
+public class BatchJournal {
+
+    /**
+     * A finished input as recorded in the journal.
+     */
+    public static class Entry {
+        private Entry(String line) {
+            input = BatchManifest.stringField(line, "input");
+            output = BatchManifest.stringField(line, "output");
+            status = BatchManifest.stringField(line, "status");
+            hash = BatchManifest.stringField(line, "sha256");
+            inputBytes = BatchManifest.longField(line, "inputBytes");
+            inputModified = BatchManifest.longField(line, "inputModified");
+            outputBytes = BatchManifest.longField(line, "outputBytes");
+        }
+
+        /**
+         * Checks whether the input was converted and nothing has changed since: the input has the same size and
+         * modification time, and the output is still there with the size and the SHA-256 hash it was written with.
+         * The output is read again to hash it, so one damaged on the disk is converted again.
+         *
+         * @param inputFile The GCK file.
+         * @param outputFile The GeneBank file it would be converted to.
+         * @return True if the input does not have to be converted again.
+         */
+        public boolean isDone(File inputFile, File outputFile) {
+            return (ConversionResult.Status.CONVERTED.dispName().equals(status) || ConversionResult.Status.LINKED.dispName().equals(status))
+                    && outputFile.getPath().equals(output)
+                    && inputFile.length() == inputBytes && inputFile.lastModified() == inputModified
+                    && outputFile.isFile() && outputFile.length() == outputBytes
+                    && hash != null && hash.equals(BatchConverter.hashFile(outputFile));
+        }
+
+        public String getInput() {
+            return input;
+        }
+
+        public String getOutput() {
+            return output;
+        }
+
+        public String getStatus() {
+            return status;
+        }
+
+        public String getHash() {
+            return hash;
+        }
+
+        private final String input;
+        private final String output;
+        private final String status;
+        private final String hash;
+        private final long inputBytes;
+        private final long inputModified;
+        private final long outputBytes;
+    }
+
+    /**
+     * Opens the journal and starts the appender thread.
+     *
+     * @param journalFile The file of the journal.
+     * @param append If true new lines are added to the existing journal, otherwise it is started again.
+     * @throws IOException Thrown if the file cannot be opened.
+     */
+    public BatchJournal(File journalFile, boolean append) throws IOException {
+        super();
+        this.journalFile = journalFile;
+        channel = FileChannel.open(journalFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                append ? StandardOpenOption.APPEND : StandardOpenOption.TRUNCATE_EXISTING);
+        lines = new LinkedBlockingQueue<String>();
+        appender = new Thread(this::appendLines, "journal-appender");
+        appender.setDaemon(true);
+        appender.start();
+    }
+
+    /**
+     * Reads the entries of a journal. Lines that are not complete are skipped.
+     *
+     * @param journalFile The file of the journal.
+     * @return The last entry of every input, by the path of the input. Empty if there is no journal.
+     */
+    public static Map<String, Entry> load(File journalFile) {
+        Map<String, Entry> entries = new HashMap<String, Entry>();
+        if (!journalFile.isFile()) {
+            return entries;
+        }
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(journalFile), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith("{") && line.endsWith("}")) {
+                    Entry entry = new Entry(line);
+                    if (entry.getInput() != null) {
+                        entries.put(entry.getInput(), entry);
+                    }
+                }
+            }
+        } catch (IOException ex) {
+            logger.severe("Failed reading the journal " + journalFile.getName() + ", " + entries.size() + " entries read.");
+        }
+        return entries;
+    }
+
+    /**
+     * Adds a finished input to the journal. The line reaches the disk within SYNC_INTERVAL_MS.
+     *
+     * @param result The result of the input.
+     */
+    public void record(ConversionResult result) {
+        File output = result.getOutput();
+        StringBuilder sb = new StringBuilder(256);
+        sb.append('{');
+        BatchManifest.field(sb, "input", result.getInput().getPath()).append(',');
+        sb.append("\"inputBytes\":").append(result.getInput().length()).append(',');
+        sb.append("\"inputModified\":").append(result.getInput().lastModified()).append(',');
+        BatchManifest.field(sb, "output", output.getPath()).append(',');
+        sb.append("\"outputBytes\":").append(result.isSuccess() ? output.length() : 0).append(',');
+        BatchManifest.field(sb, "status", result.getStatus().dispName()).append(',');
+        BatchManifest.field(sb, "sha256", result.getOutputHash());
+        sb.append('}');
+        lines.add(sb.toString());
+    }
+
+    /**
+     * Writes the remaining lines, forces them to the disk and closes the journal.
+     */
+    public void close() {
+        lines.add(END);
+        try {
+            appender.join();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public File getJournalFile() {
+        return journalFile;
+    }
+
+    /**
+     * Body of the appender thread. Collects the lines arriving within SYNC_INTERVAL_MS of the first one, writes them
+     * together and forces them to the disk.
+     */
+    private void appendLines() {
+        StringBuilder batch = new StringBuilder();
+        boolean ended = false;
+        try {
+            while (!ended) {
+                String line = lines.take();
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(SYNC_INTERVAL_MS);
+                while (line != null) {
+                    if (line == END) {
+                        ended = true;
+                        break;
+                    }
+                    batch.append(line).append('\n');
+                    line = lines.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                }
+                if (batch.length() > 0) {
+                    ByteBuffer bytes = StandardCharsets.UTF_8.encode(batch.toString());
+                    while (bytes.hasRemaining()) {
+                        channel.write(bytes);
+                    }
+                    channel.force(false);
+                    batch.setLength(0);
+                }
+            }
+        } catch (IOException ex) {
+            logger.severe("Failed writing the journal " + journalFile.getName() + ": " + ex.getMessage());
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } finally {
+            try {
+                channel.close();
+            } catch (IOException ex) {
+                logger.severe("Failed closing the journal " + journalFile.getName());
+            }
+        }
+    }
+
+    private final File journalFile;
+    private final FileChannel channel;
+    private final LinkedBlockingQueue<String> lines; //lines waiting to be written by the appender
+    private final Thread appender;
+    private final static Logger logger = Logger.getLogger("GCK_Converter_logger");
+
+    /***** CONSTANTS *****/
+    public final static long SYNC_INTERVAL_MS = 100;
+    private final static String END = new String("end"); //marks the end of the journal, compared by reference
+}
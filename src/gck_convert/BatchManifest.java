@@ -0,0 +1,242 @@
+package gck_convert;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.logging.Logger;
+
+/**
+ * Writes a JSON Lines manifest of a batch, with one line for every input and a summary line at the end.
+ *
+ * The lines are formatted by the worker threads and handed to a single appender thread, which is the only one
+ * writing the file. Workers therefore never wait for each other or for the disk to report a result.
+ *
+ * @author Matyas Medzihradszky
+ * @version 0.1
+ */
+public class BatchManifest {
+
+    /**
+     * Opens the manifest file and starts the appender thread.
+     *
+     * @param manifestFile The file to write the manifest to. It is overwritten if it exists.
+     * @throws IOException Thrown if the file cannot be opened.
+     */
+    public BatchManifest(File manifestFile) throws IOException {
+        super();
+        this.manifestFile = manifestFile;
+        writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(manifestFile), StandardCharsets.UTF_8));
+        lines = new LinkedBlockingQueue<String>();
+        startTime = System.nanoTime();
+        appender = new Thread(this::appendLines, "manifest-appender");
+        appender.setDaemon(true);
+        appender.start();
+    }
+
+    /**
+     * Adds the result of converting a file to the manifest.
+     *
+     * @param result The result to add.
+     */
+    public void append(ConversionResult result) {
+        StringBuilder sb = new StringBuilder(256);
+        sb.append('{');
+        field(sb, "input", result.getInput().getPath()).append(',');
+        field(sb, "output", result.getOutput().getPath()).append(',');
+        field(sb, "status", result.getStatus().dispName()).append(',');
+        sb.append("\"inputBytes\":").append(result.getInput().length()).append(',');
+        sb.append("\"outputBytes\":").append(result.isSuccess() ? result.getOutput().length() : 0).append(',');
+        field(sb, "sha256", result.getOutputHash()).append(',');
+        sb.append("\"sequenceLength\":").append(result.getSequenceLength()).append(',');
+        sb.append("\"regions\":").append(result.getNumRegions()).append(',');
+        sb.append("\"features\":").append(result.getNumFeatures()).append(',');
+        sb.append("\"sites\":").append(result.getNumSites()).append(',');
+        sb.append("\"circular\":").append(result.isCircular()).append(',');
+        sb.append("\"gcContent\":").append(Math.round(result.getGCContent() * 10000) / 10000.0).append(',');
+        sb.append("\"invalidBases\":").append(result.getInvalidBases()).append(',');
+        sb.append("\"emittedFeatures\":").append(result.getEmittedFeatures()).append(',');
+        sb.append("\"readMs\":").append(millis(result.getReadNanos())).append(',');
+        sb.append("\"parseMs\":").append(millis(result.getParseNanos())).append(',');
+        sb.append("\"writeMs\":").append(millis(result.getWriteNanos())).append(',');
+        field(sb, "error", result.getError());
+        sb.append('}');
+        synchronized (this) {
+            numFiles++;
+            if (!result.isSuccess()) {
+                numFailed++;
+            }
+        }
+        lines.add(sb.toString());
+    }
+
+    /**
+     * Writes the summary line, waits for all the lines to be written, and closes the file.
+     */
+    public void close() {
+        StringBuilder sb = new StringBuilder("{\"summary\":true,");
+        synchronized (this) {
+            sb.append("\"files\":").append(numFiles).append(',');
+            sb.append("\"failed\":").append(numFailed).append(',');
+        }
+        sb.append("\"durationMs\":").append(millis(System.nanoTime() - startTime)).append('}');
+        lines.add(sb.toString());
+        lines.add(END);
+        try {
+            appender.join();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public synchronized int getNumFiles() {
+        return numFiles;
+    }
+
+    public synchronized int getNumFailed() {
+        return numFailed;
+    }
+
+    public File getManifestFile() {
+        return manifestFile;
+    }
+
+    /**
+     * Body of the appender thread. Writes the lines in the order they were added, flushing whenever it runs out.
+     */
+    private void appendLines() {
+        try {
+            while (true) {
+                String line = lines.take();
+                if (line == END) {
+                    break;
+                }
+                writer.write(line);
+                writer.write('\n');
+                if (lines.isEmpty()) {
+                    writer.flush();
+                }
+            }
+        } catch (IOException ex) {
+            logger.severe("Failed writing the manifest " + manifestFile.getName());
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } finally {
+            try {
+                writer.close();
+            } catch (IOException ex) {
+                logger.severe("Failed closing the manifest " + manifestFile.getName());
+            }
+        }
+    }
+
+    /**
+     * Adds a string field to a JSON line, escaping the value. The BatchJournal writes its lines with it too.
+     *
+     * @return The builder.
+     */
+    static StringBuilder field(StringBuilder sb, String name, String value) {
+        sb.append('"').append(name).append("\":");
+        if (value == null) {
+            return sb.append("null");
+        }
+        sb.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"': sb.append("\\\""); break;
+                case '\\': sb.append("\\\\"); break;
+                case '\n': sb.append("\\n"); break;
+                case '\r': sb.append("\\r"); break;
+                case '\t': sb.append("\\t"); break;
+                default:
+                    if (c < 0x20) {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+            }
+        }
+        return sb.append('"');
+    }
+
+    /**
+     * Reads a string field of a JSON line.
+     *
+     * @return The value, or null if the field is missing or null.
+     */
+    static String stringField(String line, String name) {
+        int start = line.indexOf("\"" + name + "\":\"");
+        if (start < 0) {
+            return null;
+        }
+        StringBuilder sb = new StringBuilder();
+        for (int i = start + name.length() + 4; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == '"') {
+                return sb.toString();
+            } else if (c == '\\' && i + 1 < line.length()) {
+                c = line.charAt(++i);
+                switch (c) {
+                    case 'n': sb.append('\n'); break;
+                    case 'r': sb.append('\r'); break;
+                    case 't': sb.append('\t'); break;
+                    case 'u':
+                        if (i + 4 >= line.length()) {
+                            return null;
+                        }
+                        sb.append((char) Integer.parseInt(line.substring(i + 1, i + 5), 16));
+                        i += 4;
+                        break;
+                    default:
+                        sb.append(c);
+                }
+            } else {
+                sb.append(c);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Reads a number field of a JSON line.
+     *
+     * @return The value, or -1 if the field is missing.
+     */
+    static long longField(String line, String name) {
+        int start = line.indexOf("\"" + name + "\":");
+        if (start < 0) {
+            return -1;
+        }
+        start += name.length() + 3;
+        int end = start;
+        while (end < line.length() && (Character.isDigit(line.charAt(end)) || line.charAt(end) == '-')) {
+            end++;
+        }
+        try {
+            return Long.parseLong(line.substring(start, end));
+        } catch (NumberFormatException ex) {
+            return -1;
+        }
+    }
+
+    private static String millis(long nanos) {
+        return String.valueOf(nanos / 1000 / 1000.0);
+    }
+
+    private final File manifestFile;
+    private final Writer writer;
+    private final LinkedBlockingQueue<String> lines; //lines waiting to be written by the appender
+    private final Thread appender;
+    private final long startTime;
+    private int numFiles;
+    private int numFailed;
+    private final static Logger logger = Logger.getLogger("GCK_Converter_logger");
+
+    /***** CONSTANTS *****/
+    private final static String END = new String("end"); //marks the end of the manifest, compared by reference
+}
@@ -0,0 +1,554 @@
+package gck_convert;
+
+import gckfilestructure.GCKFile;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+
+/**
+ * Measures the throughput of whole batches: reading, parsing and writing real files, as a batch of the GUI or the
+ * command line does, so the effects of the file system and of the scheduling of the threads are included.
+ *
+ * The same inputs are converted once for every combination of thread count and output mode, after one run that
+ * is not measured to warm up the JVM. Every run reports the files and megabytes converted per second, the median
+ * and 99th percentile of the time spent on one file, and the garbage collection time and the allocation rate of the
+ * whole JVM while it ran. The results are written as JSON, see toJson.
+ *
+ * The time of a file is the time its stages took, without the time it waited in the queues between them.
+ * Allocation is counted from the heap usage before and after the run and the memory freed by every collection in
+ * between, which needs a HotSpot compatible JVM; elsewhere it is reported as -1.
+ *
+ * @author Matyas Medzihradszky
+ * @version 0.1
+ */
+public class Benchmark {
+
+    /**
+     * The output modes a batch can be measured with.
+     */
+    public enum IOMode {
+        SYNC("sync"), ASYNC("async");
+
+        private IOMode(String name) {
+            this.name = name;
+        }
+
+        public String dispName() {
+            return name;
+        }
+
+        /**
+         * @param name The name of a mode, as shown by dispName.
+         * @return The mode.
+         * @throws IllegalArgumentException Thrown if there is no such mode.
+         */
+        public static IOMode fromName(String name) {
+            for (IOMode mode : values()) {
+                if (mode.name.equalsIgnoreCase(name)) {
+                    return mode;
+                }
+            }
+            throw new IllegalArgumentException("Unknown I/O mode " + name);
+        }
+
+        private final String name;
+    }
+
+    /**
+     * The measurements of one batch.
+     */
+    public static class Run {
+        private Run(int threads, IOMode mode) {
+            this.threads = threads;
+            this.mode = mode;
+        }
+
+        public int getThreads() {
+            return threads;
+        }
+
+        public IOMode getMode() {
+            return mode;
+        }
+
+        public int getNumFiles() {
+            return numFiles;
+        }
+
+        public int getNumFailed() {
+            return numFailed;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+
+        public long getNanos() {
+            return nanos;
+        }
+
+        public double getFilesPerSecond() {
+            return numFiles / seconds(nanos);
+        }
+
+        public double getMegabytesPerSecond() {
+            return bytes / MEGABYTE / seconds(nanos);
+        }
+
+        /**
+         * @param percentile The percentile, between 0 and 100.
+         * @return The time of a file at the percentile, in milliseconds, by the nearest rank.
+         */
+        public double getLatencyMillis(double percentile) {
+            if (latencies.length == 0) {
+                return 0;
+            }
+            int rank = (int) Math.ceil(percentile / 100 * latencies.length);
+            return latencies[Math.min(latencies.length, Math.max(1, rank)) - 1] / 1e6;
+        }
+
+        public long getGcMillis() {
+            return gcMillis;
+        }
+
+        public long getGcCount() {
+            return gcCount;
+        }
+
+        /**
+         * @return The bytes allocated by the JVM during the run, or -1 if they could not be counted.
+         */
+        public long getAllocatedBytes() {
+            return allocatedBytes;
+        }
+
+        public double getAllocationMegabytesPerSecond() {
+            return allocatedBytes < 0 ? -1 : allocatedBytes / MEGABYTE / seconds(nanos);
+        }
+
+        private static double seconds(long nanos) {
+            return Math.max(1, nanos) / 1e9;
+        }
+
+        private final int threads;
+        private final IOMode mode;
+        private int numFiles;
+        private int numFailed;
+        private long bytes;
+        private long nanos;
+        private long[] latencies; //nanoseconds, sorted
+        private long gcMillis;
+        private long gcCount;
+        private long allocatedBytes;
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param batchConverter The converter to measure, with its other settings already set. Its thread count,
+     * output mode and listener are changed for every run. Resuming and the comparison with golden files are turned
+     * off, as every run must convert every file the same way.
+     */
+    public Benchmark(BatchConverter batchConverter) {
+        super();
+        this.batchConverter = batchConverter;
+        batchConverter.setResume(false);
+        batchConverter.setGoldenDirectory(null);
+        threadCounts = new int[] {1, Runtime.getRuntime().availableProcessors()};
+        modes = new IOMode[] {IOMode.SYNC, IOMode.ASYNC};
+    }
+
+    /**
+     * Sets the thread counts to measure.
+     *
+     * @param threadCounts The numbers of threads parsing files, one run for each.
+     */
+    public void setThreadCounts(int[] threadCounts) {
+        if (threadCounts.length == 0) {
+            throw new IllegalArgumentException("At least one thread count is needed.");
+        }
+        this.threadCounts = threadCounts.clone();
+    }
+
+    /**
+     * Sets the output modes to measure, each with every thread count.
+     *
+     * @param modes The modes.
+     */
+    public void setModes(IOMode[] modes) {
+        if (modes.length == 0) {
+            throw new IllegalArgumentException("At least one I/O mode is needed.");
+        }
+        this.modes = modes.clone();
+    }
+
+    /**
+     * Sets how many times every combination is measured. The runs are reported separately.
+     *
+     * @param repeats The number of runs of every combination.
+     */
+    public void setRepeats(int repeats) {
+        this.repeats = Math.max(1, repeats);
+    }
+
+    /**
+     * Converts the inputs with every combination of the settings.
+     *
+     * @param inputs The GCK files.
+     * @param outputDirectory Where the GeneBank files are written. They are overwritten by every run.
+     * @return The runs, in the order they were made.
+     */
+    public List<Run> run(File[] inputs, File outputDirectory) {
+        long bytes = 0;
+        for (File input : inputs) {
+            bytes += input.length();
+        }
+        runOnce(inputs, bytes, outputDirectory, threadCounts[threadCounts.length - 1], modes[0]);
+        List<Run> runs = new ArrayList<Run>();
+        for (IOMode mode : modes) {
+            for (int threads : threadCounts) {
+                for (int i = 0; i < repeats; i++) {
+                    Run run = runOnce(inputs, bytes, outputDirectory, threads, mode);
+                    logger.info("Benchmark: " + threads + " threads, " + mode.dispName() + ": " + run.getFilesPerSecond() + " files/s");
+                    runs.add(run);
+                }
+            }
+        }
+        return runs;
+    }
+
+    private Run runOnce(File[] inputs, long bytes, File outputDirectory, int threads, IOMode mode) {
+        final Run run = new Run(threads, mode);
+        final long[] latencies = new long[inputs.length];
+        final AtomicLong finished = new AtomicLong();
+        final AtomicLong failed = new AtomicLong();
+        batchConverter.setThreads(threads);
+        batchConverter.setAsyncOutput(mode == IOMode.ASYNC, BatchConverter.DEFAULT_WRITES_IN_FLIGHT);
+        batchConverter.setManifestFile(new File(outputDirectory, MANIFEST_FILE));
+        batchConverter.setListener(new BatchConverter.Listener() {
+            @Override
+            public void fileFinished(File input, File output, boolean success) {
+            }
+
+            @Override
+            public void fileFinished(ConversionResult result) {
+                int i = (int) finished.getAndIncrement();
+                if (i < latencies.length) {
+                    latencies[i] = result.getReadNanos() + result.getParseNanos() + result.getWriteNanos();
+                }
+                if (!result.isSuccess()) {
+                    failed.incrementAndGet();
+                }
+            }
+
+            @Override
+            public void message(String message) {
+            }
+        });
+
+        System.gc();
+        AllocationCounter allocationCounter = new AllocationCounter();
+        long gcMillis = totalGcMillis();
+        long gcCount = totalGcCount();
+        long startTime = System.nanoTime();
+        batchConverter.convert(inputs, outputDirectory);
+        run.nanos = System.nanoTime() - startTime;
+        run.gcMillis = totalGcMillis() - gcMillis;
+        run.gcCount = totalGcCount() - gcCount;
+        run.allocatedBytes = allocationCounter.finish(totalGcCount());
+
+        run.numFiles = (int) Math.min(finished.get(), inputs.length);
+        run.numFailed = (int) failed.get();
+        run.bytes = bytes;
+        run.latencies = Arrays.copyOf(latencies, run.numFiles);
+        Arrays.sort(run.latencies);
+        return run;
+    }
+
+    private static long totalGcMillis() {
+        long total = 0;
+        for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+            total += Math.max(0, bean.getCollectionTime());
+        }
+        return total;
+    }
+
+    private static long totalGcCount() {
+        long total = 0;
+        for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+            total += Math.max(0, bean.getCollectionCount());
+        }
+        return total;
+    }
+
+    /**
+     * Counts the bytes allocated from its creation on: the growth of the heap, plus what every collection freed.
+     */
+    private static class AllocationCounter implements NotificationListener {
+        AllocationCounter() {
+            supported = true;
+            startCount = totalGcCount();
+            for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+                if (bean instanceof NotificationEmitter) {
+                    ((NotificationEmitter) bean).addNotificationListener(this, null, null);
+                } else {
+                    supported = false;
+                }
+            }
+            startUsed = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+        }
+
+        @Override
+        public void handleNotification(Notification notification, Object handback) {
+            if (!GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION.equals(notification.getType())) {
+                return;
+            }
+            GarbageCollectionNotificationInfo info = GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData());
+            Map<String, MemoryUsage> after = info.getGcInfo().getMemoryUsageAfterGc();
+            long freed = 0;
+            for (Map.Entry<String, MemoryUsage> before : info.getGcInfo().getMemoryUsageBeforeGc().entrySet()) {
+                MemoryUsage usageAfter = after.get(before.getKey());
+                freed += before.getValue().getUsed() - (usageAfter != null ? usageAfter.getUsed() : 0);
+            }
+            synchronized (this) {
+                this.freed += freed;
+                notified++;
+            }
+        }
+
+        /**
+         * Stops counting, waiting briefly for the notifications of the collections made so far, which are
+         * delivered by another thread.
+         *
+         * @param gcCount The number of collections made by now.
+         * @return The bytes allocated, or -1 if they could not be counted.
+         */
+        long finish(long gcCount) {
+            long used = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+            long deadline = System.currentTimeMillis() + NOTIFICATION_WAIT_MS;
+            boolean complete;
+            synchronized (this) {
+                while (!(complete = notified >= gcCount - startCount) && System.currentTimeMillis() < deadline) {
+                    try {
+                        wait(10);
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                        break;
+                    }
+                }
+            }
+            for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+                if (bean instanceof NotificationEmitter) {
+                    try {
+                        ((NotificationEmitter) bean).removeNotificationListener(this);
+                    } catch (Exception ex) {
+                        //Already removed.
+                    }
+                }
+            }
+            synchronized (this) {
+                return supported && complete ? Math.max(0, used - startUsed + freed) : -1;
+            }
+        }
+
+        private boolean supported;
+        private final long startCount;
+        private final long startUsed;
+        private long freed;
+        private long notified;
+    }
+
+    /**
+     * Writes the runs as a JSON object, with the JVM and the inputs they were measured on.
+     *
+     * @param runs The runs.
+     * @param corpus Describes the inputs, for example the directory they were taken from.
+     * @return The JSON text.
+     */
+    public static String toJson(List<Run> runs, String corpus) {
+        Runtime runtime = Runtime.getRuntime();
+        StringBuilder sb = new StringBuilder(256 + 512 * runs.size());
+        sb.append("{\n  ");
+        BatchManifest.field(sb, "javaVersion", System.getProperty("java.version")).append(",\n  ");
+        BatchManifest.field(sb, "vm", System.getProperty("java.vm.name")).append(",\n  ");
+        sb.append("\"processors\":").append(runtime.availableProcessors()).append(",\n  ");
+        sb.append("\"maxHeapMb\":").append(runtime.maxMemory() / 1024 / 1024).append(",\n  ");
+        BatchManifest.field(sb, "corpus", corpus).append(",\n  ");
+        sb.append("\"files\":").append(runs.isEmpty() ? 0 : runs.get(0).getNumFiles()).append(",\n  ");
+        sb.append("\"bytes\":").append(runs.isEmpty() ? 0 : runs.get(0).getBytes()).append(",\n  ");
+        sb.append("\"runs\":[");
+        for (int i = 0; i < runs.size(); i++) {
+            Run run = runs.get(i);
+            sb.append(i == 0 ? "\n    {" : ",\n    {");
+            sb.append("\"threads\":").append(run.getThreads()).append(", ");
+            BatchManifest.field(sb, "io", run.getMode().dispName()).append(", ");
+            sb.append("\"files\":").append(run.getNumFiles()).append(", ");
+            sb.append("\"failed\":").append(run.getNumFailed()).append(", ");
+            sb.append("\"seconds\":").append(format(run.getNanos() / 1e9)).append(", ");
+            sb.append("\"filesPerSecond\":").append(format(run.getFilesPerSecond())).append(", ");
+            sb.append("\"mbPerSecond\":").append(format(run.getMegabytesPerSecond())).append(", ");
+            sb.append("\"p50Ms\":").append(format(run.getLatencyMillis(50))).append(", ");
+            sb.append("\"p99Ms\":").append(format(run.getLatencyMillis(99))).append(", ");
+            sb.append("\"gcMs\":").append(run.getGcMillis()).append(", ");
+            sb.append("\"gcCount\":").append(run.getGcCount()).append(", ");
+            sb.append("\"allocatedMb\":").append(run.getAllocatedBytes() < 0 ? "null" : format(run.getAllocatedBytes() / MEGABYTE)).append(", ");
+            sb.append("\"allocationMbPerSecond\":").append(run.getAllocatedBytes() < 0 ? "null" : format(run.getAllocationMegabytesPerSecond()));
+            sb.append('}');
+        }
+        sb.append(runs.isEmpty() ? "]\n}\n" : "\n  ]\n}\n");
+        return sb.toString();
+    }
+
+    private static String format(double value) {
+        return String.format(Locale.ROOT, "%.3f", value);
+    }
+
+    /**
+     * Writes a reproducible set of synthetic GCK files, shaped like plasmid maps of a few kilobases with a feature
+     * every few hundred bases, for measuring without a corpus of real files.
+     *
+     * @param directory Where to write the files.
+     * @param numFiles The number of files.
+     * @param seed The seed of the random contents. The same seed gives the same files.
+     * @return The files written.
+     * @throws IOException Thrown if a file cannot be written.
+     */
+    public static File[] createSyntheticCorpus(File directory, int numFiles, long seed) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("The directory " + directory.getPath() + " cannot be created.");
+        }
+        Random random = new Random(seed);
+        File[] files = new File[numFiles];
+        for (int i = 0; i < numFiles; i++) {
+            files[i] = new File(directory, String.format(Locale.ROOT, "synthetic%05d.gcc", i));
+            int sequenceLength = SYNTHETIC_MIN_LENGTH + random.nextInt(SYNTHETIC_LENGTH_RANGE);
+            writeSyntheticFile(files[i], sequenceLength, random);
+        }
+        return files;
+    }
+
+    /**
+     * Writes one synthetic file, with the sections read by GCKFileAnalyzer and nothing else.
+     */
+    private static void writeSyntheticFile(File file, int sequenceLength, Random random) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            out.write(new byte[GCKFile.HEADER_LENGTH - 4]);
+            out.writeInt(sequenceLength);
+            byte[] sequence = new byte[sequenceLength];
+            for (int i = 0; i < sequenceLength; i++) {
+                sequence[i] = BASES[random.nextInt(BASES.length)];
+            }
+            out.write(sequence);
+
+            int numRegions = sequenceLength / SYNTHETIC_BASES_PER_REGION;
+            out.writeInt(6 + numRegions * GCKFile.REGION_DEF_LENGTH);
+            out.writeInt(sequenceLength);
+            out.writeShort(numRegions);
+            for (int i = 0; i < numRegions; i++) {
+                byte[] region = new byte[GCKFile.REGION_DEF_LENGTH];
+                int start = random.nextInt(sequenceLength - 100);
+                putInt(region, 0, start);
+                putInt(region, 4, start + 10 + random.nextInt(90));
+                region[16 + 2 * random.nextInt(3)] = (byte) 0xff; //red, green or blue
+                out.write(region);
+            }
+
+            int numFeatures = sequenceLength / SYNTHETIC_BASES_PER_FEATURE;
+            out.writeInt(6 + numFeatures * GCKFile.FEATURE_DEF_LENGTH);
+            out.writeInt(sequenceLength);
+            out.writeShort(numFeatures);
+            ByteArrayOutputStream textBytes = new ByteArrayOutputStream();
+            DataOutputStream texts = new DataOutputStream(textBytes);
+            for (int i = 0; i < numFeatures; i++) {
+                byte[] feature = new byte[GCKFile.FEATURE_DEF_LENGTH];
+                int start = random.nextInt(sequenceLength - 1000);
+                putInt(feature, 0, start);
+                putInt(feature, 4, start + 20 + random.nextInt(980));
+                feature[15] = (byte) random.nextInt(2);
+                feature[30] = (byte) random.nextInt(4);
+                feature[42] = (byte) random.nextInt(256);
+                boolean named = random.nextInt(5) != 0;
+                boolean commented = random.nextInt(3) == 0;
+                putInt(feature, 48, named ? 1 : 0);
+                putInt(feature, 52, commented ? 1 : 0);
+                out.write(feature);
+                if (named) {
+                    String name = SYNTHETIC_NAMES[random.nextInt(SYNTHETIC_NAMES.length)];
+                    texts.writeByte(name.length());
+                    texts.writeBytes(name);
+                }
+                if (commented) {
+                    String comment = "synthetic feature " + i;
+                    texts.writeInt(comment.length());
+                    texts.writeBytes(comment);
+                }
+            }
+            textBytes.writeTo(out);
+
+            out.writeInt(6 + SYNTHETIC_SITE_LENGTH);
+            out.writeInt(sequenceLength);
+            out.writeShort(1);
+            byte[] site = new byte[SYNTHETIC_SITE_LENGTH];
+            putInt(site, 32, 1);
+            out.write(site);
+            out.writeByte(5);
+            out.writeBytes("EcoRI");
+
+            out.writeInt(0); //the section between the sites and the generations
+            out.writeShort(0); //no generations
+            out.write(new byte[GCKFile.CONSTRUCT_NAME_OFFSET]);
+            String name = file.getName();
+            out.writeByte(name.length());
+            out.writeBytes(name);
+            out.write(new byte[16]);
+            out.writeByte(random.nextInt(4) == 0 ? 0 : 1); //mostly circular, as plasmids are
+            out.write(new byte[32]);
+        }
+    }
+
+    private static void putInt(byte[] bytes, int offset, int value) {
+        bytes[offset] = (byte) (value >>> 24);
+        bytes[offset + 1] = (byte) (value >>> 16);
+        bytes[offset + 2] = (byte) (value >>> 8);
+        bytes[offset + 3] = (byte) value;
+    }
+
+    private final BatchConverter batchConverter;
+    private int[] threadCounts;
+    private IOMode[] modes;
+    private int repeats = 1;
+    private final static Logger logger = Logger.getLogger("GCK_Converter_logger");
+
+    /***** CONSTANTS *****/
+    private final static double MEGABYTE = 1024 * 1024;
+    private final static long NOTIFICATION_WAIT_MS = 1000;
+    private final static String MANIFEST_FILE = "benchmark-manifest.jsonl";
+    private final static byte[] BASES = {'A', 'C', 'G', 'T'};
+    private final static int SYNTHETIC_MIN_LENGTH = 2000;
+    private final static int SYNTHETIC_LENGTH_RANGE = 18000;
+    private final static int SYNTHETIC_BASES_PER_REGION = 500;
+    private final static int SYNTHETIC_BASES_PER_FEATURE = 250;
+    private final static int SYNTHETIC_SITE_LENGTH = 88;
+    private final static String[] SYNTHETIC_NAMES = {"lacZ", "AmpR", "ori", "T7 promoter", "KanR", "f1 ori", "lac operator", "CMV enhancer"};
+}
@@ -0,0 +1,128 @@
+package gck_convert;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SeekableByteChannel;
+
+/**
+ * A read only, seekable channel over the bytes of a buffer, so data held in memory can be read like a file.
+ *
+ * The channel works on a view of the buffer: reading does not move the position of the buffer given, and the data
+ * runs from its position to its limit. The buffer may be shared by several channels.
+ *
+ * @author Matyas Medzihradszky
+ * @version 0.1
+ */
+public class ByteBufferChannel implements SeekableByteChannel {
+
+    /**
+     * Constructor.
+     *
+     * @param data The bytes to read.
+     */
+    public ByteBufferChannel(ByteBuffer data) {
+        super();
+        this.data = data.slice();
+    }
+
+    /**
+     * Reads a channel to its end into memory.
+     *
+     * @param in The channel to read. It is not closed.
+     * @return A channel over the data read.
+     * @throws IOException Thrown if the channel cannot be read.
+     */
+    public static ByteBufferChannel readFully(ReadableByteChannel in) throws IOException {
+        ByteBuffer data = ByteBuffer.allocate(INITIAL_CAPACITY);
+        while (in.read(data) >= 0) {
+            if (!data.hasRemaining()) {
+                if (data.capacity() == Integer.MAX_VALUE) {
+                    throw new IOException("The data is too large to be held in memory.");
+                }
+                ByteBuffer larger = ByteBuffer.allocate((int) Math.min(Integer.MAX_VALUE, 2L * data.capacity()));
+                data.flip();
+                larger.put(data);
+                data = larger;
+            }
+        }
+        data.flip();
+        return new ByteBufferChannel(data);
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        checkOpen();
+        if (position >= data.limit()) {
+            return -1;
+        }
+        int count = (int) Math.min(dst.remaining(), data.limit() - position);
+        ByteBuffer chunk = data.duplicate();
+        chunk.position((int) position);
+        chunk.limit((int) position + count);
+        dst.put(chunk);
+        position += count;
+        return count;
+    }
+
+    @Override
+    public int write(ByteBuffer src) {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public long position() throws IOException {
+        checkOpen();
+        return position;
+    }
+
+    /**
+     * Sets the read position. As with a file, positions beyond the end are allowed, reading there finds the end of
+     * the data.
+     */
+    @Override
+    public SeekableByteChannel position(long newPosition) throws IOException {
+        checkOpen();
+        if (newPosition < 0) {
+            throw new IllegalArgumentException("Negative position " + newPosition);
+        }
+        position = newPosition;
+        return this;
+    }
+
+    @Override
+    public long size() throws IOException {
+        checkOpen();
+        return data.limit();
+    }
+
+    @Override
+    public SeekableByteChannel truncate(long size) {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public void close() {
+        open = false;
+    }
+
+    private void checkOpen() throws ClosedChannelException {
+        if (!open) {
+            throw new ClosedChannelException();
+        }
+    }
+
+    private final ByteBuffer data;
+    private long position;
+    private boolean open = true;
+
+    /***** CONSTANTS *****/
+    private final static int INITIAL_CAPACITY = 64 * 1024;
+}
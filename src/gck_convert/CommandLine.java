@@ -0,0 +1,475 @@
+package gck_convert;
+
+import gckfilestructure.Feature;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Scanner;
+
+/**
+ * Converts GCK files without the GUI.
+ *
+ * Usage: GCK_convert [options] files or directories...
+ * Directories are searched for .gcc and .gcs files, without descending into subdirectories.
+ * With --feature-index the files are indexed by feature name instead, and the index is queried with --find.
+ * With --sequence-index they are indexed by sequence, and the index is queried with --find-sequence.
+ * With --benchmark the files, or a synthetic set of files, are converted at several thread counts and the
+ * throughput is printed as JSON, see Benchmark.
+ *
+ * @author Matyas Medzihradszky
+ * @version 0.1
+ */
+public class CommandLine {
+
+    private CommandLine() {
+        super();
+    }
+
+    /**
+     * Parses the arguments and converts the files.
+     *
+     * @param args The command line arguments.
+     * @return The exit status: 0 if all the files were converted, 1 if some failed, 2 if the arguments are wrong.
+     */
+    public static int run(String[] args) {
+        //The library is needed to create the converter, so it is read before the other options.
+        File libraryFile = new File("DefaultLibrary.lb");
+        for (int i = 0; i + 1 < args.length; i++) {
+            if (args[i].equals("--compile-library")) {
+                return compileLibrary(new File(args[i + 1]));
+            } else if ((args[i].equals("--find") || args[i].equals("--find-prefix")) && i + 2 < args.length) {
+                return findFeatures(new File(args[i + 1]), args[i + 2], args[i].equals("--find-prefix"));
+            } else if (args[i].equals("--find-sequence") && i + 2 < args.length) {
+                return findSequence(new File(args[i + 1]), args[i + 2]);
+            } else if (args[i].equals("--library")) {
+                libraryFile = new File(args[i + 1]);
+            }
+        }
+        FeatureLibrary library = FeatureLibrary.fromEntries(new LinkedList<String[]>());
+        if (libraryFile.exists()) {
+            try {
+                library = FeatureLibrary.load(libraryFile);
+            } catch (IOException ex) {
+                System.err.println("The library " + libraryFile.getPath() + " cannot be read: " + ex.getMessage());
+                return 2;
+            }
+        } else {
+            System.err.println("No library file found.");
+        }
+
+        File outputDirectory = null;
+        File enzymeFile = null;
+        File manifestFile = null;
+        RegionParser.ParseLevel parseLevel = RegionParser.ParseLevel.MEDIUM;
+        File featureIndexFile = null;
+        File sequenceIndexFile = null;
+        int threads = Runtime.getRuntime().availableProcessors();
+        int[] benchmarkThreads = null;
+        Benchmark.IOMode[] benchmarkModes = null;
+        int benchmarkRepeats = 1;
+        int syntheticFiles = 0;
+        boolean resume = false;
+        boolean compareWithGolden = false;
+        List<File> inputs = new ArrayList<File>();
+        BatchConverter batchConverter = new BatchConverter(library);
+        try {
+            for (int i = 0; i < args.length; i++) {
+                String arg = args[i];
+                if (arg.equals("-o") || arg.equals("--output")) {
+                    outputDirectory = new File(value(args, ++i, arg));
+                } else if (arg.equals("--ape")) {
+                    batchConverter.setApEData(true);
+                } else if (arg.equals("--unnamed")) {
+                    batchConverter.setIncludeUnnamed(true);
+                } else if (arg.equals("--primers")) {
+                    batchConverter.setIncludePrimers(true);
+                } else if (arg.equals("--parse-level")) {
+                    parseLevel = RegionParser.ParseLevel.valueOf(value(args, ++i, arg).toUpperCase(Locale.ENGLISH));
+                } else if (arg.equals("--library") || arg.equals("--compile-library")) {
+                    value(args, ++i, arg); //already read
+                } else if (arg.equals("--enzymes")) {
+                    enzymeFile = new File(value(args, ++i, arg));
+                } else if (arg.equals("--dedupe")) {
+                    batchConverter.setDetectDuplicates(true);
+                } else if (arg.equals("--verify")) {
+                    batchConverter.setVerify(true);
+                } else if (arg.equals("--threads")) {
+                    threads = Integer.parseInt(value(args, ++i, arg));
+                    batchConverter.setThreads(threads);
+                } else if (arg.equals("--feature-index")) {
+                    featureIndexFile = new File(value(args, ++i, arg));
+                } else if (arg.equals("--sequence-index")) {
+                    sequenceIndexFile = new File(value(args, ++i, arg));
+                } else if (arg.equals("--io-threads")) {
+                    String[] counts = value(args, ++i, arg).split(",", 2);
+                    int read = Integer.parseInt(counts[0]);
+                    batchConverter.setIOThreads(read, counts.length > 1 ? Integer.parseInt(counts[1]) : read);
+                } else if (arg.equals("--queue")) {
+                    batchConverter.setQueueCapacity(Integer.parseInt(value(args, ++i, arg)));
+                } else if (arg.equals("--lowercase")) {
+                    batchConverter.setLowerCaseSequence(true);
+                } else if (arg.equals("--statistics")) {
+                    batchConverter.setIncludeStatistics(true);
+                } else if (arg.equals("--given-order")) {
+                    batchConverter.setLargestFirst(false);
+                } else if (arg.equals("--resume")) {
+                    batchConverter.setResume(true);
+                    resume = true;
+                } else if (arg.equals("--memory-budget")) {
+                    batchConverter.setMemoryBudget(Long.parseLong(value(args, ++i, arg)) * 1024 * 1024);
+                } else if (arg.equals("--golden")) {
+                    batchConverter.setGoldenDirectory(new File(value(args, ++i, arg)));
+                    compareWithGolden = true;
+                } else if (arg.equals("--async-output")) {
+                    batchConverter.setAsyncOutput(true, Integer.parseInt(value(args, ++i, arg)));
+                } else if (arg.equals("--benchmark")) {
+                    String[] counts = value(args, ++i, arg).split(",");
+                    benchmarkThreads = new int[counts.length];
+                    for (int j = 0; j < counts.length; j++) {
+                        benchmarkThreads[j] = Math.max(1, Integer.parseInt(counts[j].trim()));
+                    }
+                } else if (arg.equals("--io-modes")) {
+                    String[] names = value(args, ++i, arg).split(",");
+                    benchmarkModes = new Benchmark.IOMode[names.length];
+                    for (int j = 0; j < names.length; j++) {
+                        benchmarkModes[j] = Benchmark.IOMode.fromName(names[j].trim());
+                    }
+                } else if (arg.equals("--repeat")) {
+                    benchmarkRepeats = Integer.parseInt(value(args, ++i, arg));
+                } else if (arg.equals("--synthetic")) {
+                    syntheticFiles = Integer.parseInt(value(args, ++i, arg));
+                } else if (arg.equals("--manifest")) {
+                    manifestFile = new File(value(args, ++i, arg));
+                } else if (arg.equals("-h") || arg.equals("--help")) {
+                    printUsage();
+                    return 0;
+                } else if (arg.startsWith("-")) {
+                    throw new IllegalArgumentException("Unknown option " + arg);
+                } else {
+                    addInputs(new File(arg), inputs);
+                }
+            }
+        } catch (IllegalArgumentException ex) {
+            System.err.println(ex.getMessage());
+            printUsage();
+            return 2;
+        }
+        if (inputs.isEmpty() && (benchmarkThreads == null || syntheticFiles <= 0)) {
+            System.err.println("No GCK files to convert.");
+            return 2;
+        }
+        if (featureIndexFile != null) {
+            return updateFeatureIndex(featureIndexFile, inputs, library, threads);
+        }
+        if (sequenceIndexFile != null) {
+            return updateSequenceIndex(sequenceIndexFile, inputs, threads);
+        }
+
+        batchConverter.setParseLevel(parseLevel);
+        batchConverter.setManifestFile(manifestFile);
+        if (enzymeFile != null) {
+            try {
+                batchConverter.setRestrictionSiteScanner(RestrictionSiteScanner.load(enzymeFile));
+            } catch (FileNotFoundException ex) {
+                System.err.println("The enzyme list " + enzymeFile.getPath() + " cannot be read.");
+                return 2;
+            }
+        }
+        if (benchmarkThreads != null) {
+            if (resume || compareWithGolden) {
+                System.err.println("--resume and --golden cannot be used with --benchmark, every run converts every file.");
+                return 2;
+            }
+            Benchmark benchmark = new Benchmark(batchConverter);
+            benchmark.setThreadCounts(benchmarkThreads);
+            if (benchmarkModes != null) {
+                benchmark.setModes(benchmarkModes);
+            }
+            benchmark.setRepeats(benchmarkRepeats);
+            return runBenchmark(benchmark, inputs, syntheticFiles, outputDirectory);
+        }
+        batchConverter.setListener(new BatchConverter.Listener() {
+            @Override
+            public void fileFinished(File input, File output, boolean success) {
+                if (!success) {
+                    System.err.println("Failed: " + input.getPath());
+                }
+            }
+
+            @Override
+            public synchronized void progress(CompletionEstimator estimator) {
+                long now = System.currentTimeMillis();
+                if (now - lastReport < PROGRESS_INTERVAL_MS || estimator.getFilesDone() == estimator.getFilesTotal()) {
+                    return;
+                }
+                lastReport = now;
+                long remaining = estimator.getRemainingMillis();
+                System.out.println(estimator.getFilesDone() + "/" + estimator.getFilesTotal() + " files, "
+                        + (remaining < 0 ? "" : "about " + (remaining + 999) / 1000 + " s left, finishing at "
+                        + new SimpleDateFormat("HH:mm:ss").format(new Date(now + remaining))));
+            }
+
+            @Override
+            public void message(String message) {
+                System.out.println(message);
+            }
+
+            private long lastReport = System.currentTimeMillis();
+        });
+
+        File[] files = inputs.toArray(new File[inputs.size()]);
+        if (outputDirectory == null) {
+            outputDirectory = files[0].getAbsoluteFile().getParentFile();
+        }
+        if (!outputDirectory.isDirectory() && !outputDirectory.mkdirs()) {
+            System.err.println("The output directory " + outputDirectory.getPath() + " cannot be created.");
+            return 2;
+        }
+        return batchConverter.convert(files, outputDirectory) ? 0 : 1;
+    }
+
+    /**
+     * Compiles a library file into the binary form loaded by FeatureLibrary.
+     *
+     * @return The exit status.
+     */
+    private static int compileLibrary(File libraryFile) {
+        File compiled = FeatureLibrary.compiledFileFor(libraryFile);
+        try (Scanner reader = new Scanner(libraryFile)) {
+            FeatureLibrary library = FeatureLibrary.fromEntries(FeatureLibrary.parse(reader));
+            library.save(compiled);
+            System.out.println("Compiled " + library.getNumEntries() + " entries into " + compiled.getPath());
+            return 0;
+        } catch (IOException ex) {
+            System.err.println("The library " + libraryFile.getPath() + " cannot be compiled: " + ex.getMessage());
+            return 2;
+        }
+    }
+
+    /**
+     * Builds or updates the feature index of the inputs.
+     *
+     * @return The exit status.
+     */
+    private static int updateFeatureIndex(File indexFile, List<File> inputs, FeatureLibrary library, int threads) {
+        long startTime = System.nanoTime();
+        try {
+            FeatureIndex.UpdateResult result = FeatureIndex.update(indexFile, inputs, library, threads);
+            System.out.println("Indexed " + inputs.size() + " files into " + indexFile.getPath() + " in "
+                    + (System.nanoTime() - startTime) / 1000000 + " ms: " + result.getNumRead() + " read, " + result.getNumReused()
+                    + " unchanged, " + result.getNumRemoved() + " removed, " + result.getNumFailed() + " failed.");
+            return result.getNumFailed() == 0 ? 0 : 1;
+        } catch (IOException ex) {
+            System.err.println("The feature index " + indexFile.getPath() + " cannot be written: " + ex.getMessage());
+            return 2;
+        }
+    }
+
+    /**
+     * Prints the features with a name, or with names starting with a prefix, found in a feature index.
+     *
+     * @return The exit status: 0 if features were found, 1 if none were.
+     */
+    private static int findFeatures(File indexFile, String name, boolean prefix) {
+        try {
+            long startTime = System.nanoTime();
+            FeatureIndex index = FeatureIndex.open(indexFile);
+            List<FeatureIndex.Hit> hits = prefix ? index.findPrefix(name) : index.findExact(name);
+            long time = System.nanoTime() - startTime;
+            for (FeatureIndex.Hit hit : hits) {
+                System.out.println(hit.getFile() + "\t" + hit.getName() + "\t" + hit.getType().dispName() + "\t"
+                        + (hit.getStrand() == Feature.Strand.REVERSE ? "complement(" + hit.getStart() + ".." + hit.getEnd() + ")"
+                        : hit.getStart() + ".." + hit.getEnd()));
+            }
+            System.err.println(hits.size() + " features found in " + index.getNumDocuments() + " files in " + time / 1000 / 1000.0 + " ms.");
+            return hits.isEmpty() ? 1 : 0;
+        } catch (IOException ex) {
+            System.err.println("The feature index " + indexFile.getPath() + " cannot be read: " + ex.getMessage());
+            return 2;
+        }
+    }
+
+    /**
+     * Builds or updates the sequence index of the inputs.
+     *
+     * @return The exit status.
+     */
+    private static int updateSequenceIndex(File indexFile, List<File> inputs, int threads) {
+        long startTime = System.nanoTime();
+        try {
+            FeatureIndex.UpdateResult result = SequenceIndex.update(indexFile, inputs, threads);
+            System.out.println("Indexed " + inputs.size() + " sequences into " + indexFile.getPath() + " in "
+                    + (System.nanoTime() - startTime) / 1000000 + " ms: " + result.getNumRead() + " read, " + result.getNumReused()
+                    + " unchanged, " + result.getNumRemoved() + " removed, " + result.getNumFailed() + " failed.");
+            return result.getNumFailed() == 0 ? 0 : 1;
+        } catch (IOException ex) {
+            System.err.println("The sequence index " + indexFile.getPath() + " cannot be written: " + ex.getMessage());
+            return 2;
+        }
+    }
+
+    /**
+     * Prints the places a sequence is found at, on either strand, in the files of a sequence index.
+     *
+     * @return The exit status: 0 if the sequence was found, 1 if it was not.
+     */
+    private static int findSequence(File indexFile, String query) {
+        try {
+            long startTime = System.nanoTime();
+            SequenceIndex index = SequenceIndex.open(indexFile);
+            if (query.length() < index.getMinimumQueryLength()) {
+                System.err.println("Sequences shorter than " + index.getMinimumQueryLength() + " bases are searched for in every file.");
+            }
+            int numCandidates = index.findCandidates(query.toUpperCase(Locale.ENGLISH)).length;
+            List<SequenceIndex.Hit> hits = index.find(query);
+            long time = System.nanoTime() - startTime;
+            for (SequenceIndex.Hit hit : hits) {
+                String location = hit.getStart() <= hit.getEnd() ? hit.getStart() + ".." + hit.getEnd()
+                        : "join(" + hit.getStart() + ".." + hit.getSequenceLength() + ",1.." + hit.getEnd() + ")";
+                System.out.println(hit.getFile() + "\t" + (hit.getStrand() == Feature.Strand.REVERSE ? "complement(" + location + ")" : location));
+            }
+            System.err.println(hits.size() + " occurrences found in " + numCandidates + " candidates of " + index.getNumDocuments()
+                    + " files in " + time / 1000 / 1000.0 + " ms.");
+            return hits.isEmpty() ? 1 : 0;
+        } catch (IllegalArgumentException ex) {
+            System.err.println(ex.getMessage());
+            return 2;
+        } catch (IOException ex) {
+            System.err.println("The sequence index " + indexFile.getPath() + " cannot be read: " + ex.getMessage());
+            return 2;
+        }
+    }
+
+    /**
+     * Measures the conversion of the inputs, or of synthetic files, and prints the results as JSON. Without an
+     * output directory the GeneBank files, like the synthetic files, are written to a temporary directory that is
+     * deleted afterwards.
+     *
+     * @return The exit status: 0 if every file was converted in every run, 1 if some failed.
+     */
+    private static int runBenchmark(Benchmark benchmark, List<File> inputs, int syntheticFiles, File outputDirectory) {
+        File temporaryDirectory = null;
+        try {
+            temporaryDirectory = Files.createTempDirectory("gck-benchmark").toFile();
+            File[] files = inputs.toArray(new File[inputs.size()]);
+            String corpus = inputs.size() + " files given";
+            if (syntheticFiles > 0) {
+                File[] synthetic = Benchmark.createSyntheticCorpus(new File(temporaryDirectory, "input"), syntheticFiles, SYNTHETIC_SEED);
+                files = Arrays.copyOf(files, files.length + synthetic.length);
+                System.arraycopy(synthetic, 0, files, inputs.size(), synthetic.length);
+                corpus = inputs.isEmpty() ? syntheticFiles + " synthetic files" : corpus + " and " + syntheticFiles + " synthetic files";
+            }
+            if (outputDirectory == null) {
+                outputDirectory = new File(temporaryDirectory, "output");
+            }
+            if (!outputDirectory.isDirectory() && !outputDirectory.mkdirs()) {
+                System.err.println("The output directory " + outputDirectory.getPath() + " cannot be created.");
+                return 2;
+            }
+            List<Benchmark.Run> runs = benchmark.run(files, outputDirectory);
+            System.out.print(Benchmark.toJson(runs, corpus));
+            for (Benchmark.Run run : runs) {
+                if (run.getNumFailed() > 0 || run.getNumFiles() < files.length) {
+                    return 1;
+                }
+            }
+            return 0;
+        } catch (IOException ex) {
+            System.err.println("The benchmark files cannot be written: " + ex.getMessage());
+            return 2;
+        } finally {
+            if (temporaryDirectory != null) {
+                deleteRecursively(temporaryDirectory);
+            }
+        }
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        if (!file.delete()) {
+            System.err.println("Failed to delete " + file.getPath());
+        }
+    }
+
+    private static String value(String[] args, int i, String option) {
+        if (i >= args.length) {
+            throw new IllegalArgumentException("Missing value for " + option);
+        }
+        return args[i];
+    }
+
+    /**
+     * Adds a GCK file, or the GCK files in a directory, to the inputs.
+     */
+    private static void addInputs(File file, List<File> inputs) {
+        if (file.isDirectory()) {
+            File[] files = file.listFiles();
+            if (files == null) {
+                return;
+            }
+            Arrays.sort(files);
+            for (File f : files) {
+                String ext = BatchConverter.getExt(f);
+                if (f.isFile() && (ext.equalsIgnoreCase("gcc") || ext.equalsIgnoreCase("gcs"))) {
+                    inputs.add(f);
+                }
+            }
+        } else if (file.isFile()) {
+            inputs.add(file);
+        } else {
+            throw new IllegalArgumentException("No such file " + file.getPath());
+        }
+    }
+
+    private static void printUsage() {
+        System.err.println("Usage: GCK_convert [options] files or directories...");
+        System.err.println("  -o, --output DIR       directory to write the GeneBank files to");
+        System.err.println("  --ape                  include data for A Plasmid Editor");
+        System.err.println("  --unnamed              include unnamed regions");
+        System.err.println("  --primers              include primers");
+        System.err.println("  --parse-level LEVEL    none, low, medium, high or highest");
+        System.err.println("  --library FILE         feature library, DefaultLibrary.lb by default");
+        System.err.println("  --compile-library FILE compile a feature library to FILE.lbc and exit");
+        System.err.println("  --enzymes FILE         annotate the restriction sites listed in FILE");
+        System.err.println("  --feature-index FILE   index the feature names of the files in FILE instead of converting");
+        System.err.println("  --find INDEX NAME      list the files with a feature called NAME and exit");
+        System.err.println("  --find-prefix INDEX P  list the files with a feature name starting with P and exit");
+        System.err.println("  --sequence-index FILE  index the sequences of the files in FILE instead of converting");
+        System.err.println("  --find-sequence INDEX S list the places sequence S is found at, on either strand, and exit");
+        System.err.println("  --dedupe               convert duplicate constructs only once");
+        System.err.println("  --verify               verify the written files");
+        System.err.println("  --golden DIR           compare the outputs with earlier outputs in DIR");
+        System.err.println("  --threads N            number of threads parsing files");
+        System.err.println("  --io-threads R[,W]     number of threads reading and writing files");
+        System.err.println("  --queue N              number of files waiting in front of each stage");
+        System.err.println("  --lowercase            write the sequences in lower case");
+        System.err.println("  --statistics           write the base counts and GC content as comments");
+        System.err.println("  --given-order          convert the inputs in the order given instead of largest first");
+        System.err.println("  --resume               skip the inputs the journal of the output directory shows as converted");
+        System.err.println("  --memory-budget MB     memory the files converted together may take, 0 for no limit");
+        System.err.println("  --async-output N       write asynchronously, with at most N buffers in flight");
+        System.err.println("  --manifest FILE        where to write the JSON Lines manifest");
+        System.err.println("  --benchmark N[,N...]   measure the conversion with each number of threads, print JSON and exit");
+        System.err.println("  --io-modes M[,M...]    output modes to measure, sync and/or async (both by default)");
+        System.err.println("  --repeat N             measure every combination N times");
+        System.err.println("  --synthetic N          also measure N generated files, for example without any inputs");
+    }
+
+    /***** CONSTANTS *****/
+    private final static long PROGRESS_INTERVAL_MS = 5000;
+    private final static long SYNTHETIC_SEED = 1;
+}
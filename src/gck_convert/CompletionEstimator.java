@@ -0,0 +1,91 @@
+package gck_convert;
+
+/**
+ * Predicts when a batch will be finished from the rate it has converted input bytes at so far.
+ *
+ * Sizes rather than file counts are used, so a batch of mixed sizes is predicted well whatever order its files
+ * finish in. The prediction is only made once some files have finished.
+ *
+ * @author Matyas Medzihradszky
+ * @version 0.1
+ */
+public class CompletionEstimator {
+
+    /**
+     * Constructor. The clock starts when the estimator is created.
+     *
+     * @param bytesTotal The size of all the files of the batch.
+     * @param filesTotal The number of files in the batch.
+     */
+    public CompletionEstimator(long bytesTotal, int filesTotal) {
+        super();
+        this.bytesTotal = bytesTotal;
+        this.filesTotal = filesTotal;
+        startTime = System.nanoTime();
+    }
+
+    /**
+     * Records a finished file, whether or not it was converted successfully.
+     *
+     * @param bytes The size of the file.
+     */
+    public synchronized void fileFinished(long bytes) {
+        bytesDone += bytes;
+        filesDone++;
+        elapsedNanos = System.nanoTime() - startTime;
+    }
+
+    /**
+     * @return The input bytes converted per second so far, or 0 if no file has finished.
+     */
+    public synchronized double getBytesPerSecond() {
+        if (bytesDone == 0 || elapsedNanos == 0) {
+            return 0;
+        }
+        return bytesDone * 1e9 / elapsedNanos;
+    }
+
+    /**
+     * @return The predicted time left in milliseconds, or -1 if it cannot be predicted yet.
+     */
+    public synchronized long getRemainingMillis() {
+        double rate = getBytesPerSecond();
+        if (rate == 0) {
+            return -1;
+        }
+        long sinceLastFile = (System.nanoTime() - startTime - elapsedNanos) / 1000000;
+        return Math.max(0, (long) ((bytesTotal - bytesDone) * 1000 / rate) - sinceLastFile);
+    }
+
+    /**
+     * @return The predicted time the batch will be finished, as from System.currentTimeMillis, or -1 if it cannot
+     * be predicted yet.
+     */
+    public long getPredictedCompletion() {
+        long remaining = getRemainingMillis();
+        return remaining < 0 ? -1 : System.currentTimeMillis() + remaining;
+    }
+
+    public synchronized long getBytesDone() {
+        return bytesDone;
+    }
+
+    public long getBytesTotal() {
+        return bytesTotal;
+    }
+
+    public synchronized int getFilesDone() {
+        return filesDone;
+    }
+
+    public int getFilesTotal() {
+        return filesTotal;
+    }
+
+    private final long bytesTotal;
+    private final int filesTotal;
+    private final long startTime; //System.nanoTime when the batch started
+    private long bytesDone;
+    private int filesDone;
+    private long elapsedNanos; //time from the start to the last finished file
+}
@@ -0,0 +1,314 @@
+package gck_convert;
+
+
+/**
+ * The settings of a conversion, fixed once created so they can be shared between threads.
+ *
+ * Options are created with a Builder, which starts from the defaults of a BatchConverter:
+ * <pre>
+ * ConversionOptions options = new ConversionOptions.Builder().setApEData(true).setThreads(4).build();
+ * </pre>
+ * An existing set of options can be changed into a new one with toBuilder.
+ *
+ * @author Matyas Medzihradszky
+ * @version 0.1
+ */
+public final class ConversionOptions {
+
+    /**
+     * Collects the settings for a ConversionOptions object. See the setters of BatchConverter for their meaning.
+     */
+    public static class Builder {
+        /**
+         * Constructor, starting from the default settings.
+         */
+        public Builder() {
+            super();
+            parseLevel = RegionParser.ParseLevel.MEDIUM;
+            threads = Runtime.getRuntime().availableProcessors();
+            readThreads = BatchConverter.DEFAULT_IO_THREADS;
+            writeThreads = BatchConverter.DEFAULT_IO_THREADS;
+            maxWritesInFlight = BatchConverter.DEFAULT_WRITES_IN_FLIGHT;
+            memoryBudget = Runtime.getRuntime().maxMemory() / 2;
+            largestFirst = true;
+        }
+
+        private Builder(ConversionOptions options) {
+            super();
+            parseLevel = options.parseLevel;
+            includeApEData = options.includeApEData;
+            includeUnnamed = options.includeUnnamed;
+            includePrimers = options.includePrimers;
+            lowerCaseSequence = options.lowerCaseSequence;
+            includeStatistics = options.includeStatistics;
+            restrictionSiteScanner = options.restrictionSiteScanner;
+            detectDuplicates = options.detectDuplicates;
+            verify = options.verify;
+            resume = options.resume;
+            largestFirst = options.largestFirst;
+            asyncOutput = options.asyncOutput;
+            maxWritesInFlight = options.maxWritesInFlight;
+            threads = options.threads;
+            readThreads = options.readThreads;
+            writeThreads = options.writeThreads;
+            queueCapacity = options.queueCapacity;
+            memoryBudget = options.memoryBudget;
+        }
+
+        public ConversionOptions build() {
+            return new ConversionOptions(this);
+        }
+
+        public Builder setParseLevel(RegionParser.ParseLevel parseLevel) {
+            if (parseLevel == null) {
+                throw new IllegalArgumentException("The parse level must be set.");
+            }
+            this.parseLevel = parseLevel;
+            return this;
+        }
+
+        public Builder setApEData(boolean includeApEData) {
+            this.includeApEData = includeApEData;
+            return this;
+        }
+
+        public Builder setIncludeUnnamed(boolean includeUnnamed) {
+            this.includeUnnamed = includeUnnamed;
+            return this;
+        }
+
+        public Builder setIncludePrimers(boolean includePrimers) {
+            this.includePrimers = includePrimers;
+            return this;
+        }
+
+        public Builder setLowerCaseSequence(boolean lowerCaseSequence) {
+            this.lowerCaseSequence = lowerCaseSequence;
+            return this;
+        }
+
+        public Builder setIncludeStatistics(boolean includeStatistics) {
+            this.includeStatistics = includeStatistics;
+            return this;
+        }
+
+        /**
+         * @param restrictionSiteScanner The scanner of the restriction sites to annotate, or null. A scanner is not
+         * changed by scanning, so one scanner can be shared.
+         */
+        public Builder setRestrictionSiteScanner(RestrictionSiteScanner restrictionSiteScanner) {
+            this.restrictionSiteScanner = restrictionSiteScanner;
+            return this;
+        }
+
+        public Builder setDetectDuplicates(boolean detectDuplicates) {
+            this.detectDuplicates = detectDuplicates;
+            return this;
+        }
+
+        public Builder setVerify(boolean verify) {
+            this.verify = verify;
+            return this;
+        }
+
+        public Builder setResume(boolean resume) {
+            this.resume = resume;
+            return this;
+        }
+
+        public Builder setLargestFirst(boolean largestFirst) {
+            this.largestFirst = largestFirst;
+            return this;
+        }
+
+        public Builder setAsyncOutput(boolean asyncOutput, int maxWritesInFlight) {
+            this.asyncOutput = asyncOutput;
+            this.maxWritesInFlight = Math.max(1, maxWritesInFlight);
+            return this;
+        }
+
+        public Builder setThreads(int threads) {
+            this.threads = Math.max(1, threads);
+            return this;
+        }
+
+        public Builder setIOThreads(int readThreads, int writeThreads) {
+            this.readThreads = Math.max(1, readThreads);
+            this.writeThreads = Math.max(1, writeThreads);
+            return this;
+        }
+
+        public Builder setQueueCapacity(int queueCapacity) {
+            this.queueCapacity = Math.max(0, queueCapacity);
+            return this;
+        }
+
+        public Builder setMemoryBudget(long memoryBudget) {
+            this.memoryBudget = Math.max(0, memoryBudget);
+            return this;
+        }
+
+        private RegionParser.ParseLevel parseLevel;
+        private boolean includeApEData;
+        private boolean includeUnnamed;
+        private boolean includePrimers;
+        private boolean lowerCaseSequence;
+        private boolean includeStatistics;
+        private RestrictionSiteScanner restrictionSiteScanner;
+        private boolean detectDuplicates;
+        private boolean verify;
+        private boolean resume;
+        private boolean largestFirst;
+        private boolean asyncOutput;
+        private int maxWritesInFlight;
+        private int threads;
+        private int readThreads;
+        private int writeThreads;
+        private int queueCapacity;
+        private long memoryBudget;
+    }
+
+    private ConversionOptions(Builder builder) {
+        super();
+        parseLevel = builder.parseLevel;
+        includeApEData = builder.includeApEData;
+        includeUnnamed = builder.includeUnnamed;
+        includePrimers = builder.includePrimers;
+        lowerCaseSequence = builder.lowerCaseSequence;
+        includeStatistics = builder.includeStatistics;
+        restrictionSiteScanner = builder.restrictionSiteScanner;
+        detectDuplicates = builder.detectDuplicates;
+        verify = builder.verify;
+        resume = builder.resume;
+        largestFirst = builder.largestFirst;
+        asyncOutput = builder.asyncOutput;
+        maxWritesInFlight = builder.maxWritesInFlight;
+        threads = builder.threads;
+        readThreads = builder.readThreads;
+        writeThreads = builder.writeThreads;
+        queueCapacity = builder.queueCapacity;
+        memoryBudget = builder.memoryBudget;
+    }
+
+    /**
+     * @return A builder holding these options, to create changed options from.
+     */
+    public Builder toBuilder() {
+        return new Builder(this);
+    }
+
+    /**
+     * Sets up a converter with these options.
+     *
+     * @param batchConverter The converter to set up.
+     */
+    void applyTo(BatchConverter batchConverter) {
+        batchConverter.setParseLevel(parseLevel);
+        batchConverter.setApEData(includeApEData);
+        batchConverter.setIncludeUnnamed(includeUnnamed);
+        batchConverter.setIncludePrimers(includePrimers);
+        batchConverter.setLowerCaseSequence(lowerCaseSequence);
+        batchConverter.setIncludeStatistics(includeStatistics);
+        batchConverter.setRestrictionSiteScanner(restrictionSiteScanner);
+        batchConverter.setDetectDuplicates(detectDuplicates);
+        batchConverter.setVerify(verify);
+        batchConverter.setResume(resume);
+        batchConverter.setLargestFirst(largestFirst);
+        batchConverter.setAsyncOutput(asyncOutput, maxWritesInFlight);
+        batchConverter.setThreads(threads);
+        batchConverter.setIOThreads(readThreads, writeThreads);
+        batchConverter.setQueueCapacity(queueCapacity);
+        batchConverter.setMemoryBudget(memoryBudget);
+    }
+
+    public RegionParser.ParseLevel getParseLevel() {
+        return parseLevel;
+    }
+
+    public boolean isIncludeApEData() {
+        return includeApEData;
+    }
+
+    public boolean isIncludeUnnamed() {
+        return includeUnnamed;
+    }
+
+    public boolean isIncludePrimers() {
+        return includePrimers;
+    }
+
+    public boolean isLowerCaseSequence() {
+        return lowerCaseSequence;
+    }
+
+    public boolean isIncludeStatistics() {
+        return includeStatistics;
+    }
+
+    public RestrictionSiteScanner getRestrictionSiteScanner() {
+        return restrictionSiteScanner;
+    }
+
+    public boolean isDetectDuplicates() {
+        return detectDuplicates;
+    }
+
+    public boolean isVerify() {
+        return verify;
+    }
+
+    public boolean isResume() {
+        return resume;
+    }
+
+    public boolean isLargestFirst() {
+        return largestFirst;
+    }
+
+    public boolean isAsyncOutput() {
+        return asyncOutput;
+    }
+
+    public int getMaxWritesInFlight() {
+        return maxWritesInFlight;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public int getReadThreads() {
+        return readThreads;
+    }
+
+    public int getWriteThreads() {
+        return writeThreads;
+    }
+
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    public long getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    private final RegionParser.ParseLevel parseLevel;
+    private final boolean includeApEData;
+    private final boolean includeUnnamed;
+    private final boolean includePrimers;
+    private final boolean lowerCaseSequence;
+    private final boolean includeStatistics;
+    private final RestrictionSiteScanner restrictionSiteScanner;
+    private final boolean detectDuplicates;
+    private final boolean verify;
+    private final boolean resume;
+    private final boolean largestFirst;
+    private final boolean asyncOutput;
+    private final int maxWritesInFlight;
+    private final int threads;
+    private final int readThreads;
+    private final int writeThreads;
+    private final int queueCapacity;
+    private final long memoryBudget;
+}
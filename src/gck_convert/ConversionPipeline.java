@@ -0,0 +1,374 @@
+package gck_convert;
+
+import gckfilestructure.Feature;
+import gckfilestructure.GCKFile;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+
+/**
+ * Converts files in three stages, reading, parsing and writing, each run by its own group of threads.
+ *
+ * The stages are connected by bounded queues. A stage that gets ahead of the next one blocks when the queue between
+ * them is full, so only a limited number of read files are held in memory, while reading and writing, which wait on
+ * the disk, overlap with parsing, which waits on the CPU. The number of threads of every stage can be set separately.
+ * The write stage may also hand the file to asynchronous output and leave a completion in the job; the job is then
+ * finished when the completion is.
+ *
+ * With a MemoryBudget set, a file is only read once there is room in the budget for it, and its share is given back
+ * when it is finished. The queues then limit the number of files waiting, and the budget their size.
+ *
+ * @author Matyas Medzihradszky
+ * @version 0.1
+ */
+public class ConversionPipeline {
+
+    /**
+     * The work done by one stage of the pipeline.
+     */
+    public interface Stage {
+        /**
+         * Processes a job, storing the results in it for the next stage.
+         *
+         * @param job The job to process.
+         * @throws Exception Thrown if the conversion of the file failed. The job is not passed on.
+         */
+        void process(Job job) throws Exception;
+    }
+
+    /**
+     * A file going through the pipeline, together with what the stages produced from it so far.
+     */
+    public static class Job {
+        /**
+         * Constructor.
+         *
+         * @param input The GCK file to read.
+         * @param output The GeneBank file to write.
+         */
+        public Job(File input, File output) {
+            result = new ConversionResult(input, output);
+        }
+
+        /**
+         * Drops the data of the file once it is written, so a finished job holds only its result.
+         */
+        public void release() {
+            gckFile = null;
+            featureList = null;
+            gbFileWriter = null;
+        }
+
+        public File getInput() {
+            return result.getInput();
+        }
+
+        public File getOutput() {
+            return result.getOutput();
+        }
+
+        /**
+         * @return The size of the input, read from the file system the first time it is asked for.
+         */
+        public long getInputLength() {
+            if (inputLength < 0) {
+                inputLength = getInput().length();
+            }
+            return inputLength;
+        }
+
+        public ConversionResult getResult() {
+            return result;
+        }
+
+        public GCKFile getGCKFile() {
+            return gckFile;
+        }
+
+        public void setGCKFile(GCKFile gckFile) {
+            this.gckFile = gckFile;
+        }
+
+        public List<Feature> getFeatureList() {
+            return featureList;
+        }
+
+        public void setFeatureList(List<Feature> featureList) {
+            this.featureList = featureList;
+        }
+
+        public GbFileWriter getGbFileWriter() {
+            return gbFileWriter;
+        }
+
+        public void setGbFileWriter(GbFileWriter gbFileWriter) {
+            this.gbFileWriter = gbFileWriter;
+        }
+
+        public CompletableFuture<Void> getCompletion() {
+            return completion;
+        }
+
+        /**
+         * Sets the completion of output still being written when the last stage returns.
+         *
+         * @param completion Finished once the output is written, or failed if it could not be.
+         */
+        public void setCompletion(CompletableFuture<Void> completion) {
+            this.completion = completion;
+        }
+
+        /**
+         * @return The memory taken from the budget for this job, in bytes.
+         */
+        public long getMemoryReserved() {
+            return memoryReserved;
+        }
+
+        private final ConversionResult result;
+        private GCKFile gckFile;
+        private List<Feature> featureList;
+        private GbFileWriter gbFileWriter;
+        private CompletableFuture<Void> completion;
+        private long memoryReserved;
+        private long inputLength = -1;
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param read Reads the GCK file.
+     * @param parse Builds the list of features.
+     * @param write Writes the GeneBank file.
+     * @param finished Called with every job once it is written or has failed, from the thread that finished it.
+     */
+    public ConversionPipeline(Stage read, Stage parse, Stage write, Consumer<Job> finished) {
+        super();
+        stages = new Stage[] {read, parse, write};
+        this.finished = finished;
+        threads = new int[] {2, Runtime.getRuntime().availableProcessors(), 2};
+        queueCapacity = 2 * threads[PARSE];
+    }
+
+    /**
+     * Runs all the jobs through the pipeline, returning once every job is finished.
+     *
+     * @param jobs The jobs to run, taken in order. Taking the next job waits while the read queue is full.
+     */
+    public void run(Iterable<Job> jobs) {
+        int numStages = stages.length;
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        BlockingQueue<Job>[] queues = new BlockingQueue[numStages];
+        AtomicInteger[] running = new AtomicInteger[numStages];
+        for (int i = 0; i < numStages; i++) {
+            queues[i] = new ArrayBlockingQueue<Job>(queueCapacity);
+            running[i] = new AtomicInteger(threads[i]);
+        }
+        outstanding = new ConcurrentLinkedQueue<CompletableFuture<Void>>();
+        Thread[][] workers = new Thread[numStages][];
+        for (int i = 0; i < numStages; i++) {
+            workers[i] = new Thread[threads[i]];
+            for (int j = 0; j < threads[i]; j++) {
+                final int stage = i;
+                workers[i][j] = new Thread(() -> work(stage, queues, running), STAGE_NAMES[i] + "-" + j);
+                workers[i][j].start();
+            }
+        }
+        try {
+            for (Job job : jobs) {
+                queues[READ].put(job);
+            }
+            for (int j = 0; j < threads[READ]; j++) {
+                queues[READ].put(END);
+            }
+            for (Thread[] stageWorkers : workers) {
+                for (Thread worker : stageWorkers) {
+                    worker.join();
+                }
+            }
+            for (CompletableFuture<Void> written : outstanding) {
+                written.join();
+            }
+        } catch (InterruptedException ex) {
+            for (Thread[] stageWorkers : workers) {
+                for (Thread worker : stageWorkers) {
+                    worker.interrupt();
+                }
+            }
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Body of a worker thread of a stage. When a stage runs out of jobs its last thread tells every thread of the
+     * next stage to stop, even if the thread itself stops because of an error, so the batch cannot stall.
+     */
+    private void work(int stage, BlockingQueue<Job>[] queues, AtomicInteger[] running) {
+        try {
+            while (true) {
+                Job job = queues[stage].take();
+                if (job == END) {
+                    break;
+                }
+                if (stage == READ && memoryBudget != null) {
+                    job.memoryReserved = memoryBudget.acquire(MemoryBudget.estimate(job.getInput()));
+                }
+                if (!runStage(stages[stage], stage, job)) {
+                    job.release();
+                    finish(job);
+                } else if (stage + 1 < stages.length) {
+                    queues[stage + 1].put(job);
+                } else if (job.getCompletion() != null) {
+                    outstanding.add(finishWhenWritten(job));
+                } else {
+                    job.release();
+                    finish(job);
+                }
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (running[stage].decrementAndGet() == 0 && stage + 1 < stages.length) {
+                endStage(queues[stage + 1], threads[stage + 1]);
+            }
+        }
+    }
+
+    /**
+     * Tells every thread of a stage to stop once the jobs already queued are done.
+     */
+    private static void endStage(BlockingQueue<Job> queue, int threads) {
+        try {
+            for (int j = 0; j < threads; j++) {
+                queue.put(END);
+            }
+        } catch (InterruptedException ex) {
+            //Only an abandoned batch is interrupted, and its threads are all interrupted too.
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Runs the stages one after the other on a single job in the calling thread.
+     *
+     * @param job The job to run.
+     */
+    public void runSingle(Job job) {
+        for (int i = 0; i < stages.length && runStage(stages[i], i, job); i++) {
+            //The stage recorded its result in the job.
+        }
+        job.release();
+        if (job.getCompletion() != null) {
+            finishWhenWritten(job).join();
+        }
+    }
+
+    /**
+     * Finishes a job once its output is written, recording the error if writing failed.
+     *
+     * @return A future finished after the job, which never fails.
+     */
+    private CompletableFuture<Void> finishWhenWritten(final Job job) {
+        job.release();
+        return job.getCompletion().handle((written, ex) -> {
+            if (ex != null) {
+                job.getResult().setError(ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex);
+            }
+            finish(job);
+            return null;
+        });
+    }
+
+    /**
+     * Gives back the memory of a finished job and reports it.
+     */
+    private void finish(Job job) {
+        if (job.memoryReserved > 0) {
+            memoryBudget.release(job.memoryReserved);
+            job.memoryReserved = 0;
+        }
+        if (finished != null) {
+            try {
+                finished.accept(job);
+            } catch (Throwable ex) {
+                //A failing listener must not stop the thread, the other jobs would never be finished.
+                logger.severe("Failed to report " + job.getInput().getName() + ": " + ex);
+            }
+        }
+    }
+
+    /**
+     * Runs one stage on a job, recording the time it took and the error if it failed.
+     *
+     * @return True if the stage succeeded.
+     */
+    private static boolean runStage(Stage stage, int index, Job job) {
+        long startTime = System.nanoTime();
+        try {
+            stage.process(job);
+            return true;
+        } catch (Throwable ex) {
+            logger.severe("Failed to convert " + job.getInput().getName() + ": " + ex);
+            job.getResult().setError(ex);
+            return false;
+        } finally {
+            long time = System.nanoTime() - startTime;
+            switch (index) {
+                case READ: job.getResult().setReadNanos(time); break;
+                case PARSE: job.getResult().setParseNanos(time); break;
+                default: job.getResult().setWriteNanos(time);
+            }
+        }
+    }
+
+    /**
+     * Sets the number of threads working on each stage.
+     *
+     * @param read Threads reading GCK files.
+     * @param parse Threads building the feature lists.
+     * @param write Threads writing GeneBank files.
+     */
+    public void setThreads(int read, int parse, int write) {
+        threads = new int[] {Math.max(1, read), Math.max(1, parse), Math.max(1, write)};
+    }
+
+    /**
+     * Sets how many jobs can wait in front of each stage.
+     *
+     * @param queueCapacity The capacity of the queues between the stages.
+     */
+    public void setQueueCapacity(int queueCapacity) {
+        this.queueCapacity = Math.max(1, queueCapacity);
+    }
+
+    /**
+     * Sets the memory budget that files are admitted against before they are read.
+     *
+     * @param memoryBudget The budget, or null to admit files as soon as a reading thread is free.
+     */
+    public void setMemoryBudget(MemoryBudget memoryBudget) {
+        this.memoryBudget = memoryBudget;
+    }
+
+    private final Stage[] stages;
+    private final Consumer<Job> finished;
+    private int[] threads; //number of threads of every stage
+    private int queueCapacity;
+    private MemoryBudget memoryBudget;
+    private ConcurrentLinkedQueue<CompletableFuture<Void>> outstanding; //jobs whose output is still being written
+    private final static Logger logger = Logger.getLogger("GCK_Converter_logger");
+
+    /***** CONSTANTS *****/
+    private final static int READ = 0;
+    private final static int PARSE = 1;
+    private final static String[] STAGE_NAMES = {"read", "parse", "write"};
+    private final static Job END = new Job(new File(""), new File("")); //tells a worker to stop, compared by reference
+}
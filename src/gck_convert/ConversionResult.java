@@ -0,0 +1,193 @@
+package gck_convert;
+
+import gckfilestructure.GCKFile;
+
+import java.io.File;
+
+/**
+ * The outcome of converting a single GCK file, with the sizes and timings reported in the batch manifest.
+ *
+ * @author Matyas Medzihradszky
+ * @version 0.1
+ */
+public class ConversionResult {
+
+    /**
+     * Status of a converted file.
+     */
+    public enum Status {
+        CONVERTED("ok"),
+        LINKED("linked"),
+        SKIPPED("skipped"), //converted by an earlier run of a resumed batch
+        FAILED("failed");
+
+        private final String name;
+
+        Status(String name) {
+            this.name = name;
+        }
+
+        public String dispName() {
+            return name;
+        }
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param input The GCK file.
+     * @param output The GeneBank file.
+     */
+    public ConversionResult(File input, File output) {
+        super();
+        this.input = input;
+        this.output = output;
+        status = Status.FAILED;
+        emittedFeatures = -1;
+    }
+
+    /**
+     * Copies the counts of the sections from a read GCK file.
+     *
+     * @param gckFile The GCK file that has been read.
+     */
+    public void setCounts(GCKFile gckFile) {
+        sequenceLength = gckFile.getSequenceLength();
+        numRegions = gckFile.getNumRegions();
+        numFeatures = gckFile.getNumFeatures();
+        numSites = gckFile.getNumSites();
+        if (gckFile.getSequenceStatistics() != null) {
+            gcContent = gckFile.getSequenceStatistics().getGCContent();
+            invalidBases = gckFile.getSequenceStatistics().getInvalid();
+        }
+        circular = gckFile.isCircular();
+    }
+
+    /**
+     * Records a failed conversion.
+     *
+     * @param error The exception that stopped the conversion.
+     */
+    public void setError(Throwable error) {
+        status = Status.FAILED;
+        this.error = error.getClass().getName();
+    }
+
+    public boolean isSuccess() {
+        return status != Status.FAILED;
+    }
+
+    public File getInput() {
+        return input;
+    }
+
+    public File getOutput() {
+        return output;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public void setStatus(Status status) {
+        this.status = status;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public int getSequenceLength() {
+        return sequenceLength;
+    }
+
+    public int getNumRegions() {
+        return numRegions;
+    }
+
+    public int getNumFeatures() {
+        return numFeatures;
+    }
+
+    /**
+     * @return The GC content of the sequence, between 0 and 1.
+     */
+    public double getGCContent() {
+        return gcContent;
+    }
+
+    /**
+     * @return The number of characters of the sequence that are not IUPAC codes.
+     */
+    public long getInvalidBases() {
+        return invalidBases;
+    }
+
+    public int getNumSites() {
+        return numSites;
+    }
+
+    public boolean isCircular() {
+        return circular;
+    }
+
+    public int getEmittedFeatures() {
+        return emittedFeatures;
+    }
+
+    public void setEmittedFeatures(int emittedFeatures) {
+        this.emittedFeatures = emittedFeatures;
+    }
+
+    public String getOutputHash() {
+        return outputHash;
+    }
+
+    /**
+     * @param outputHash The SHA-256 hash of the GeneBank file written, in hexadecimal.
+     */
+    public void setOutputHash(String outputHash) {
+        this.outputHash = outputHash;
+    }
+
+    public long getReadNanos() {
+        return readNanos;
+    }
+
+    public void setReadNanos(long readNanos) {
+        this.readNanos = readNanos;
+    }
+
+    public long getParseNanos() {
+        return parseNanos;
+    }
+
+    public void setParseNanos(long parseNanos) {
+        this.parseNanos = parseNanos;
+    }
+
+    public long getWriteNanos() {
+        return writeNanos;
+    }
+
+    public void setWriteNanos(long writeNanos) {
+        this.writeNanos = writeNanos;
+    }
+
+    private final File input;
+    private final File output;
+    private Status status;
+    private String error; //class of the exception if the conversion failed
+    private int sequenceLength;
+    private int numRegions;
+    private int numFeatures;
+    private int numSites;
+    private boolean circular;
+    private double gcContent;
+    private long invalidBases;
+    private int emittedFeatures; //number of features written to the GeneBank file
+    private String outputHash;
+    private long readNanos;
+    private long parseNanos;
+    private long writeNanos;
+}
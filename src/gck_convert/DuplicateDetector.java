@@ -0,0 +1,256 @@
+package gck_convert;
+
+import gckfilestructure.FeatureTable;
+import gckfilestructure.GCKFile;
+import gckfilestructure.RegionTable;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Finds constructs that are saved more than once in a batch.
+ *
+ * Every sequence is reduced to a canonical fingerprint that does not depend on the strand it was saved on, or for
+ * circular constructs on where the origin was put. Fingerprints can be added from several threads at once.
+ *
+ * Copies of a construct can still give different GeneBank files: the file name gives the LOCUS name, the
+ * annotations may differ, and a rotated or reversed copy has different coordinates. outputFingerprint covers all
+ * of these, so only copies that also share it give the same GeneBank file.
+ *
+ * @author Matyas Medzihradszky
+ * @version 0.1
+ */
+public class DuplicateDetector {
+
+    /**
+     * Standard constructor.
+     */
+    public DuplicateDetector() {
+        super();
+        index = new ConcurrentHashMap<String, ConcurrentLinkedQueue<Integer>>();
+    }
+
+    /**
+     * Records the fingerprint of an input.
+     *
+     * @param input Number of the input in the batch.
+     * @param fingerprint The fingerprint of its sequence.
+     */
+    public void add(int input, String fingerprint) {
+        index.computeIfAbsent(fingerprint, key -> new ConcurrentLinkedQueue<Integer>()).add(input);
+    }
+
+    /**
+     * Returns the groups of inputs that hold the same construct.
+     *
+     * @return A list of groups, each sorted by the input number, holding at least two inputs. The groups are ordered
+     * by their first input.
+     */
+    public List<List<Integer>> getDuplicateGroups() {
+        List<List<Integer>> groups = new ArrayList<List<Integer>>();
+        for (ConcurrentLinkedQueue<Integer> group : index.values()) {
+            if (group.size() > 1) {
+                List<Integer> sorted = new ArrayList<Integer>(group);
+                Collections.sort(sorted);
+                groups.add(sorted);
+            }
+        }
+        Collections.sort(groups, (a, b) -> Integer.compare(a.get(0), b.get(0)));
+        return groups;
+    }
+
+    /**
+     * Computes the canonical fingerprint of a sequence.
+     *
+     * Linear sequences are read on the strand that comes first alphabetically. Circular sequences are also rotated
+     * to their lexicographically smallest rotation on both strands, and the smaller of the two is used.
+     *
+     * @param sequence The sequence of the construct.
+     * @param circular Whether the construct is circular.
+     * @return A fingerprint that is the same for every copy of the construct.
+     */
+    public static String fingerprint(String sequence, boolean circular) {
+        int n = sequence.length();
+        char[] forward = new char[n];
+        char[] reverse = new char[n];
+        for (int i = 0; i < n; i++) {
+            char base = Character.toUpperCase(sequence.charAt(i));
+            forward[i] = base;
+            reverse[n - 1 - i] = complement(base);
+        }
+        int forwardStart = 0;
+        int reverseStart = 0;
+        if (circular) {
+            forwardStart = leastRotation(forward);
+            reverseStart = leastRotation(reverse);
+        }
+        char[] strand = forward;
+        int start = forwardStart;
+        if (compareRotations(reverse, reverseStart, forward, forwardStart) < 0) {
+            strand = reverse;
+            start = reverseStart;
+        }
+
+        MessageDigest digest = newDigest();
+        byte[] chunk = new byte[8192];
+        for (int done = 0; done < n; ) {
+            int count = Math.min(chunk.length, n - done);
+            for (int i = 0; i < count; i++) {
+                chunk[i] = (byte) strand[(start + done + i) % n];
+            }
+            digest.update(chunk, 0, count);
+            done += count;
+        }
+        return (circular ? "c" : "l") + n + ":" + toHex(digest.digest());
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(2 * bytes.length);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Computes a fingerprint of everything the GeneBank file of a GCK file is written from: the construct name and
+     * circularity, the sequence as it is stored, and every field of the regions and the features. Two files with
+     * the same output fingerprint are converted to the same GeneBank file with the same settings.
+     *
+     * @param gckFile The GCK file, already read.
+     * @return The fingerprint.
+     */
+    public static String outputFingerprint(GCKFile gckFile) {
+        MessageDigest digest = newDigest();
+        ByteBuffer fields = ByteBuffer.allocate(32);
+        update(digest, gckFile.getConstructName());
+        update(digest, gckFile.getSequence());
+        fields.putInt(gckFile.getNumRegions()).putInt(gckFile.getNumFeatures()).put((byte) (gckFile.isCircular() ? 1 : 0));
+        update(digest, fields);
+        RegionTable regions = gckFile.getRegionTable();
+        for (int i = 0; i < gckFile.getNumRegions(); i++) {
+            updateRegion(digest, fields, regions, i);
+        }
+        FeatureTable features = gckFile.getFeatureTable();
+        for (int i = 0; i < gckFile.getNumFeatures(); i++) {
+            updateRegion(digest, fields, features, i);
+            fields.put(features.getStrand(i).byteValue()).put(features.getType(i).byteValue());
+            fields.put((byte) (features.isAutomatic(i) ? 1 : 0));
+            update(digest, fields);
+            update(digest, features.getName(i));
+            update(digest, features.getComment(i));
+        }
+        return toHex(digest.digest());
+    }
+
+    private static void updateRegion(MessageDigest digest, ByteBuffer fields, RegionTable regions, int i) {
+        fields.putInt(regions.getStart(i)).putInt(regions.getEnd(i)).putInt(regions.getColour(i));
+        fields.put(regions.getFontType(i)).putShort(regions.getGrouping(i));
+        fields.put((byte) ((regions.isToDisplay(i) ? 1 : 0) | (regions.hasName(i) ? 2 : 0) | (regions.hasComment(i) ? 4 : 0)));
+        update(digest, fields);
+    }
+
+    /**
+     * Adds the fields collected in the buffer to the digest and empties the buffer.
+     */
+    private static void update(MessageDigest digest, ByteBuffer fields) {
+        fields.flip();
+        digest.update(fields);
+        fields.clear();
+    }
+
+    /**
+     * Adds a text to the digest with its length, so that neighbouring texts cannot be confused.
+     */
+    private static void update(MessageDigest digest, String text) {
+        if (text == null) {
+            digest.update(new byte[] {-1, -1, -1, -1});
+            return;
+        }
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        digest.update(ByteBuffer.allocate(4).putInt(0, bytes.length).array());
+        digest.update(bytes);
+    }
+
+    /**
+     * Finds the start of the lexicographically smallest rotation of a sequence.
+     *
+     * Uses the two pointer minimum expression algorithm, which finds the same rotation as Booth's algorithm in linear
+     * time without Booth's failure table of twice the sequence length.
+     *
+     * @param s The sequence.
+     * @return The position where the smallest rotation starts.
+     */
+    static int leastRotation(char[] s) {
+        int n = s.length;
+        int i = 0;
+        int j = 1;
+        int k = 0;
+        while (i < n && j < n && k < n) {
+            char a = s[(i + k) % n];
+            char b = s[(j + k) % n];
+            if (a == b) {
+                k++;
+                continue;
+            }
+            if (a > b) {
+                i = i + k + 1;
+            } else {
+                j = j + k + 1;
+            }
+            if (i == j) {
+                j++;
+            }
+            k = 0;
+        }
+        return Math.min(i, j);
+    }
+
+    private static int compareRotations(char[] a, int aStart, char[] b, int bStart) {
+        int n = a.length;
+        for (int k = 0; k < n; k++) {
+            char x = a[(aStart + k) % n];
+            char y = b[(bStart + k) % n];
+            if (x != y) {
+                return x < y ? -1 : 1;
+            }
+        }
+        return 0;
+    }
+
+    private static char complement(char base) {
+        switch (base) {
+            case 'A': return 'T';
+            case 'T': return 'A';
+            case 'U': return 'A';
+            case 'C': return 'G';
+            case 'G': return 'C';
+            case 'R': return 'Y';
+            case 'Y': return 'R';
+            case 'K': return 'M';
+            case 'M': return 'K';
+            case 'B': return 'V';
+            case 'V': return 'B';
+            case 'D': return 'H';
+            case 'H': return 'D';
+            default: return base; //N, S, W, and anything unknown are their own complement.
+        }
+    }
+
+    private final ConcurrentHashMap<String, ConcurrentLinkedQueue<Integer>> index; //fingerprint to the inputs having it
+}
@@ -0,0 +1,574 @@
+package gck_convert;
+
+import gckfilestructure.Feature;
+import gckfilestructure.GCKFile;
+import gckfilestructure.Region;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+
+/**
+ * An inverted index of the feature names of a collection of GCK files, answering which files contain a feature.
+ *
+ * The index is a single file that is memory mapped when queried. It holds a table of the indexed files, the features
+ * of every file with their type and coordinates, a sorted dictionary of the feature names in lower case, and for
+ * every name a postings list of the features carrying it. Exact queries find a name by binary search in the
+ * dictionary, prefix queries find the first name with the prefix and read on while the names match, so neither
+ * depends on the number of files indexed.
+ *
+ * The index is updated by building it again from the files given. Files whose size and modification time have not
+ * changed are not read again, their features are copied from the previous index; only new and changed files are
+ * read with a GCKFileAnalyzer. Files not given any more are dropped. The new index replaces the old one in a single
+ * rename.
+ *
+ * @author Matyas Medzihradszky
+ * @version 0.1
+ */
+public class FeatureIndex {
+
+    /**
+     * A feature found by a query.
+     */
+    public static class Hit {
+        private Hit(String file, String name, Region.RegionType type, Feature.Strand strand, int start, int end) {
+            this.file = file;
+            this.name = name;
+            this.type = type;
+            this.strand = strand;
+            this.start = start;
+            this.end = end;
+        }
+
+        public String getFile() {
+            return file;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public Region.RegionType getType() {
+            return type;
+        }
+
+        public Feature.Strand getStrand() {
+            return strand;
+        }
+
+        public int getStart() {
+            return start;
+        }
+
+        public int getEnd() {
+            return end;
+        }
+
+        private final String file;
+        private final String name;
+        private final Region.RegionType type;
+        private final Feature.Strand strand;
+        private final int start;
+        private final int end;
+    }
+
+    /**
+     * The result of building or updating an index.
+     */
+    public static class UpdateResult {
+        UpdateResult(int numReused, int numRead, int numFailed, int numRemoved) {
+            this.numReused = numReused;
+            this.numRead = numRead;
+            this.numFailed = numFailed;
+            this.numRemoved = numRemoved;
+        }
+
+        /**
+         * @return The number of files copied from the previous index.
+         */
+        public int getNumReused() {
+            return numReused;
+        }
+
+        /**
+         * @return The number of new or changed files read.
+         */
+        public int getNumRead() {
+            return numRead;
+        }
+
+        /**
+         * @return The number of files that could not be read and are left out.
+         */
+        public int getNumFailed() {
+            return numFailed;
+        }
+
+        /**
+         * @return The number of files of the previous index that were not given any more.
+         */
+        public int getNumRemoved() {
+            return numRemoved;
+        }
+
+        private final int numReused;
+        private final int numRead;
+        private final int numFailed;
+        private final int numRemoved;
+    }
+
+    private FeatureIndex(File indexFile, ByteBuffer image) throws IOException {
+        super();
+        this.indexFile = indexFile;
+        this.image = image;
+        if (image.capacity() < HEADER_LENGTH || image.getInt(0) != MAGIC) {
+            throw new IOException(indexFile.getName() + " is not a feature index.");
+        }
+        if (image.getInt(4) != VERSION) {
+            throw new IOException(indexFile.getName() + " is a feature index of an unsupported version.");
+        }
+        numDocuments = image.getInt(8);
+        numFeatures = image.getInt(12);
+        numTerms = image.getInt(16);
+        documentsOffset = image.getInt(24);
+        featuresOffset = image.getInt(28);
+        termsOffset = image.getInt(32);
+        postingsOffset = image.getInt(36);
+        int stringsOffset = image.getInt(40);
+        int stringsLength = image.getInt(44);
+        if ((long) stringsOffset + 2L * stringsLength != image.capacity()) {
+            throw new IOException(indexFile.getName() + " is cut short.");
+        }
+        ByteBuffer stringBytes = image.duplicate();
+        stringBytes.position(stringsOffset);
+        strings = stringBytes.slice().asCharBuffer();
+    }
+
+    /**
+     * Maps an index for querying.
+     *
+     * @param indexFile The index file.
+     * @return The index.
+     * @throws IOException Thrown if the file cannot be read or is not a valid index.
+     */
+    public static FeatureIndex open(File indexFile) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(indexFile, "r")) {
+            if (file.length() > Integer.MAX_VALUE) {
+                throw new IOException(indexFile.getName() + " is too large to be mapped.");
+            }
+            return new FeatureIndex(indexFile, file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length()));
+        }
+    }
+
+    /**
+     * Finds the features with a name, ignoring case.
+     *
+     * @param name The name of the feature.
+     * @return The features found, grouped by name and in the order of the indexed files.
+     */
+    public List<Hit> findExact(String name) {
+        String key = name.toLowerCase(Locale.ENGLISH);
+        List<Hit> hits = new ArrayList<Hit>();
+        int term = lowerBound(key);
+        if (term < numTerms && compareTerm(term, key, false) == 0) {
+            addPostings(term, hits);
+        }
+        return hits;
+    }
+
+    /**
+     * Finds the features with a name starting with a prefix, ignoring case.
+     *
+     * @param prefix The start of the name.
+     * @return The features found, grouped by name in alphabetical order.
+     */
+    public List<Hit> findPrefix(String prefix) {
+        String key = prefix.toLowerCase(Locale.ENGLISH);
+        List<Hit> hits = new ArrayList<Hit>();
+        for (int term = lowerBound(key); term < numTerms && compareTerm(term, key, true) == 0; term++) {
+            addPostings(term, hits);
+        }
+        return hits;
+    }
+
+    /**
+     * @return The index of the first term not smaller than the key.
+     */
+    private int lowerBound(String key) {
+        int low = 0;
+        int high = numTerms;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (compareTerm(middle, key, false) < 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Compares a term of the dictionary with a key without decoding the term.
+     *
+     * @param prefixOnly If true a term starting with the key counts as equal.
+     */
+    private int compareTerm(int term, String key, boolean prefixOnly) {
+        int ref = image.getInt(termsOffset + term * TERM_SIZE);
+        int length = strings.get(ref);
+        int common = Math.min(length, key.length());
+        for (int i = 0; i < common; i++) {
+            int difference = strings.get(ref + 1 + i) - key.charAt(i);
+            if (difference != 0) {
+                return difference;
+            }
+        }
+        if (prefixOnly && length >= key.length()) {
+            return 0;
+        }
+        return length - key.length();
+    }
+
+    private void addPostings(int term, List<Hit> hits) {
+        int position = termsOffset + term * TERM_SIZE;
+        int first = image.getInt(position + 4);
+        int count = image.getInt(position + 8);
+        for (int p = first; p < first + count; p++) {
+            int document = image.getInt(postingsOffset + p * POSTING_SIZE);
+            int feature = image.getInt(postingsOffset + p * POSTING_SIZE + 4);
+            int featurePosition = featuresOffset + feature * FEATURE_SIZE;
+            hits.add(new Hit(string(image.getInt(documentsOffset + document * DOCUMENT_SIZE)),
+                    string(image.getInt(featurePosition)),
+                    Region.RegionType.fromByte(image.get(featurePosition + 12)),
+                    Feature.Strand.values()[image.get(featurePosition + 13)],
+                    image.getInt(featurePosition + 4),
+                    image.getInt(featurePosition + 8)));
+        }
+    }
+
+    private String string(int ref) {
+        char[] chars = new char[strings.get(ref)];
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = strings.get(ref + 1 + i);
+        }
+        return new String(chars);
+    }
+
+    public int getNumDocuments() {
+        return numDocuments;
+    }
+
+    public int getNumFeatures() {
+        return numFeatures;
+    }
+
+    public int getNumTerms() {
+        return numTerms;
+    }
+
+    public File getIndexFile() {
+        return indexFile;
+    }
+
+    /**
+     * The features of one indexed file, kept while an index is built.
+     */
+    private static class Document {
+        Document(File file, int numFeatures) {
+            path = file.getPath();
+            length = file.length();
+            modified = file.lastModified();
+            names = new String[numFeatures];
+            starts = new int[numFeatures];
+            ends = new int[numFeatures];
+            types = new byte[numFeatures];
+            strands = new byte[numFeatures];
+        }
+
+        final String path;
+        final long length;
+        final long modified;
+        final String[] names;
+        final int[] starts;
+        final int[] ends;
+        final byte[] types;
+        final byte[] strands;
+    }
+
+    /**
+     * Builds the index of a collection of GCK files, or updates an existing one.
+     *
+     * @param indexFile The index to write. An existing index is used to skip the files that have not changed.
+     * @param inputs The GCK files to index.
+     * @param library The library used to find the types of the features, or null to keep the types stored in the files.
+     * @param threads The number of threads reading files.
+     * @return What was done.
+     * @throws IOException Thrown if the index cannot be written.
+     */
+    public static UpdateResult update(File indexFile, List<File> inputs, final FeatureLibrary library, int threads) throws IOException {
+        FeatureIndex previous = null;
+        Map<String, Integer> previousDocuments = new HashMap<String, Integer>();
+        if (indexFile.isFile()) {
+            try {
+                previous = open(indexFile);
+                for (int d = 0; d < previous.numDocuments; d++) {
+                    previousDocuments.put(previous.string(previous.image.getInt(previous.documentsOffset + d * DOCUMENT_SIZE)), d);
+                }
+            } catch (IOException ex) {
+                logger.warning("The previous index " + indexFile.getName() + " cannot be used, building it again: " + ex.getMessage());
+                previous = null;
+            }
+        }
+
+        Document[] documents = new Document[inputs.size()];
+        List<Future<Document>> reads = new ArrayList<Future<Document>>();
+        List<Integer> readIndices = new ArrayList<Integer>();
+        ExecutorService workers = Executors.newFixedThreadPool(Math.max(1, threads));
+        int numReused = 0;
+        for (int i = 0; i < inputs.size(); i++) {
+            final File input = inputs.get(i);
+            Integer old = previousDocuments.remove(input.getPath());
+            if (old != null && previous.isUnchanged(old, input)) {
+                documents[i] = previous.document(old, input);
+                numReused++;
+            } else {
+                reads.add(workers.submit(() -> readDocument(input, library)));
+                readIndices.add(i);
+            }
+        }
+        int numFailed = 0;
+        try {
+            for (int r = 0; r < reads.size(); r++) {
+                try {
+                    documents[readIndices.get(r)] = reads.get(r).get();
+                } catch (ExecutionException ex) {
+                    logger.severe("Failed to index " + inputs.get(readIndices.get(r)).getName() + ": " + ex.getCause());
+                    numFailed++;
+                }
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while indexing.");
+        } finally {
+            workers.shutdownNow();
+        }
+
+        File temporary = BatchConverter.temporaryFileFor(indexFile);
+        try {
+            write(temporary, documents);
+        } catch (IOException ex) {
+            Files.deleteIfExists(temporary.toPath());
+            throw ex;
+        }
+        BatchConverter.moveIntoPlace(temporary, indexFile);
+        return new UpdateResult(numReused, reads.size() - numFailed, numFailed, previousDocuments.size());
+    }
+
+    private boolean isUnchanged(int document, File input) {
+        int position = documentsOffset + document * DOCUMENT_SIZE;
+        return image.getLong(position + 16) == input.length() && image.getLong(position + 24) == input.lastModified();
+    }
+
+    /**
+     * Copies the features of an unchanged file from the index.
+     */
+    private Document document(int document, File input) {
+        int position = documentsOffset + document * DOCUMENT_SIZE;
+        int first = image.getInt(position + 4);
+        Document copy = new Document(input, image.getInt(position + 8));
+        for (int f = 0; f < copy.names.length; f++) {
+            int featurePosition = featuresOffset + (first + f) * FEATURE_SIZE;
+            copy.names[f] = string(image.getInt(featurePosition));
+            copy.starts[f] = image.getInt(featurePosition + 4);
+            copy.ends[f] = image.getInt(featurePosition + 8);
+            copy.types[f] = image.get(featurePosition + 12);
+            copy.strands[f] = image.get(featurePosition + 13);
+        }
+        return copy;
+    }
+
+    private static Document readDocument(File input, FeatureLibrary library) throws IOException {
+        GCKFile gckFile = BatchConverter.newGCKFile(input);
+        GCKFileAnalyzer analyzer = new GCKFileAnalyzer(gckFile);
+        analyzer.readGCKFile();
+        Feature[] features = gckFile.getFeatures();
+        int numNamed = 0;
+        for (Feature f : features) {
+            if (f.getName() != null && !f.getName().isEmpty()) {
+                numNamed++;
+            }
+        }
+        Document document = new Document(input, numNamed);
+        int i = 0;
+        for (Feature f : features) {
+            if (f.getName() == null || f.getName().isEmpty()) {
+                continue;
+            }
+            Region.RegionType type = library != null ? library.classify(f.getName()) : null;
+            if (type == null) {
+                type = f.getType();
+            }
+            document.names[i] = f.getName();
+            document.starts[i] = f.getStart();
+            document.ends[i] = f.getEnd();
+            document.types[i] = (type != null ? type : Region.RegionType.MISC_FEATURE).byteValue();
+            document.strands[i] = (byte) (f.getStrand() != null ? f.getStrand() : Feature.Strand.FORWARD).ordinal();
+            i++;
+        }
+        return document;
+    }
+
+    /**
+     * Writes an index of the documents. Files that could not be read are null and left out.
+     */
+    private static void write(File file, Document[] all) throws IOException {
+        List<Document> documents = new ArrayList<Document>(all.length);
+        for (Document d : all) {
+            if (d != null) {
+                documents.add(d);
+            }
+        }
+        StringBuilder stringArea = new StringBuilder();
+        Map<String, Integer> stringRefs = new HashMap<String, Integer>();
+        TreeMap<String, int[]> postings = new TreeMap<String, int[]>(); //growing lists of document and feature pairs, count first
+        int numFeatures = 0;
+        for (int d = 0; d < documents.size(); d++) {
+            Document document = documents.get(d);
+            for (int f = 0; f < document.names.length; f++) {
+                String term = document.names[f].toLowerCase(Locale.ENGLISH);
+                int[] list = postings.get(term);
+                if (list == null) {
+                    list = new int[5];
+                } else if (2 * list[0] + 3 > list.length) {
+                    list = Arrays.copyOf(list, 2 * list.length + 1);
+                }
+                list[1 + 2 * list[0]] = d;
+                list[2 + 2 * list[0]] = numFeatures + f;
+                list[0]++;
+                postings.put(term, list);
+            }
+            numFeatures += document.names.length;
+        }
+        int numPostings = 0;
+        for (int[] list : postings.values()) {
+            numPostings += list[0];
+        }
+
+        int documentsOffset = HEADER_LENGTH;
+        int featuresOffset = documentsOffset + documents.size() * DOCUMENT_SIZE;
+        int termsOffset = featuresOffset + numFeatures * FEATURE_SIZE;
+        int postingsOffset = termsOffset + postings.size() * TERM_SIZE;
+        int stringsOffset = postingsOffset + numPostings * POSTING_SIZE;
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(documents.size());
+            out.writeInt(numFeatures);
+            out.writeInt(postings.size());
+            out.writeInt(numPostings);
+            out.writeInt(documentsOffset);
+            out.writeInt(featuresOffset);
+            out.writeInt(termsOffset);
+            out.writeInt(postingsOffset);
+            out.writeInt(stringsOffset);
+            out.writeInt(0); //the length of the strings, filled in at the end
+
+            int firstFeature = 0;
+            for (Document document : documents) {
+                out.writeInt(addString(stringArea, stringRefs, document.path));
+                out.writeInt(firstFeature);
+                out.writeInt(document.names.length);
+                out.writeInt(0);
+                out.writeLong(document.length);
+                out.writeLong(document.modified);
+                firstFeature += document.names.length;
+            }
+            for (Document document : documents) {
+                for (int f = 0; f < document.names.length; f++) {
+                    out.writeInt(addString(stringArea, stringRefs, document.names[f]));
+                    out.writeInt(document.starts[f]);
+                    out.writeInt(document.ends[f]);
+                    out.writeByte(document.types[f]);
+                    out.writeByte(document.strands[f]);
+                    out.writeShort(0);
+                }
+            }
+            int firstPosting = 0;
+            for (Map.Entry<String, int[]> term : postings.entrySet()) {
+                out.writeInt(addString(stringArea, stringRefs, term.getKey()));
+                out.writeInt(firstPosting);
+                out.writeInt(term.getValue()[0]);
+                firstPosting += term.getValue()[0];
+            }
+            for (int[] list : postings.values()) {
+                for (int p = 0; p < list[0]; p++) {
+                    out.writeInt(list[1 + 2 * p]);
+                    out.writeInt(list[2 + 2 * p]);
+                }
+            }
+            if ((long) stringsOffset + 2L * stringArea.length() > Integer.MAX_VALUE) {
+                throw new IOException("The index of " + documents.size() + " files is too large to be mapped.");
+            }
+            out.writeChars(stringArea.toString());
+        }
+        try (RandomAccessFile patch = new RandomAccessFile(file, "rw")) {
+            patch.seek(HEADER_LENGTH - 4);
+            patch.writeInt(stringArea.length());
+        }
+    }
+
+    static int addString(StringBuilder area, Map<String, Integer> refs, String s) {
+        Integer ref = refs.get(s);
+        if (ref == null) {
+            if (s.length() > Character.MAX_VALUE) {
+                s = s.substring(0, Character.MAX_VALUE);
+            }
+            ref = area.length();
+            area.append((char) s.length()).append(s);
+            refs.put(s, ref);
+        }
+        return ref;
+    }
+
+    private final File indexFile;
+    private final ByteBuffer image; //the mapped index, see write for the layout
+    private final CharBuffer strings;
+    private final int numDocuments;
+    private final int numFeatures;
+    private final int numTerms;
+    private final int documentsOffset;
+    private final int featuresOffset;
+    private final int termsOffset;
+    private final int postingsOffset;
+    private final static Logger logger = Logger.getLogger("GCK_Converter_logger");
+
+    /***** CONSTANTS *****/
+    public final static String INDEX_EXTENSION = ".gfi";
+    private final static int MAGIC = 0x47434B49; //"GCKI"
+    private final static int VERSION = 1;
+    private final static int HEADER_LENGTH = 48;
+    private final static int DOCUMENT_SIZE = 32; //path, first feature, number of features, unused, length, modification time
+    private final static int FEATURE_SIZE = 16; //name, start, end, type, strand, unused
+    private final static int TERM_SIZE = 12; //term, first posting, number of postings
+    private final static int POSTING_SIZE = 8; //document, feature
+}
@@ -0,0 +1,605 @@
+package gck_convert;
+
+import gckfilestructure.Region;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Scanner;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+/**
+ * The library used to find the types of features from their names.
+ *
+ * The entries of a library file are patterns matched against the lower case feature name, and the last entry that
+ * matches gives the type. Most entries are plain names, which must match the whole feature name, or 'C:' names,
+ * which must be contained in it. These are recognised from their patterns and looked up in a hash table and an
+ * Aho-Corasick automaton, so only the real regular expressions are run, and only those later in the library than
+ * the best plain match.
+ *
+ * The tables are laid out in a single buffer that can be saved as a compiled library (.lbc) and memory mapped when
+ * loaded again, skipping the parsing of the library file. Compiled libraries have a version and a checksum of their
+ * content, and are only used if they are newer than their library file.
+ *
+ * @author Matyas Medzihradszky
+ * @version 0.1
+ */
+public class FeatureLibrary {
+
+    private FeatureLibrary(ByteBuffer image) {
+        super();
+        this.image = image;
+        entriesOffset = image.getInt(HEADER_LENGTH);
+        hashOffset = image.getInt(HEADER_LENGTH + 4);
+        automatonOffset = image.getInt(HEADER_LENGTH + 8);
+        regexOffset = image.getInt(HEADER_LENGTH + 12);
+        int stringsOffset = image.getInt(HEADER_LENGTH + 16);
+        numEntries = image.getInt(entriesOffset);
+        hashCapacity = image.getInt(hashOffset);
+        numStates = image.getInt(automatonOffset);
+        transitionsOffset = automatonOffset + 8 + numStates * STATE_SIZE;
+        ByteBuffer stringBytes = image.duplicate();
+        stringBytes.position(stringsOffset + 4);
+        stringBytes.limit(stringsOffset + 4 + 2 * image.getInt(stringsOffset));
+        strings = stringBytes.slice().asCharBuffer();
+        patterns = new AtomicReferenceArray<Pattern>(numEntries);
+        types = new AtomicReferenceArray<Region.RegionType>(numEntries);
+    }
+
+    /**
+     * Reads a library, using its compiled form if there is an up to date one.
+     *
+     * @param libraryFile A library file (.lb), or a compiled library (.lbc).
+     * @return The library.
+     * @throws IOException Thrown if the library cannot be read.
+     */
+    public static FeatureLibrary load(File libraryFile) throws IOException {
+        if (libraryFile.getName().endsWith(COMPILED_EXTENSION)) {
+            return map(libraryFile);
+        }
+        File compiled = compiledFileFor(libraryFile);
+        if (compiled.isFile() && compiled.lastModified() >= libraryFile.lastModified()) {
+            try {
+                return map(compiled);
+            } catch (IOException ex) {
+                logger.warning("Ignoring the compiled library " + compiled.getName() + ": " + ex.getMessage());
+            }
+        }
+        try (Scanner reader = new Scanner(libraryFile)) {
+            return fromEntries(parse(reader));
+        }
+    }
+
+    /**
+     * Memory maps a compiled library, checking its version and checksum.
+     *
+     * @param compiledFile The compiled library.
+     * @return The library.
+     * @throws IOException Thrown if the file cannot be read or is not a valid compiled library.
+     */
+    public static FeatureLibrary map(File compiledFile) throws IOException {
+        ByteBuffer image;
+        try (RandomAccessFile file = new RandomAccessFile(compiledFile, "r")) {
+            if (file.length() < HEADER_LENGTH + 20) {
+                throw new IOException("Too short to be a compiled library");
+            }
+            image = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+        }
+        if (image.getInt(0) != MAGIC) {
+            throw new IOException("Not a compiled library");
+        }
+        if (image.getInt(4) != VERSION) {
+            throw new IOException("Compiled library version " + image.getInt(4) + " is not supported");
+        }
+        if (image.getInt(8) != image.capacity() - HEADER_LENGTH) {
+            throw new IOException("The compiled library is truncated");
+        }
+        if (image.getLong(16) != checksum(image)) {
+            throw new IOException("The checksum of the compiled library is wrong");
+        }
+        return new FeatureLibrary(image);
+    }
+
+    /**
+     * Saves the library in compiled form.
+     *
+     * @param compiledFile The file to write.
+     * @throws IOException Thrown if the file cannot be written.
+     */
+    public void save(File compiledFile) throws IOException {
+        ByteBuffer data = image.duplicate();
+        data.clear();
+        try (FileOutputStream out = new FileOutputStream(compiledFile)) {
+            FileChannel channel = out.getChannel();
+            while (data.hasRemaining()) {
+                channel.write(data);
+            }
+        }
+    }
+
+    /**
+     * @param libraryFile A library file.
+     * @return The file its compiled form is saved to: the same name with the extension .lbc.
+     */
+    public static File compiledFileFor(File libraryFile) {
+        return new File(libraryFile.getParentFile(), BatchConverter.getNameWOExt(libraryFile) + COMPILED_EXTENSION);
+    }
+
+    /**
+     * Finds the type of a feature from its name.
+     *
+     * @param name The name of the feature.
+     * @return The type given by the last matching library entry, or null if none of them match.
+     */
+    public Region.RegionType classify(String name) {
+        String key = name.toLowerCase();
+        int best = findExact(key);
+        best = Math.max(best, findContained(key));
+        //Regular expressions are ordered from the last entry, only those after the best match so far matter.
+        int numRegex = image.getInt(regexOffset);
+        for (int i = 0; i < numRegex; i++) {
+            int entry = image.getInt(regexOffset + 4 + 4 * i);
+            if (entry <= best) {
+                break;
+            }
+            if (pattern(entry).matcher(key).find()) {
+                best = entry;
+                break;
+            }
+        }
+        return best < 0 ? null : type(best);
+    }
+
+    public int getNumEntries() {
+        return numEntries;
+    }
+
+    private int findExact(String key) {
+        if (hashCapacity == 0) {
+            return -1;
+        }
+        int mask = hashCapacity - 1;
+        for (int slot = key.hashCode() & mask; ; slot = (slot + 1) & mask) {
+            int position = hashOffset + 4 + slot * 8;
+            int nameRef = image.getInt(position);
+            if (nameRef < 0) {
+                return -1;
+            }
+            if (stringEquals(nameRef, key)) {
+                return image.getInt(position + 4);
+            }
+        }
+    }
+
+    /**
+     * Runs the name through the automaton of contained names.
+     *
+     * @return The last entry contained in the name, or -1.
+     */
+    private int findContained(String key) {
+        if (numStates == 0) {
+            return -1;
+        }
+        int state = 0;
+        int best = stateOutput(0);
+        for (int i = 0; i < key.length(); i++) {
+            char c = key.charAt(i);
+            int next = transition(state, c);
+            while (next < 0 && state != 0) {
+                state = image.getInt(automatonOffset + 8 + state * STATE_SIZE + 8);
+                next = transition(state, c);
+            }
+            state = next < 0 ? 0 : next;
+            best = Math.max(best, stateOutput(state));
+        }
+        return best;
+    }
+
+    private int stateOutput(int state) {
+        return image.getInt(automatonOffset + 8 + state * STATE_SIZE + 12);
+    }
+
+    /**
+     * Finds the transition of a state on a character by binary search.
+     *
+     * @return The next state, or -1 if there is no transition.
+     */
+    private int transition(int state, char c) {
+        int position = automatonOffset + 8 + state * STATE_SIZE;
+        int low = image.getInt(position);
+        int high = low + image.getInt(position + 4) - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int label = image.getInt(transitionsOffset + middle * 8);
+            if (label < c) {
+                low = middle + 1;
+            } else if (label > c) {
+                high = middle - 1;
+            } else {
+                return image.getInt(transitionsOffset + middle * 8 + 4);
+            }
+        }
+        return -1;
+    }
+
+    private Pattern pattern(int entry) {
+        Pattern pattern = patterns.get(entry);
+        if (pattern == null) {
+            pattern = Pattern.compile(string(image.getInt(entriesOffset + 4 + entry * ENTRY_SIZE + 8)));
+            patterns.set(entry, pattern);
+        }
+        return pattern;
+    }
+
+    private Region.RegionType type(int entry) {
+        Region.RegionType type = types.get(entry);
+        if (type == null) {
+            type = Region.RegionType.valueOf(string(image.getInt(entriesOffset + 4 + entry * ENTRY_SIZE + 4)).toUpperCase());
+            types.set(entry, type);
+        }
+        return type;
+    }
+
+    private String string(int ref) {
+        int length = strings.get(ref);
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            chars[i] = strings.get(ref + 1 + i);
+        }
+        return new String(chars);
+    }
+
+    private boolean stringEquals(int ref, String s) {
+        if (strings.get(ref) != s.length()) {
+            return false;
+        }
+        for (int i = 0; i < s.length(); i++) {
+            if (strings.get(ref + 1 + i) != s.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static long checksum(ByteBuffer image) {
+        ByteBuffer payload = image.duplicate();
+        payload.clear();
+        payload.position(HEADER_LENGTH);
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        return crc.getValue();
+    }
+
+    /**
+     * Parses a library file into a list of entries, each holding a regular expression and the name of a type.
+     *
+     * @param reader A scanner attached to the library file to read and parse.
+     * @return The entries in the order of the file.
+     */
+    public static LinkedList<String[]> parse(Scanner reader) {
+        LinkedList<String[]> library = new LinkedList<String[]>();
+        String actualValue = null;
+        String line;
+        while (reader.hasNextLine()) {
+            line = reader.nextLine();
+            line = line.toLowerCase();
+            if (!line.startsWith("//")) {
+                //if the line contains a comment we ditch that part.
+                //Otherwise we just remove any leading or trailing spaces.
+                if (line.contains("//")) {
+                    line = line.split("//", 2)[0];
+                }
+                line = line.trim();
+                if (line.startsWith("group:")) {
+                    actualValue = line.split(":", 2)[1];
+                } else if (actualValue != null) {
+                    if (line.startsWith("c:")) {
+                        line = unEscape(line);
+                        line = line.split(":", 2)[1];
+                        library.add(new String[] {line, actualValue});
+                    } else if (line.startsWith("p:")) {
+                        line = line.split(":", 2)[1];
+                        library.add(new String[] {line, actualValue});
+                    } else {
+                        line = unEscape(line);
+                        library.add(new String[] {"^" + line + "$", actualValue});
+                    }
+                }
+            }
+        }
+        for (String[] sa : library) {
+            logger.info("Key: " + sa[0] + " ; " + "Value: " + sa[1]);
+        }
+        return library;
+    }
+
+    /**
+     * Converts a simple string into one that can be parsed as a regular expression.
+     *
+     * @param line The string to convert.
+     * @return The supplied string converted to a regular expression matching the supplied string.
+     */
+    private static String unEscape(String line) {
+        line = line.replace("[", "\\[");
+        line = line.replace("]", "\\]");
+        line = line.replace("}", "\\}");
+        line = line.replace("{", "\\{");
+        line = line.replace(")", "\\)");
+        line = line.replace("(", "\\(");
+        line = line.replace(".", "\\.");
+        line = line.replace("*", "\\*");
+        line = line.replace("+", "\\+");
+        line = line.replace("$", "\\$");
+        line = line.replace("^", "\\^");
+        line = line.replace("?", "\\?");
+        return line;
+    }
+
+    /**
+     * Builds a library from parsed entries.
+     *
+     * @param entries Pairs of a regular expression and a type name, in the order of the library file.
+     * @return The library.
+     */
+    public static FeatureLibrary fromEntries(List<String[]> entries) {
+        return new Builder(entries).build();
+    }
+
+    /**
+     * Lays out the tables of a library in a buffer.
+     */
+    private static class Builder {
+
+        Builder(List<String[]> entries) {
+            this.entries = entries;
+        }
+
+        FeatureLibrary build() {
+            int n = entries.size();
+            int[] kinds = new int[n];
+            String[] texts = new String[n];
+            Map<String, Integer> exact = new HashMap<String, Integer>();
+            List<Integer> regex = new ArrayList<Integer>();
+            List<TreeMap<Character, Integer>> trie = new ArrayList<TreeMap<Character, Integer>>();
+            List<Integer> output = new ArrayList<Integer>();
+            int i = 0;
+            for (String[] entry : entries) {
+                String pattern = entry[0];
+                String literal;
+                if (pattern.length() >= 2 && pattern.startsWith("^") && pattern.endsWith("$") && !pattern.endsWith("\\$")
+                        && (literal = literal(pattern.substring(1, pattern.length() - 1))) != null) {
+                    kinds[i] = EXACT;
+                    texts[i] = literal;
+                    exact.put(literal, i);
+                } else if ((literal = literal(pattern)) != null) {
+                    kinds[i] = CONTAINED;
+                    texts[i] = literal;
+                    addToTrie(trie, output, literal, i);
+                } else {
+                    kinds[i] = REGEX;
+                    texts[i] = pattern;
+                    regex.add(i);
+                }
+                i++;
+            }
+
+            int[] fail = linkTrie(trie, output);
+
+            //Sizes of the sections.
+            int hashCapacity = exact.isEmpty() ? 0 : Integer.highestOneBit(exact.size() * 2 - 1) << 1;
+            int numTransitions = 0;
+            for (TreeMap<Character, Integer> state : trie) {
+                numTransitions += state.size();
+            }
+            int entriesOffset = HEADER_LENGTH + 20;
+            int hashOffset = entriesOffset + 4 + n * ENTRY_SIZE;
+            int automatonOffset = hashOffset + 4 + hashCapacity * 8;
+            int regexOffset = automatonOffset + 8 + trie.size() * STATE_SIZE + numTransitions * 8;
+            int stringsOffset = regexOffset + 4 + regex.size() * 4;
+
+            //Strings are stored once each, as a length followed by the characters.
+            StringBuilder stringArea = new StringBuilder();
+            Map<String, Integer> stringRefs = new HashMap<String, Integer>();
+            int[] typeRefs = new int[n];
+            int[] textRefs = new int[n];
+            i = 0;
+            for (String[] entry : entries) {
+                typeRefs[i] = addString(stringArea, stringRefs, entry[1]);
+                textRefs[i] = addString(stringArea, stringRefs, texts[i]);
+                i++;
+            }
+
+            ByteBuffer image = ByteBuffer.allocate(stringsOffset + 4 + 2 * stringArea.length());
+            image.putInt(0, MAGIC);
+            image.putInt(4, VERSION);
+            image.putInt(8, image.capacity() - HEADER_LENGTH);
+            image.putInt(HEADER_LENGTH, entriesOffset);
+            image.putInt(HEADER_LENGTH + 4, hashOffset);
+            image.putInt(HEADER_LENGTH + 8, automatonOffset);
+            image.putInt(HEADER_LENGTH + 12, regexOffset);
+            image.putInt(HEADER_LENGTH + 16, stringsOffset);
+
+            image.putInt(entriesOffset, n);
+            for (i = 0; i < n; i++) {
+                int position = entriesOffset + 4 + i * ENTRY_SIZE;
+                image.putInt(position, kinds[i]);
+                image.putInt(position + 4, typeRefs[i]);
+                image.putInt(position + 8, textRefs[i]);
+            }
+
+            image.putInt(hashOffset, hashCapacity);
+            for (int slot = 0; slot < hashCapacity; slot++) {
+                image.putInt(hashOffset + 4 + slot * 8, -1);
+            }
+            for (Map.Entry<String, Integer> name : exact.entrySet()) {
+                int slot = name.getKey().hashCode() & (hashCapacity - 1);
+                while (image.getInt(hashOffset + 4 + slot * 8) >= 0) {
+                    slot = (slot + 1) & (hashCapacity - 1);
+                }
+                image.putInt(hashOffset + 4 + slot * 8, textRefs[name.getValue()]);
+                image.putInt(hashOffset + 4 + slot * 8 + 4, name.getValue());
+            }
+
+            image.putInt(automatonOffset, trie.size());
+            image.putInt(automatonOffset + 4, numTransitions);
+            int transitionsOffset = automatonOffset + 8 + trie.size() * STATE_SIZE;
+            int transition = 0;
+            for (int state = 0; state < trie.size(); state++) {
+                int position = automatonOffset + 8 + state * STATE_SIZE;
+                image.putInt(position, transition);
+                image.putInt(position + 4, trie.get(state).size());
+                image.putInt(position + 8, fail[state]);
+                image.putInt(position + 12, output.get(state));
+                for (Map.Entry<Character, Integer> edge : trie.get(state).entrySet()) {
+                    image.putInt(transitionsOffset + transition * 8, edge.getKey());
+                    image.putInt(transitionsOffset + transition * 8 + 4, edge.getValue());
+                    transition++;
+                }
+            }
+
+            image.putInt(regexOffset, regex.size());
+            for (i = 0; i < regex.size(); i++) {
+                image.putInt(regexOffset + 4 + 4 * i, regex.get(regex.size() - 1 - i));
+            }
+
+            image.putInt(stringsOffset, stringArea.length());
+            for (i = 0; i < stringArea.length(); i++) {
+                image.putChar(stringsOffset + 4 + 2 * i, stringArea.charAt(i));
+            }
+            image.putLong(16, checksum(image));
+            return new FeatureLibrary(image);
+        }
+
+        private static void addToTrie(List<TreeMap<Character, Integer>> trie, List<Integer> output, String text, int entry) {
+            if (trie.isEmpty()) {
+                trie.add(new TreeMap<Character, Integer>());
+                output.add(-1);
+            }
+            int state = 0;
+            for (int i = 0; i < text.length(); i++) {
+                Integer next = trie.get(state).get(text.charAt(i));
+                if (next == null) {
+                    next = trie.size();
+                    trie.get(state).put(text.charAt(i), next);
+                    trie.add(new TreeMap<Character, Integer>());
+                    output.add(-1);
+                }
+                state = next;
+            }
+            output.set(state, Math.max(output.get(state), entry));
+        }
+
+        /**
+         * Computes the failure links of the trie in breadth first order, and merges the output of every state with
+         * that of its failure state, so each state holds the last entry ending there.
+         */
+        private static int[] linkTrie(List<TreeMap<Character, Integer>> trie, List<Integer> output) {
+            int[] fail = new int[trie.size()];
+            ArrayDeque<Integer> queue = new ArrayDeque<Integer>();
+            if (trie.isEmpty()) {
+                return fail;
+            }
+            for (int child : trie.get(0).values()) {
+                fail[child] = 0;
+                output.set(child, Math.max(output.get(child), output.get(0)));
+                queue.add(child);
+            }
+            while (!queue.isEmpty()) {
+                int state = queue.poll();
+                for (Map.Entry<Character, Integer> edge : trie.get(state).entrySet()) {
+                    int child = edge.getValue();
+                    int f = fail[state];
+                    while (f != 0 && !trie.get(f).containsKey(edge.getKey())) {
+                        f = fail[f];
+                    }
+                    Integer target = trie.get(f).get(edge.getKey());
+                    fail[child] = target == null || target == child ? 0 : target;
+                    output.set(child, Math.max(output.get(child), output.get(fail[child])));
+                    queue.add(child);
+                }
+            }
+            return fail;
+        }
+
+        private static int addString(StringBuilder area, Map<String, Integer> refs, String s) {
+            Integer ref = refs.get(s);
+            if (ref == null) {
+                if (s.length() > Character.MAX_VALUE) {
+                    throw new IllegalArgumentException("Library entry too long: " + s.substring(0, 40) + "...");
+                }
+                ref = area.length();
+                area.append((char) s.length()).append(s);
+                refs.put(s, ref);
+            }
+            return ref;
+        }
+
+        /**
+         * Reads a regular expression as plain text if it only holds ordinary characters and escaped punctuation.
+         *
+         * @return The text matched by the expression, or null if it is a real regular expression.
+         */
+        private static String literal(String pattern) {
+            StringBuilder sb = new StringBuilder(pattern.length());
+            for (int i = 0; i < pattern.length(); i++) {
+                char c = pattern.charAt(i);
+                if (c == '\\') {
+                    if (i + 1 < pattern.length() && ESCAPED.indexOf(pattern.charAt(i + 1)) >= 0) {
+                        sb.append(pattern.charAt(++i));
+                    } else {
+                        return null;
+                    }
+                } else if (META.indexOf(c) >= 0) {
+                    return null;
+                } else {
+                    sb.append(c);
+                }
+            }
+            return sb.toString();
+        }
+
+        private final List<String[]> entries;
+    }
+
+    private final ByteBuffer image; //the whole compiled library, see Builder for the layout
+    private final int entriesOffset;
+    private final int hashOffset;
+    private final int automatonOffset;
+    private final int transitionsOffset;
+    private final int regexOffset;
+    private final int numEntries;
+    private final int hashCapacity;
+    private final int numStates;
+    private final CharBuffer strings;
+    private final AtomicReferenceArray<Pattern> patterns; //compiled when first needed
+    private final AtomicReferenceArray<Region.RegionType> types;
+    private final static Logger logger = Logger.getLogger("GCK_Converter_logger");
+
+    /***** CONSTANTS *****/
+    public final static String COMPILED_EXTENSION = ".lbc";
+    private final static int MAGIC = 0x47434B4C; //"GCKL"
+    private final static int VERSION = 1;
+    private final static int HEADER_LENGTH = 24; //magic, version, payload length, unused, checksum
+    private final static int ENTRY_SIZE = 12; //kind, type name, text
+    private final static int STATE_SIZE = 16; //first transition, number of transitions, failure state, output
+    private final static int EXACT = 0;
+    private final static int CONTAINED = 1;
+    private final static int REGEX = 2;
+    private final static String META = "\\[](){}.*+?^$|";
+    private final static String ESCAPED = "[](){}.*+?^$";
+}
@@ -0,0 +1,313 @@
+package gck_convert;
+
+import gckfilestructure.Feature;
+import gckfilestructure.Region;
+import gckfilestructure.TextReference;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Writes the FEATURES table of a GeneBank file without formatting strings.
+ *
+ * Every line is assembled in a reusable character buffer: columns are padded with spaces copied from a constant,
+ * numbers are written digit by digit and colours are looked up in a table of hexadecimal pairs. The buffer is passed
+ * to the writer whenever it fills up, so writing a feature allocates nothing. The output is the same, character
+ * for character, as the String.format based code it replaces.
+ *
+ * Comments too long for one line are wrapped to 80 columns, breaking at spaces where possible. They are streamed
+ * through a line sized buffer, so comments left in the GCK file are never loaded whole.
+ *
+ * @author Matyas Medzihradszky
+ * @version 0.1
+ */
+public class FeatureTableEmitter {
+
+    /**
+     * Constructor.
+     *
+     * @param lineSeparator The line separator used where the original writer used println.
+     */
+    public FeatureTableEmitter(String lineSeparator) {
+        super();
+        this.lineSeparator = lineSeparator.toCharArray();
+        buffer = new char[BUFFER_SIZE];
+    }
+
+    /**
+     * Writes the FEATURES header and all the features.
+     *
+     * @param out The writer to write to.
+     * @param featureList The features to write.
+     * @param includeApEData Whether display information for ApE should be written for every feature.
+     */
+    public void emit(PrintWriter out, List<Feature> featureList, boolean includeApEData) {
+        this.out = out;
+        length = 0;
+        append("FEATURES").appendSpaces(21 - 8).append("Location/Qualifiers").append('\n');
+        for (Feature f : featureList) {
+            emitFeature(f, includeApEData);
+        }
+        flush();
+        this.out = null;
+    }
+
+    private void emitFeature(Feature f, boolean includeApEData) {
+        //Make sure the fixed parts of the feature fit, the name and comment are checked as they are appended.
+        ensure(FIXED_FEATURE_LENGTH);
+        appendSpaces(5).appendPadded(f.getType().dispName(), 16, 15);
+        if (f.getStrand() == Feature.Strand.REVERSE) {
+            append("(complement)");
+        }
+        appendInt(f.getStart()).append("..").appendInt(f.getEnd()).append('\n');
+        appendSpaces(21).append("/label=").appendPadded(f.getName(), 2, 52).append('\n');
+        if (f.hasComment()) {
+            TextReference reference = f.getCommentReference();
+            if (reference != null) {
+                try (Reader comment = reference.openReader()) {
+                    emitWrappedComment(comment);
+                } catch (IOException ex) {
+                    throw new UncheckedIOException("Failed reading the comment of " + f.getName(), ex);
+                }
+            } else {
+                String comment = f.getComment();
+                //A line break written as is would start a line at column 0 and end the feature table there.
+                if (comment != null && (comment.length() > FIRST_LINE_WIDTH - 1 || comment.indexOf('\n') >= 0 || comment.indexOf('\r') >= 0)) {
+                    emitWrappedComment(new StringReader(comment));
+                } else {
+                    appendSpaces(21).append("/comment=").append('"').appendPadded(comment, 2, Integer.MAX_VALUE)
+                            .append('"').append('\n');
+                }
+            }
+        }
+        if (includeApEData) {
+            emitApEData(f);
+        }
+    }
+
+    private void emitApEData(Feature f) {
+        ensure(FIXED_FEATURE_LENGTH);
+        byte red = f.getColourRed();
+        byte green = f.getColourGreen();
+        byte blue = f.getColourBlue();
+        if (red != 0 || green != 0 || blue != 0) {
+            appendSpaces(21).append("/ApEinfo_fwdcolor=#").appendHex(red).appendHex(green).appendHex(blue).appendLineSeparator();
+            appendSpaces(21).append("/ApEinfo_revcolor=#").appendHex(red).appendHex(green).appendHex(blue).appendLineSeparator();
+        } else if (f.getType() == Region.RegionType.GENE) { //Use these default colours if none are included
+            appendSpaces(21).append("/ApEinfo_fwdcolor=#ff0000\n");
+            appendSpaces(21).append("/ApEinfo_revcolor=#ff0000\n");
+        } else {
+            appendSpaces(21).append("/ApEinfo_fwdcolor=#00ff00\n");
+            appendSpaces(21).append("/ApEinfo_revcolor=#00ff00\n");
+        }
+        appendSpaces(21);
+        if (f.getStrand() == Feature.Strand.FORWARD || f.getStrand() == Feature.Strand.REVERSE) {
+            append("/ApEinfo_graphicformat=arrow_data {{0 1 2 0 0 -1} {} 0}");
+        } else if (f.getStrand() == Feature.Strand.BOTH) { //Double headed arrow
+            append("/ApEinfo_graphicformat=arrow_data {{0 1 2 0 0 -1} {0 1 2 0 0 -1} 0}");
+        } else { //Blunt arrow (no arrowheads)
+            append("/ApEinfo_graphicformat=arrow_data {{} {} 0}");
+        }
+        appendLineSeparator();
+        appendSpaces(21).append("width 5 offset 0").appendLineSeparator();
+    }
+
+    /**
+     * Writes a comment as a /comment qualifier spread over as many lines as needed. Lines are broken at the last
+     * space that fits, which is dropped, or in the middle of a word if there is none. Line breaks in the comment
+     * are kept.
+     */
+    private void emitWrappedComment(Reader comment) {
+        char[] line = wrapLine;
+        int n = 0; //characters waiting in line
+        int width = FIRST_LINE_WIDTH;
+        boolean first = true;
+        try {
+            int count;
+            while ((count = comment.read(readChunk, 0, readChunk.length)) != -1) {
+                for (int i = 0; i < count; i++) {
+                    char c = readChunk[i];
+                    if (c == '\r') {
+                        continue;
+                    }
+                    if (c == '\n') {
+                        emitCommentLine(line, n, first, false);
+                        n = 0;
+                        first = false;
+                        width = CONTINUATION_LINE_WIDTH;
+                    } else {
+                        if (n == width) {
+                            n = emitCommentLineUpToSpace(line, n, first);
+                            first = false;
+                            width = CONTINUATION_LINE_WIDTH;
+                        }
+                        line[n++] = c;
+                    }
+                }
+            }
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        if (n == width) {
+            //No room for the closing quote.
+            n = emitCommentLineUpToSpace(line, n, first);
+            first = false;
+        }
+        emitCommentLine(line, n, first, true);
+    }
+
+    /**
+     * Writes a full line of a comment up to its last space, and moves the rest to the start of the line.
+     *
+     * @return The number of characters left in the line.
+     */
+    private int emitCommentLineUpToSpace(char[] line, int n, boolean first) {
+        int space = n - 1;
+        while (space > 0 && line[space] != ' ') {
+            space--;
+        }
+        if (space <= 0) {
+            emitCommentLine(line, n, first, false);
+            return 0;
+        }
+        emitCommentLine(line, space, first, false);
+        int rest = n - space - 1;
+        System.arraycopy(line, space + 1, line, 0, rest);
+        return rest;
+    }
+
+    private void emitCommentLine(char[] line, int n, boolean first, boolean last) {
+        ensure(MAX_LINE_LENGTH);
+        appendSpaces(21);
+        if (first) {
+            append("/comment=").append('"');
+        }
+        System.arraycopy(line, 0, buffer, length, n);
+        length += n;
+        if (last) {
+            append('"');
+        }
+        append('\n');
+    }
+
+    /**
+     * Appends a string cut to at most maxLength characters and padded with spaces to at least width characters,
+     * like %-width.maxLengths. Null is written as "null".
+     */
+    private FeatureTableEmitter appendPadded(String s, int width, int maxLength) {
+        if (s == null) {
+            s = "null";
+        }
+        int count = Math.min(s.length(), maxLength);
+        //Also keep room for the fixed text that follows the string.
+        ensure(Math.max(count, width) + FIXED_FEATURE_LENGTH);
+        s.getChars(0, count, buffer, length);
+        length += count;
+        return appendSpaces(width - count);
+    }
+
+    /**
+     * Appends a short string. The caller has made sure it fits.
+     */
+    private FeatureTableEmitter append(String s) {
+        s.getChars(0, s.length(), buffer, length);
+        length += s.length();
+        return this;
+    }
+
+    private FeatureTableEmitter append(char c) {
+        buffer[length++] = c;
+        return this;
+    }
+
+    private FeatureTableEmitter appendSpaces(int count) {
+        if (count > 0) {
+            System.arraycopy(SPACES, 0, buffer, length, count);
+            length += count;
+        }
+        return this;
+    }
+
+    private FeatureTableEmitter appendInt(int value) {
+        if (value < 0) {
+            if (value == Integer.MIN_VALUE) {
+                return append(String.valueOf(value));
+            }
+            buffer[length++] = '-';
+            value = -value;
+        }
+        int digits = 1;
+        for (int limit = 10; digits < 10 && value >= limit; limit *= 10) {
+            digits++;
+        }
+        for (int i = length + digits - 1; i >= length; i--) {
+            buffer[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+        length += digits;
+        return this;
+    }
+
+    private FeatureTableEmitter appendHex(byte value) {
+        int i = (value & 0xff) * 2;
+        buffer[length++] = HEX_PAIRS[i];
+        buffer[length++] = HEX_PAIRS[i + 1];
+        return this;
+    }
+
+    private FeatureTableEmitter appendLineSeparator() {
+        for (char c : lineSeparator) {
+            buffer[length++] = c;
+        }
+        return this;
+    }
+
+    /**
+     * Makes sure that count more characters fit into the buffer, passing its content to the writer if needed.
+     */
+    private void ensure(int count) {
+        if (length + count <= buffer.length) {
+            return;
+        }
+        flush();
+        if (count > buffer.length) {
+            //A very long comment, grow the buffer to hold it.
+            buffer = new char[count];
+        }
+    }
+
+    private void flush() {
+        out.write(buffer, 0, length);
+        length = 0;
+    }
+
+    private final char[] lineSeparator;
+    private char[] buffer; //reused for every feature, grown only for very long comments
+    private int length; //number of characters waiting in the buffer
+    private PrintWriter out;
+    private final char[] wrapLine = new char[CONTINUATION_LINE_WIDTH]; //the comment line being wrapped
+    private final char[] readChunk = new char[BUFFER_SIZE];
+
+    /***** CONSTANTS *****/
+    private final static int BUFFER_SIZE = 8192;
+    //Longest possible fixed part of a feature or of its ApE data, without the name and the comment.
+    private final static int FIXED_FEATURE_LENGTH = 512;
+    private final static int MAX_LINE_LENGTH = 80 + 1;
+    private final static int FIRST_LINE_WIDTH = 80 - 21 - 10; //characters of a comment after /comment="
+    private final static int CONTINUATION_LINE_WIDTH = 80 - 21;
+    private final static char[] SPACES = new char[128];
+    private final static char[] HEX_PAIRS = new char[512]; //upper case hexadecimal digits of every byte value
+    static {
+        Arrays.fill(SPACES, ' ');
+        String digits = "0123456789ABCDEF";
+        for (int i = 0; i < 256; i++) {
+            HEX_PAIRS[2 * i] = digits.charAt(i >> 4);
+            HEX_PAIRS[2 * i + 1] = digits.charAt(i & 0xf);
+        }
+    }
+}
@@ -6,6 +6,7 @@ import gckfilestructure.*;
 import java.io.IOException;
 import java.util.logging.Logger;
 import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
 
 /**
  * Reads and extracts data from a gck sequence file.
@@ -13,6 +14,10 @@ import java.nio.ByteBuffer;
  * The extracted data is stored in an associated GCKFile object.
  * Contains methods to extract information about regions and features.
  * Marks or enzyme cleavage sites cannot be extracted at this time.
+ *
+ * The file can also be read from any seekable channel, for example a ByteBufferChannel over a GCK file received in
+ * memory. The GCKFile then only names the data; long comments are read into memory, as there is no file to find
+ * them in later.
  * 
  * @author Matyas Medzihradszky
  */
@@ -21,7 +26,44 @@ public class GCKFileAnalyzer {
     public GCKFileAnalyzer(GCKFile gckFile) throws IOException{
         super();
         this.gckFile = gckFile;
-        fileInputStream = new FileInputStream(gckFile.getFile());
+        input = new FileInputStream(gckFile.getFile()).getChannel();
+        base = 0;
+        ownsInput = true;
+    }
+
+    /**
+     * Constructor reading the GCK data from a channel instead of the file of the GCKFile.
+     *
+     * @param gckFile The object to store the data in. Its file is only used for its name.
+     * @param input The GCK data, starting at the current position of the channel, so a GCK file kept inside a larger
+     * file can be read. It is not closed.
+     * @throws IOException Thrown if the position of the channel cannot be read.
+     */
+    public GCKFileAnalyzer(GCKFile gckFile, SeekableByteChannel input) throws IOException {
+        super();
+        this.gckFile = gckFile;
+        this.input = input;
+        base = input.position();
+        ownsInput = false;
+    }
+
+    /**
+     * Sets the length above which feature comments are left in the file and only referenced.
+     * Comments that do not fit into the read buffer are always referenced.
+     *
+     * @param lazyCommentThreshold The length in bytes.
+     */
+    public void setLazyCommentThreshold(int lazyCommentThreshold) {
+        this.lazyCommentThreshold = lazyCommentThreshold;
+    }
+
+    /**
+     * Sets whether the letters of the sequence are put in lower case as it is read.
+     *
+     * @param lowerCaseSequence True to normalise the case of the sequence.
+     */
+    public void setLowerCaseSequence(boolean lowerCaseSequence) {
+        this.lowerCaseSequence = lowerCaseSequence;
     }
 
     public void readGCKFile() {
@@ -36,8 +78,48 @@ public class GCKFileAnalyzer {
             gckFile.setCircular(true);
             logger.severe("Failed to determine circularity, assuming circular as fallback.");
         }
+        if (ownsInput) {
+            try {
+                input.close();
+            } catch (IOException ex) {
+                logger.warning("Failed closing " + gckFile.getFile().getName());
+            }
+        }
+    }
+
+    /**
+     * Reads bytes from the input, stopping only at its end.
+     *
+     * @return The number of bytes read, or -1 if the end was reached before any.
+     */
+    private int read(byte[] bytes, int offset, int length) throws IOException {
+        ByteBuffer target = ByteBuffer.wrap(bytes, offset, length);
+        while (target.hasRemaining() && input.read(target) >= 0) {
+            //Keep reading, a channel may return fewer bytes than asked for.
+        }
+        int count = target.position() - offset;
+        return count == 0 && length > 0 ? -1 : count;
+    }
+
+    /**
+     * Moves the read position forward, or back for a negative count.
+     */
+    private void skip(long count) throws IOException {
+        long position = input.position() + count;
+        if (position < base) {
+            throw new IOException("Cannot skip before the start of " + gckFile.getFile().getName());
+        }
+        input.position(position);
+    }
+
+    /**
+     * Moves the read position to an offset in the GCK data, counted from its start in the input.
+     */
+    private void seek(long offset) throws IOException {
+        input.position(base + offset);
     }
 
+
     /**
      * Reads basic information about the file to be analyzed.
      * 
@@ -53,20 +135,20 @@ public class GCKFileAnalyzer {
         buffer = ByteBuffer.allocate(GCKFile.HEADER_LENGTH);
         try {
             //Set read position to the start of the file.
-            fileInputStream.getChannel().position(0);
+            seek(0);
             
             //Read sequence length data.
-            fileInputStream.read(buffer.array(), 0, GCKFile.HEADER_LENGTH);
+            read(buffer.array(), 0, GCKFile.HEADER_LENGTH);
             gckFile.setSequenceLength(buffer.getInt(buffer.capacity()-(Integer.SIZE/8)));
             
             //Read length of region definitions.
-            fileInputStream.skip(gckFile.getSequenceLength());
-            fileInputStream.read(buffer.array(), 0, 4);
+            skip(gckFile.getSequenceLength());
+            read(buffer.array(), 0, 4);
             gckFile.setLengthRegions(buffer.getInt(0));
             
             //Read length of feature definitions.
-            fileInputStream.skip(gckFile.getLengthRegions());
-            fileInputStream.read(buffer.array(), 0, 4);
+            skip(gckFile.getLengthRegions());
+            read(buffer.array(), 0, 4);
             gckFile.setLengthFeatures(buffer.getInt(0));
 
             
@@ -90,34 +172,35 @@ public class GCKFileAnalyzer {
         try {
             //Set read position to the end of the sequence listing where region
             //definitions start.
-            fileInputStream.getChannel().position(GCKFile.HEADER_LENGTH + gckFile.getSequenceLength());
+            seek(GCKFile.HEADER_LENGTH + gckFile.getSequenceLength());
             
             //Skip the offset and the sequence length entry.
-            fileInputStream.skip(8);
+            skip(8);
             
             //Read the number of regions specified and allocate the needed memory.
-            fileInputStream.read(buffer.array(), 0, 2);
+            read(buffer.array(), 0, 2);
             gckFile.setNumRegions(buffer.getShort(0));
             logger.info("Found " + gckFile.getNumRegions() + " regions.");
             gckFile.allocateRegions();
             
             //Iterate through all the regions extracting and storing data.
+            RegionTable regions = gckFile.getRegionTable();
             for (int i = 0; i < gckFile.getNumRegions(); i++) {
                 //Read a full region record into the buffer.
-                fileInputStream.read(buffer.array(), 0, buffer.capacity());
-                gckFile.getRegion(i).setStart(buffer.getInt(0) + 1);
-                gckFile.getRegion(i).setEnd(buffer.getInt(4));
-                gckFile.getRegion(i).setFontType(buffer.get(12));
-                gckFile.getRegion(i).setColourRed(buffer.get(16));
-                gckFile.getRegion(i).setColourGreen(buffer.get(18));
-                gckFile.getRegion(i).setColourBlue(buffer.get(20));
+                read(buffer.array(), 0, buffer.capacity());
+                regions.setStart(i, buffer.getInt(0) + 1);
+                regions.setEnd(i, buffer.getInt(4));
+                regions.setFontType(i, buffer.get(12));
+                regions.setColourRed(i, buffer.get(16));
+                regions.setColourGreen(i, buffer.get(18));
+                regions.setColourBlue(i, buffer.get(20));
 
                 //If a region is black we do not display it. We assume that black is the base colour
                 //thus all of these are just the normal un-annotated sequence regions.
-                if (((int)gckFile.getRegion(i).getColourRed() & 0xff) > 0 || ((int)gckFile.getRegion(i).getColourGreen() & 0xff) > 0 || ((int)gckFile.getRegion(i).getColourBlue() & 0xff) > 0) {
-                    gckFile.getRegion(i).setToDisplay(true);
+                if (regions.getColour(i) != 0) {
+                    regions.setToDisplay(i, true);
                 }
-                logger.info("Region " + i + " = " + gckFile.getRegion(i).getStart()+ "-" + gckFile.getRegion(i).getEnd());
+                logger.info("Region " + i + " = " + regions.getStart(i) + "-" + regions.getEnd(i));
             }           
         } catch (IOException ex) {
             logger.severe("Failed reading sequence regions.");
@@ -134,14 +217,14 @@ public class GCKFileAnalyzer {
         logger.info("Reading feature definitions.");
         try {
             //Set read position to the end of the regions, where the feature definitions start.
-            fileInputStream.getChannel().position(GCKFile.HEADER_LENGTH + gckFile.getSequenceLength() + gckFile.getLengthRegions() + 4);
+            seek(GCKFile.HEADER_LENGTH + gckFile.getSequenceLength() + gckFile.getLengthRegions() + 4);
 
             //Skip the offset and the sequence length entry.
-            fileInputStream.skip(8);
+            skip(8);
             
             //Read the number of features specified.
             buffer = ByteBuffer.allocate(2);
-            fileInputStream.read(buffer.array(), 0, 2);
+            read(buffer.array(), 0, 2);
             gckFile.setNumFeatures(buffer.getShort(0));
             logger.info("Found " + gckFile.getNumFeatures() + " features.");
             //Make sure we have at least one Feature.
@@ -157,7 +240,7 @@ public class GCKFileAnalyzer {
                     
                     //Read a full feature record into the buffer. 
                     //IMPORTANT: This does not contain the name of the Feature, or any associated comments.
-                    fileInputStream.read(buffer.array(), 0, buffer.capacity());
+                    read(buffer.array(), 0, buffer.capacity());
 
                     gckFile.getFeature(i).setStart(buffer.getInt(0) + 1);
                     gckFile.getFeature(i).setEnd(buffer.getInt(4));
@@ -195,103 +278,122 @@ public class GCKFileAnalyzer {
     
     /**
      * Read and connect the stored names with the features.
-     * 
+     *
+     * The section is walked once, through the read window. The names and the comments kept in memory are only
+     * copied into the text of the feature table, and decoded when a consumer asks for them. The walk ends at the
+     * start of the sites, which is kept for findCircularity.
+     *
      * Should be called after the features have been read from the file.
      */
     private void readFeatureNamesAndComments() {
         logger.info("Reading feature names and comments.");
-        buffer = ByteBuffer.allocate(0xffff);
+        long position = GCKFile.HEADER_LENGTH + gckFile.getSequenceLength() + gckFile.getLengthRegions() + gckFile.getLengthFeatures() + 8;
+        sitesOffset = -1;
         try {
-            //Set the reading position to the end of the feature definitions.
-            fileInputStream.getChannel().position(GCKFile.HEADER_LENGTH + gckFile.getSequenceLength() + gckFile.getLengthRegions() + gckFile.getLengthFeatures() + 8);
-            
-            //Iterate through the Features adding the names.
+            FeatureTable features = gckFile.getFeatureTable();
+            byte[] text = new byte[INITIAL_TEXT_CAPACITY];
+            int textLength = 0;
             for (int i = 0; i < gckFile.getNumFeatures(); i++) {
-                if(gckFile.getFeature(i).hasName()) {
+                if (gckFile.getFeature(i).hasName()) {
                     //Names are short and their length is stored in a byte variable. It is unsigned.
-                    fileInputStream.read(buffer.array(), 0, 1);
-                    int nameLength = ((int)buffer.get(0) & 0xff);
-                    fileInputStream.read(buffer.array(), 1, nameLength);
-                        
-                    //Need to convert all the bytes to chars so that we can
-                    //make a String, as GCK files use 1 byte chars.
-                    char[] c = new char[nameLength];
-                    for (int j = 0; j < c.length; j++) {
-                        c[j] = (char)(buffer.get(j+1));
-                    }
-                    gckFile.getFeature(i).setName(String.valueOf(c));
-                    logger.info(gckFile.getFeature(i).getName() + " = name of " + i + ". feature");
+                    int nameLength = windowByte(position) & 0xff;
+                    ensureWindow(position + 1, nameLength);
+                    text = ensureCapacity(text, textLength + nameLength);
+                    System.arraycopy(window, (int) (position + 1 - windowStart), text, textLength, nameLength);
+                    features.setText(text);
+                    features.setNameBytes(i, textLength, nameLength);
+                    textLength += nameLength;
+                    position += 1 + nameLength;
                 } else {
                     gckFile.getFeature(i).setName("NONE");
                 }
-                if(gckFile.getFeature(i).hasComment()) {
-                    fileInputStream.read(buffer.array(), 0, 4);
-                    int commentLength = buffer.getInt(0);
-                    logger.info("Needed buffer length: " + commentLength);
-                    fileInputStream.read(buffer.array(), 4, commentLength);
-                    char[] c = new char[buffer.getInt(0)];
-                    for (int j = 0; j < c.length; j++) {
-                        c[j] = (char)(buffer.get(j+4));
+                if (gckFile.getFeature(i).hasComment()) {
+                    int commentLength = windowInt(position);
+                    position += 4;
+                    if (ownsInput && (commentLength > lazyCommentThreshold || commentLength > MAX_COMMENT_IN_MEMORY)) {
+                        //Long comments stay in the file, the writer streams them from there.
+                        gckFile.getFeatureTable().setCommentReference(i, new TextReference(gckFile.getFile(), position, commentLength));
+                    } else {
+                        ensureWindow(position, commentLength);
+                        text = ensureCapacity(text, textLength + commentLength);
+                        System.arraycopy(window, (int) (position - windowStart), text, textLength, commentLength);
+                        features.setText(text);
+                        features.setCommentBytes(i, textLength, commentLength);
+                        textLength += commentLength;
                     }
-                    gckFile.getFeature(i).setComment(String.valueOf(c));
+                    position += commentLength;
                 }
             }
+            sitesOffset = position;
         } catch (IOException ex) {
             logger.severe("Failed reading feature names and comments");
         }
     }
 
     /**
-     * Finds the length of a section containing names and comments.
-     * In a normal GCK file there are two such sections. One for the Features and one for the Sites.
-     *
-     * @param startPosition Position in the file where the section starts.
-     * @param sites A list of sites for which the names and comments are stored. Needed as not all Features/Sites have names and/or comments.
+     * Makes sure the read window holds the given bytes of the input, refilling it from the first of them if not.
      *
-     * @return The length of the section in number of bytes.
+     * @param position The position of the first byte in the input.
+     * @param count The number of bytes needed.
+     * @throws IOException Thrown if the input cannot be read or ends before the bytes.
      */
-    private int getNameAndCommentsLength(long startPosition, Site[] sites) {
-        ByteBuffer localBuffer = ByteBuffer.allocate(4);
-        int sectionLength = 0;
-        try {
-            fileInputStream.getChannel().position(startPosition);
-            for (Site site : sites) {
-                if (site.hasName()) {
-                    sectionLength += 1; //We have a name and its length is stored in a single byte.
-                    fileInputStream.read(localBuffer.array(), 0, 1);
-                    sectionLength += ((int) localBuffer.get(0) & 0xff); //This is the length of the name itself.
-                    fileInputStream.skip(((int) localBuffer.get(0) & 0xff)); //We skip both the length definition and the name itself.
-                }
-                if (site.hasComment()) {
-                    sectionLength += 4; //The length of the comment size definition.
-                    fileInputStream.read(localBuffer.array(), 0, 4); //We read the length (automatically skips ahead).
-                    sectionLength += localBuffer.getInt(0);
-                    fileInputStream.skip(localBuffer.getInt(0)); //We skip the comment length.
-                }
-            }
-            fileInputStream.getChannel().position(startPosition); //Put the reader back to where we were. TODO: these should also be local.
-        } catch (IOException e) {
-            logger.severe("Failed name and comment length calculation.");
-            return -1;
+    private void ensureWindow(long position, int count) throws IOException {
+        if (position < 0 || count < 0) {
+            throw new IOException("Invalid record at " + position + " in " + gckFile.getFile().getName());
+        }
+        if (position >= windowStart && position + count <= windowStart + windowLength) {
+            return;
+        }
+        if (window == null || window.length < count) {
+            window = new byte[Math.max(WINDOW_SIZE, count)];
+        }
+        seek(position);
+        windowStart = position;
+        windowLength = Math.max(0, read(window, 0, window.length));
+        if (windowLength < count) {
+            throw new IOException(gckFile.getFile().getName() + " ends at " + (position + windowLength) + ", inside a record.");
+        }
+    }
+
+    private byte windowByte(long position) throws IOException {
+        ensureWindow(position, 1);
+        return window[(int) (position - windowStart)];
+    }
+
+    private int windowInt(long position) throws IOException {
+        ensureWindow(position, 4);
+        int at = (int) (position - windowStart);
+        return ((window[at] & 0xff) << 24) | ((window[at + 1] & 0xff) << 16) | ((window[at + 2] & 0xff) << 8) | (window[at + 3] & 0xff);
+    }
+
+    private static byte[] ensureCapacity(byte[] bytes, int capacity) {
+        if (capacity <= bytes.length) {
+            return bytes;
         }
-        return sectionLength;
+        byte[] grown = new byte[Math.max(capacity, 2 * bytes.length)];
+        System.arraycopy(bytes, 0, grown, 0, bytes.length);
+        return grown;
     }
     
     /**
-     * Reads and stores the DNA sequence stored in the gck file.
+     * Reads and stores the DNA sequence stored in the gck file, together with its composition.
+     * Characters that are not IUPAC codes are kept, but reported.
      */
     private void readSequence() {
         buffer = ByteBuffer.allocate(gckFile.getSequenceLength());
         logger.info("Sequence reading started.");
         if (buffer.capacity() > 0) {
             try {
-                fileInputStream.getChannel().position(GCKFile.HEADER_LENGTH);
-                fileInputStream.read(buffer.array(), 0, gckFile.getSequenceLength());
-                char[] c = new char[gckFile.getSequenceLength()];
-                for (int i = 0; i < gckFile.getSequenceLength(); i++) {
-                    c[i] = (char)(buffer.get());
+                seek(GCKFile.HEADER_LENGTH);
+                read(buffer.array(), 0, gckFile.getSequenceLength());
+                SequenceDecoder decoder = new SequenceDecoder(lowerCaseSequence);
+                gckFile.setSequence(decoder.decode(buffer.array(), gckFile.getSequenceLength()));
+                SequenceStatistics statistics = decoder.getStatistics();
+                gckFile.setSequenceStatistics(statistics);
+                if (!statistics.isValid()) {
+                    logger.warning(gckFile.getFile().getName() + ": " + statistics.getInvalid()
+                            + " characters of the sequence are not IUPAC codes, the first at " + (statistics.getFirstInvalid() + 1) + ".");
                 }
-                gckFile.setSequence(String.valueOf(c));
 //                logger.info(sequence.getSequence());
             } catch (IOException ex) {
                 logger.severe("Failed reading sequence.");
@@ -309,95 +411,115 @@ public class GCKFileAnalyzer {
     	//gckFile.getHeader().getHEADER_SIZE()+gckFile.getSequence().getLength()+gckFile.getLengthRegions()+gckFile.getLengthFeatures()
     	//gckFile.
         try {
-            fileInputStream.getChannel().position(GCKFile.HEADER_LENGTH + gckFile.getSequenceLength() + gckFile.getLengthRegions() + gckFile.getLengthFeatures() + 8);
-            logger.info("Start position for Circularity = " + fileInputStream.getChannel().position());
-            int offset = getNameAndCommentsLength(fileInputStream.getChannel().position(), gckFile.getFeatures());
-            logger.info("Offset = " + offset);
-            fileInputStream.skip(offset);
-            logger.info("Current position = " + fileInputStream.getChannel().position());
-            buffer = ByteBuffer.allocate(88);
-            fileInputStream.read(buffer.array(), 0, 10); //Reads the length of definitions (total), the sequence length and the number of sites.
-            logger.info("Site length = " + buffer.getInt(0) + " Current position = " + fileInputStream.getChannel().position());
-            int sitesLength = buffer.getInt(0) - 6; //6 bytes contain the sequence length and the number of features (int.size + short.size)
-            gckFile.setNumSites(buffer.getShort(8));
+            if (sitesOffset < 0) {
+                throw new IOException("The end of the feature names is not known.");
+            }
+            long position = sitesOffset;
+            logger.info("Current position = " + position);
+            ensureWindow(position, 10); //The length of definitions (total), the sequence length and the number of sites.
+            int sitesLength = windowInt(position) - 6; //6 bytes contain the sequence length and the number of features (int.size + short.size)
+            gckFile.setNumSites((short) ((windowByte(position + 8) << 8) | (windowByte(position + 9) & 0xff)));
+            position += 10;
             logger.info("Number of sites = " + gckFile.getNumSites());
-            allocateSites(gckFile.getNumSites());
+            //Only the flags telling which sites have a name or a comment are needed, to walk past their texts.
+            byte[] siteTexts = new byte[Math.max(0, gckFile.getNumSites())];
             if (gckFile.getNumSites() > 0) {
                 int definitionsLength = sitesLength / gckFile.getNumSites(); //this should be 88, but just to make sure we calculate it
-                for (Site site: gckSites) {
-                    fileInputStream.read(buffer.array(), 0, definitionsLength);
-                    if (buffer.getInt(32) > 0) {
-                        site.hasName(true);
-                    } else {
-                        site.hasName(false);
+                for (int i = 0; i < siteTexts.length; i++) {
+                    if (windowInt(position + 32) > 0) {
+                        siteTexts[i] |= SITE_NAME;
                     }
-                    if (buffer.getInt(36) > 0) {
-                        site.hasComment(true);
-                    } else {
-                        site.hasComment(false);
+                    if (windowInt(position + 36) > 0) {
+                        siteTexts[i] |= SITE_COMMENT;
                     }
+                    position += definitionsLength;
+                }
+            }
+            for (byte siteText : siteTexts) { //We should be at the beginning of the names, so we just need to skip them.
+                if ((siteText & SITE_NAME) != 0) {
+                    position += 1 + (windowByte(position) & 0xff);
+                }
+                if ((siteText & SITE_COMMENT) != 0) {
+                    position += 4 + windowInt(position);
                 }
             }
-            fileInputStream.skip(getNameAndCommentsLength(fileInputStream.getChannel().position(), gckSites)); //We should be at the beginning of the names, so we just need to skip that.
-            fileInputStream.read(buffer.array(), 0, 4);
-            fileInputStream.skip(buffer.getInt(0)); //Not sure what this section is, but it is between the sites and the generations.
-            fileInputStream.read(buffer.array(), 0, 2);
+            seek(position);
+            buffer = ByteBuffer.allocate(88);
+            read(buffer.array(), 0, 4);
+            skip(buffer.getInt(0)); //Not sure what this section is, but it is between the sites and the generations.
+            read(buffer.array(), 0, 2);
             short numGenerations = buffer.getShort(0);
-            fileInputStream.skip(GCKFile.GENERATION_DEF_LENGTH * numGenerations); //Each generation information is stored on 260 bytes.
+            skip(GCKFile.GENERATION_DEF_LENGTH * numGenerations); //Each generation information is stored on 260 bytes.
             if (gckFile.getFileType() == GCKFile.FileType.GCS && numGenerations > 0) { //TODO: check if this is really something that can only happen with GCS files and not GCC files.
-                fileInputStream.read(buffer.array(), 0, 4);
+                read(buffer.array(), 0, 4);
                 int tempLength = buffer.getInt(0);
-                fileInputStream.skip(tempLength);
+                skip(tempLength);
                 if (tempLength == 0) {
-                    fileInputStream.getChannel().position(fileInputStream.getChannel().position() - 4);
-                }
-            }
-            fileInputStream.skip(GCKFile.CONSTRUCT_NAME_OFFSET); //Not sure what is stored here, but this puts us just before the construct name.
-            fileInputStream.read(buffer.array(), 0, 1); //The length of the construct name.
-            int constructNameLength = ((int) buffer.get(0) & 0xff);
-            logger.info("ConstructNameLength = " + constructNameLength);
-            try {
-                fileInputStream.read(buffer.array(), 0, constructNameLength);
-            } catch (IndexOutOfBoundsException e) {
-                throw e;
-            }
-
-            if (GCKFile.USE_FILENAME_FOR_CONSTRUCT) {
-                String fileName = gckFile.getFile().getName();
-                int dotPosition = fileName.lastIndexOf('.');
-                gckFile.setConstructName(fileName.substring(0, (dotPosition > 0) ? dotPosition : fileName.length()));
-            } else {
-                //Convert char sequence to string, through character array.
-                char[] c = new char[constructNameLength];
-                for (int i = 0; i < constructNameLength; i++) {
-                    c[i] = (char) (buffer.get());
+                    skip(-4);
                 }
-                gckFile.setConstructName(String.valueOf(c)); //Set the name of the construct.
             }
-
-            fileInputStream.skip(16); //Not sure what is stored here, but this is the offset between the name and the flags (probably flags).
-            fileInputStream.read(buffer.array(), 0, 1); //This is the byte we want, the one that stores whether the construct is linear or circular. 0 if linear, 1 if circular.
-            if (buffer.get(0) == 0x00) {
-                gckFile.setCircular(false);
-            } else if (buffer.get(0) == 0x01) {
-                gckFile.setCircular(true);
-            }
-            logger.info("File is circular: " + gckFile.isCircular());
+            skip(GCKFile.CONSTRUCT_NAME_OFFSET); //Not sure what is stored here, but this puts us just before the construct name.
+            readConstructNameAndCircularity();
         } catch (IOException e) {
             logger.severe("Cannot determine if circular.");
         }
     }
 
-    private void allocateSites(int size) {
-        gckSites = new Site[size];
-        for (int i = 0; i < gckSites.length; i++) {
-            gckSites[i] = new Site(true, false);
+    /**
+     * Reads the name of the construct and the byte marking circularity.
+     * The read position must be at the length byte of the construct name.
+     */
+    private void readConstructNameAndCircularity() throws IOException, IndexOutOfBoundsException {
+        read(buffer.array(), 0, 1); //The length of the construct name.
+        int constructNameLength = ((int) buffer.get(0) & 0xff);
+        logger.info("ConstructNameLength = " + constructNameLength);
+        try {
+            read(buffer.array(), 0, constructNameLength);
+        } catch (IndexOutOfBoundsException e) {
+            throw e;
+        }
+
+        if (GCKFile.USE_FILENAME_FOR_CONSTRUCT) {
+            String fileName = gckFile.getFile().getName();
+            int dotPosition = fileName.lastIndexOf('.');
+            gckFile.setConstructName(fileName.substring(0, (dotPosition > 0) ? dotPosition : fileName.length()));
+        } else {
+            //Convert char sequence to string, through character array.
+            char[] c = new char[constructNameLength];
+            for (int i = 0; i < constructNameLength; i++) {
+                c[i] = (char) (buffer.get() & 0xff);
+            }
+            gckFile.setConstructName(String.valueOf(c)); //Set the name of the construct.
+        }
+
+        skip(16); //Not sure what is stored here, but this is the offset between the name and the flags (probably flags).
+        read(buffer.array(), 0, 1); //This is the byte we want, the one that stores whether the construct is linear or circular. 0 if linear, 1 if circular.
+        if (buffer.get(0) == 0x00) {
+            gckFile.setCircular(false);
+        } else if (buffer.get(0) == 0x01) {
+            gckFile.setCircular(true);
         }
+        logger.info("File is circular: " + gckFile.isCircular());
     }
-    
-    private FileInputStream fileInputStream; //This is global, but it can cause problems. Might not be the best, or at least needs a local one.
+
+    private final SeekableByteChannel input; //the GCK file, or the channel the data is read from
+    private final long base; //position of the start of the GCK data in the input
+    private final boolean ownsInput; //true if the input is the file of the GCKFile, opened and closed here
     private GCKFile gckFile;
     private final static Logger logger = Logger.getLogger("GCK_Converter_logger");
     private ByteBuffer buffer; //Do we need a global one at all?
-    private Site[] gckSites;
+    private int lazyCommentThreshold = LAZY_COMMENT_THRESHOLD;
+    private boolean lowerCaseSequence = false;
+    private long sitesOffset = -1; //where the sites start, found by walking the feature names and comments
+    private byte[] window; //bytes of the input read ahead while walking the names, comments and sites
+    private long windowStart;
+    private int windowLength;
+
+    /***** CONSTANTS *****/
+    private final static int LAZY_COMMENT_THRESHOLD = 16 * 1024;
+    private final static int MAX_COMMENT_IN_MEMORY = 0xffff - 4; //longer comments from a file are always referenced
+    private final static int WINDOW_SIZE = 64 * 1024;
+    private final static int INITIAL_TEXT_CAPACITY = 1024;
+    private final static byte SITE_NAME = 0x01;
+    private final static byte SITE_COMMENT = 0x02;
 }
@@ -6,7 +6,6 @@ import java.lang.reflect.InvocationTargetException;
 import java.util.logging.Logger;
 import java.util.logging.Handler;
 import java.util.logging.FileHandler;
-import gckfilestructure.GCKFile;
 import gckfilestructure.Region;
 
 import javax.swing.JFrame;
@@ -22,6 +21,7 @@ import java.awt.GridBagLayout;
 import java.awt.GridBagConstraints;
 import java.awt.Color;
 import java.awt.Insets;
+import java.awt.Dimension;
 import java.awt.event.ActionEvent;
 import java.awt.event.ItemEvent;
 import java.awt.event.ActionListener;
@@ -29,11 +29,23 @@ import java.awt.event.ItemListener;
 import java.util.logging.Level;
 import javax.swing.BorderFactory;
 import java.util.LinkedList;
-import java.util.Scanner;
+import java.util.ArrayList;
+import java.util.List;
+import java.nio.file.Path;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicReference;
 import javax.swing.JLabel;
+import javax.swing.JProgressBar;
+import javax.swing.JTable;
+import javax.swing.Timer;
 
 
 /**
+ * The GUI of the converter.
+ *
+ * The selected files are listed in a table with their progress. The worker threads of a batch never touch the
+ * components: they queue their results and messages, and a timer on the event dispatch thread shows everything
+ * queued a few times a second, so the GUI stays responsive however many files are converted.
  *
  * @author Matyas Medzihradszky
  * @version 0.1
@@ -53,18 +65,41 @@ public class GCK_convert extends JPanel implements ActionListener, ItemListener
         includeApEData = false;
         includeUnnamed = false;
         includePrimers = false;
+        includeEnzymes = false;
+        detectDuplicates = false;
+        verifyOutput = false;
         withoutErrors = true;
         parseLevel = RegionParser.ParseLevel.MEDIUM;
 
         logger.setLevel(Level.INFO);
         
         
-        //General display for files and information.
-        disp = new JTextArea(10, 40);
+        //General display for information.
+        disp = new JTextArea(5, 40);
         disp.setMargin(new Insets(5,5,5,5));
         disp.setEditable(false);
         JScrollPane dispScrollPane = new JScrollPane(disp);
 
+        //Table of the selected files and their progress.
+        progressModel = new ProgressTableModel();
+        JTable progressTable = new JTable(progressModel);
+        progressTable.setFillsViewportHeight(true);
+        progressTable.getColumnModel().getColumn(0).setPreferredWidth(250);
+        JScrollPane tableScrollPane = new JScrollPane(progressTable);
+        tableScrollPane.setPreferredSize(new Dimension(450, 200));
+        progressBar = new JProgressBar();
+        progressBar.setStringPainted(true);
+        progressBar.setString("");
+        pendingMessages = new ConcurrentLinkedQueue<String>();
+        latestProgress = new AtomicReference<CompletionEstimator>();
+        refreshTimer = new Timer(REFRESH_INTERVAL_MS, new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                refresh();
+            }
+        });
+        refreshTimer.start();
+
         //Displayes the selected destination directory
         dirDisp = new JTextArea(1, 40);
         dirDisp.setEditable(false);
@@ -111,6 +146,21 @@ public class GCK_convert extends JPanel implements ActionListener, ItemListener
         primers.setSelected(false);
         primers.addItemListener(this);
         primers.setToolTipText("Include primer binding sites in the final file.");
+
+        enzymes = new JCheckBox("Include restriction sites");
+        enzymes.setSelected(false);
+        enzymes.addItemListener(this);
+        duplicates = new JCheckBox("Convert duplicates once");
+        duplicates.setSelected(false);
+        duplicates.addItemListener(this);
+        duplicates.setToolTipText("Find files holding the same construct, even if saved from a different origin or strand. Only the first copy is converted, the others are linked to it.");
+
+        verify = new JCheckBox("Verify output");
+        verify.setSelected(false);
+        verify.addItemListener(this);
+        verify.setToolTipText("Read back every GeneBank file after the conversion and check it against the GCK file.");
+
+        enzymes.setToolTipText("Search the sequence for the restriction enzymes listed in DefaultEnzymes.txt and include their sites in the final file.");
         
         
         //Add components
@@ -120,13 +170,21 @@ public class GCK_convert extends JPanel implements ActionListener, ItemListener
         c.gridy = 0;
         c.insets = new Insets(3,3,3,3);
         add(fileSelect, c);
+        c.gridx = 1;
+        c.anchor = GridBagConstraints.WEST;
+        add(enzymes, c);
         c.gridx = 2;
+        c.anchor = GridBagConstraints.CENTER;
         add(unnamed, c);
         c.gridx = 2;
         c.gridy = 1;
         c.anchor = GridBagConstraints.WEST;
         add(ape, c);
         c.gridx = 0;
+        add(verify, c);
+        c.gridx = 1;
+        add(duplicates, c);
+        c.gridx = 0;
         c.gridy = 2;
         c.anchor = GridBagConstraints.CENTER;
         add(dirSelect, c);
@@ -154,17 +212,25 @@ public class GCK_convert extends JPanel implements ActionListener, ItemListener
         c.anchor = GridBagConstraints.EAST;
         add(dirDisp, c);
         
-        //Add display area
+        //Add the table and the display area
         c.gridx = 0;
         c.gridy = 4;
         c.gridwidth = GridBagConstraints.REMAINDER;
         c.anchor = GridBagConstraints.CENTER;
         c.fill = GridBagConstraints.BOTH;
+        c.weighty = 1.0;
+        add(tableScrollPane, c);
+        c.gridy = 6;
+        c.weighty = 0.0;
+        c.fill = GridBagConstraints.HORIZONTAL;
+        add(progressBar, c);
+        c.gridy = 7;
+        c.fill = GridBagConstraints.BOTH;
         add(dispScrollPane, c);
         
         //Setup, prepare, and read library of feature definitions.
-        library = new LinkedList<String[]>();
         readLibrary();
+        readEnzymes();
     }
 
     /**
@@ -182,10 +248,10 @@ public class GCK_convert extends JPanel implements ActionListener, ItemListener
             if (returnVal == JFileChooser.APPROVE_OPTION) {
                 disp.setText("");
                 fileListToProcess = selector.getSelectedFiles();
-                disp.append("Files selected:\n");
-                for (int i = 0; i < fileListToProcess.length; i++) {
-                    disp.append(fileListToProcess[i].getName() + "\n");
-                }
+                progressModel.setFiles(fileListToProcess);
+                progressBar.setValue(0);
+                progressBar.setString("");
+                disp.append(fileListToProcess.length + " files selected.\n");
                 if (!outputDirectorySet) {
                     directoryPath = fileListToProcess[0].getParent();
                     dirDisp.setText(directoryPath);
@@ -196,31 +262,36 @@ public class GCK_convert extends JPanel implements ActionListener, ItemListener
             disp.setCaretPosition(disp.getDocument().getLength());
 
         } else if (e.getSource() == convert) {
-            Thread beginProcessingThread = new Thread() {
-                public void run() {
-                    disp.append("\n\nFile conversion STARTED\n");
-                    disp.setCaretPosition(disp.getDocument().getLength());
-                }
-            };
-            beginProcessingThread.start();
-            counter = fileListToProcess.length;
-            logger.severe("Found " + counter + " files to process.");
-            for (int i = 0; i < fileListToProcess.length; i++) {
-                File outputFile = new File(directoryPath, getNameWOExt(fileListToProcess[i]) + ".gb");
-                Thread t = new Thread(new convertThread(fileListToProcess[i], outputFile));
-                t.start();
+            final File[] filesToConvert = fileListToProcess;
+            if (filesToConvert == null) {
+                return;
+            }
+            disp.append("\nFile conversion STARTED");
+            disp.setCaretPosition(disp.getDocument().getLength());
+            progressModel.reset();
+            latestProgress.set(null);
+            progressBar.setMaximum(filesToConvert.length);
+            progressBar.setValue(0);
+            logger.severe("Found " + filesToConvert.length + " files to process.");
+            final GckConverter converter = new GckConverter(library, currentOptions());
+            final List<Path> inputs = new ArrayList<Path>();
+            for (File f : filesToConvert) {
+                inputs.add(f.toPath());
             }
-            Thread testIfDoneThread = new Thread() {
+            final Path outputDirectory = new File(directoryPath).toPath();
+            //A second batch must not start into the same directory and journal, nor the options change, until done.
+            setControlsEnabled(false);
+            Thread batchThread = new Thread() {
                 public void run() {
-                    while(counter > 0) {
-                        try { sleep(200); }
-                        catch (InterruptedException e1) {}
+                    try {
+                        withoutErrors = converter.convertAll(inputs, outputDirectory, newListener());
+                        pendingMessages.add(withoutErrors ? "File conversion DONE!" : "File conversion DONE with errors!");
+                    } finally {
+                        EventQueue.invokeLater(() -> setControlsEnabled(true));
                     }
-                    disp.append("\n\nFile conversion DONE!\n");
-                    disp.setCaretPosition(disp.getDocument().getLength());
                 }
             };
-            testIfDoneThread.start();
+            batchThread.start();
         } else if (e.getSource() == dirSelect) {
             int returnVal = dirSelector.showDialog(GCK_convert.this, "Destination");
             
@@ -236,45 +307,88 @@ public class GCK_convert extends JPanel implements ActionListener, ItemListener
         }
     }
 
-    private class convertThread implements Runnable {
-        convertThread(File input, File output) {
-            super();
-            inputFile = input;
-            outputFile = output;
-        }
-        public void run() {
-            convertFile(inputFile, outputFile);
-        }
+    /**
+     * Enables or disables the buttons and the option checkboxes, which must not be used while a batch is running.
+     *
+     * @param enabled True to enable them.
+     */
+    private void setControlsEnabled(boolean enabled) {
+        fileSelect.setEnabled(enabled);
+        dirSelect.setEnabled(enabled);
+        convert.setEnabled(enabled);
+        ape.setEnabled(enabled);
+        unnamed.setEnabled(enabled);
+        primers.setEnabled(enabled);
+        enzymes.setEnabled(enabled && enzymeScanner != null);
+        duplicates.setEnabled(enabled);
+        verify.setEnabled(enabled);
+    }
 
-        File inputFile;
-        File outputFile;
+    /**
+     * @return The conversion options set in the panel.
+     */
+    private ConversionOptions currentOptions() {
+        return new ConversionOptions.Builder()
+                .setParseLevel(parseLevel)
+                .setApEData(includeApEData)
+                .setIncludeUnnamed(includeUnnamed)
+                .setIncludePrimers(includePrimers)
+                .setRestrictionSiteScanner(includeEnzymes ? enzymeScanner : null)
+                .setDetectDuplicates(detectDuplicates)
+                .setVerify(verifyOutput)
+                .build();
     }
 
-    private synchronized void convertFile(File inputFile, File outputFile) {
-        GCKFile gckFile;
-        boolean success = true;
-        if (getExt(inputFile).equalsIgnoreCase("gcc")) {
-            gckFile = new GCKFile(inputFile, GCKFile.FileType.GCC);
-        } else {
-            gckFile = new GCKFile(inputFile, GCKFile.FileType.GCS);
-        }
-        disp.append("\nFile: " + inputFile.getName() + " is being converted ... ");
-        int currentPosition = disp.getCaretPosition();
-        try {
-            readFile(gckFile);
-            writeFile(gckFile, outputFile);
-        } catch (Exception e) {
-            success = false;
-            withoutErrors = false;
+    /**
+     * Creates a listener queueing the progress of a batch for the next refresh. Called from the worker threads.
+     */
+    private BatchConverter.Listener newListener() {
+        return new BatchConverter.Listener() {
+            @Override
+            public void fileFinished(File input, File output, boolean success) {
+                //Not called, the result is taken whole.
+            }
+
+            @Override
+            public void fileFinished(ConversionResult result) {
+                progressModel.post(result);
+            }
+
+            @Override
+            public void progress(CompletionEstimator estimator) {
+                latestProgress.set(estimator);
+            }
+
+            @Override
+            public void message(String message) {
+                pendingMessages.add(message);
+            }
+        };
+    }
+
+    /**
+     * Shows the results, messages and progress queued since the last refresh. Called by the refresh timer on the
+     * event dispatch thread.
+     */
+    private void refresh() {
+        progressModel.applyPendingUpdates();
+        if (!pendingMessages.isEmpty()) {
+            StringBuilder text = new StringBuilder();
+            String message;
+            while ((message = pendingMessages.poll()) != null) {
+                text.append('\n').append(message);
+            }
+            disp.append(text.toString());
+            disp.setCaretPosition(disp.getDocument().getLength());
         }
-        disp.setCaretPosition(currentPosition);
-        if (success) {
-            disp.append("Finished!");
-        } else {
-            disp.append("Failed!");
+        CompletionEstimator estimator = latestProgress.get();
+        if (estimator != null) {
+            int done = progressModel.getNumFinished();
+            progressBar.setValue(done);
+            long remaining = estimator.getRemainingMillis();
+            progressBar.setString(done + "/" + estimator.getFilesTotal() + (remaining >= 0 && done < estimator.getFilesTotal()
+                    ? ", about " + (remaining + 999) / 1000 + " s left" : ""));
         }
-        disp.setCaretPosition(disp.getDocument().getLength());
-        counter = counter - 1;
     }
 
     /**
@@ -302,6 +416,24 @@ public class GCK_convert extends JPanel implements ActionListener, ItemListener
             } else if (e.getStateChange() == ItemEvent.SELECTED) {
                 includePrimers = true;
             }
+        } else if (e.getSource() == enzymes ) {
+            if (e.getStateChange() == ItemEvent.DESELECTED) {
+                includeEnzymes = false;
+            } else if (e.getStateChange() == ItemEvent.SELECTED) {
+                includeEnzymes = true;
+            }
+        } else if (e.getSource() == verify ) {
+            if (e.getStateChange() == ItemEvent.DESELECTED) {
+                verifyOutput = false;
+            } else if (e.getStateChange() == ItemEvent.SELECTED) {
+                verifyOutput = true;
+            }
+        } else if (e.getSource() == duplicates ) {
+            if (e.getStateChange() == ItemEvent.DESELECTED) {
+                detectDuplicates = false;
+            } else if (e.getStateChange() == ItemEvent.SELECTED) {
+                detectDuplicates = true;
+            }
         }
     }
 
@@ -320,7 +452,7 @@ public class GCK_convert extends JPanel implements ActionListener, ItemListener
                 return true;
             }
             
-            String ext = getExt(f);
+            String ext = BatchConverter.getExt(f);
             if (ext == null) {
                 return false;
             } else if (ext.equalsIgnoreCase("gcc") || ext.equalsIgnoreCase("gcs")) {
@@ -331,7 +463,15 @@ public class GCK_convert extends JPanel implements ActionListener, ItemListener
         }
     }
     
+    /**
+     * Starts the GUI, or converts the files given on the command line without it if there are any arguments.
+     *
+     * @param args Command line arguments, see CommandLine.
+     */
     public static void main(String[] args) {
+        if (args.length > 0) {
+            System.exit(CommandLine.run(args));
+        }
         EventQueue.invokeLater(new Runnable()
         {
             @Override
@@ -356,166 +496,43 @@ public class GCK_convert extends JPanel implements ActionListener, ItemListener
     }
 
     /**
-     * Reads the current GCK file into a GCKFile object.
-     */
-    private void readFile(GCKFile gckFile) throws Exception {
-        try {
-            GCKFileAnalyzer fileAnalyzer = new GCKFileAnalyzer(gckFile);
-            fileAnalyzer.readGCKFile();
-        } catch (IOException ex) {
-            disp.append("ERROR: Failed to open " + gckFile.getFile().getName() + " for reading.\n");
-            logger.severe("Failed to open file for reading");
-            throw ex;
-        } catch (Exception ex) {  //TODO: Check what kinds of exceptions it can throw.
-            throw ex;
-        }
-    }
-
-    /**
-     * Writes the current GCK File into a GeneBank file with the current settings.
-     */
-    private void writeFile(GCKFile gckFile, File outputFile) throws Exception {
-        try {
-            GbFileWriter gbFileWriter = new GbFileWriter();
-            gbFileWriter.setApEData(includeApEData);
-            gbFileWriter.writeGbFile(gckFile, outputFile, parseLevel, library, includeApEData, includeUnnamed, includePrimers);
-        } catch (FileNotFoundException ex) {
-            disp.append("ERROR: Failed to open " + outputFile.getName() + " for writing.\n");
-            logger.severe("Failed to open file for writing.");
-            throw ex;
-        } catch (Exception ex) { //TODO: Check what kinds of exceptions it can throw.
-            throw ex;
-        }
-    }
-
-    /**
-     * Finds the extension of a file and returns it.
-     * Basically returns everything after the last dot in the file name.
-     *
-     * @param f File to examine.
-     * @return Extension
-     */
-    private String getExt(File f) {
-        String ext = "";
-        String fileName = f.getName();
-        int i = fileName.lastIndexOf('.');
-
-        if (i > 0 &&  i < fileName.length() - 1) {
-            ext = fileName.substring(i+1);
-        }
-        return ext;
-    }
-
-    /**
-     * Finds the name of a file without the extension.
-     * Basically removes the extension of the file, returning the rest of the file name. Without the dot.
-     *
-     * @param f File to examine.
-     * @return Name without the extension
-     */
-    private String getNameWOExt(File f) {
-        String name;
-        String fullName = f.getName();
-        int i = fullName.lastIndexOf('.');
-        
-        if (i > 0 && i < fullName.length() - 1) {
-            name = fullName.substring(0, i);
-            return name;
-        }
-        
-        return fullName;
-    }
-
-    /**
-     * Reads the library file, reporting if it has not been found. Calls the library parser to store the information
-     * in the file internally in the library variable.
+     * Reads the library file, reporting if it has not been found. A compiled library saved next to it is used
+     * instead if it is up to date, see FeatureLibrary.
      */
     private void readLibrary() {
-        try {
-            libraryFile = new File("DefaultLibrary.lb");
-            if (libraryFile.exists()) {
-                logger.info("Library found.");
-                Scanner libraryReader = new Scanner(libraryFile);
-                parseLibrary(libraryReader);
-            } else {
-                disp.append("No library file found.\n");
-                logger.severe("No library found.");
-                libraryFile = null;
+        library = FeatureLibrary.fromEntries(new LinkedList<String[]>());
+        libraryFile = new File("DefaultLibrary.lb");
+        if (libraryFile.exists()) {
+            logger.info("Library found.");
+            try {
+                library = FeatureLibrary.load(libraryFile);
+            } catch (IOException ex) {
+                disp.append("The library file cannot be read.\n");
+                logger.severe("Failed to read the library: " + ex.getMessage());
             }
-        } catch (Exception ex) {
-            
+        } else {
+            disp.append("No library file found.\n");
+            logger.severe("No library found.");
+            libraryFile = null;
         }
     }
 
     /**
-     * Parses the library file reading out the values and storing them in the internal library variable.
-     *
-     * @param reader A scanner attached to the library file to read and parse.
+     * Reads the list of restriction enzymes to search for, if there is one.
      */
-    private void parseLibrary(Scanner reader) {
-        String actualValue = null;
-        String line;
-        while (reader.hasNextLine()) {
-            line = reader.nextLine();
-            line = line.toLowerCase();
-            if (!line.startsWith("//")) {
-                //if the line contains a comment we ditch that part.
-                //Otherwise we just remove any leading or trailing spaces.
-                if (line.contains("//")) {
-                    line = line.split("//", 2)[0];
-                    line = line.trim();
-//                    logger.info("Line found: " + line);
-                } else {
-                    line = line.trim();
-//                    logger.info("Line found: " + line);
-                }
-                if (line.startsWith("group:")) {
-                    actualValue = line.split(":", 2)[1];
-                } else if (actualValue != null) {
-                    if (line.startsWith("c:")) {
-                        line = unEscape(line);
-                        line = line.split(":", 2)[1];
-                        library.add(new String[] {line, actualValue});                        
-                    } else if (line.startsWith("p:")) {
-                        line = line.split(":", 2)[1];
-                        //line = line.replace("\\" , "\\\\");
-                        library.add(new String[] {line, actualValue}); 
-                    } else {
-                        line = unEscape(line);
-                        StringBuilder sb = new StringBuilder("^");
-                        sb.append(line);
-                        sb.append("$");
-                        library.add(new String[] {sb.toString(), actualValue});    
-                    }
-                }
+    private void readEnzymes() {
+        File enzymeFile = new File("DefaultEnzymes.txt");
+        if (enzymeFile.exists()) {
+            try {
+                enzymeScanner = RestrictionSiteScanner.load(enzymeFile);
+                logger.info("Enzyme list found.");
+            } catch (FileNotFoundException ex) {
+                logger.severe("Failed to read the enzyme list.");
             }
         }
-        for (String[] sa : library) {
-            logger.info("Key: " + sa[0] + " ; " + "Value: " + sa[1]);
+        if (enzymeScanner == null) {
+            enzymes.setEnabled(false);
         }
-//        logger.info(library.toString());
-    }
-
-    /**
-     * Converts a simple string into one that can be parsed as a regular expression.
-     *
-     * @param line The string to convert.
-     * @return The supplied string converted to a regular expression matching the supplied string.
-     */
-    private String unEscape(String line) {
-        line = line.replace("[", "\\[");
-        line = line.replace("]", "\\]");
-        line = line.replace("}", "\\}");
-        line = line.replace("{", "\\{");
-        line = line.replace(")", "\\)");
-        line = line.replace("(", "\\(");
-        line = line.replace(".", "\\.");
-        line = line.replace("*", "\\*");
-        line = line.replace("+", "\\+");
-        line = line.replace("$", "\\$");
-        line = line.replace("^", "\\^");
-        line = line.replace("?", "\\?");
-        return line;
     }
 
     private File libraryFile;
@@ -526,17 +543,31 @@ public class GCK_convert extends JPanel implements ActionListener, ItemListener
     private JCheckBox ape;
     private JCheckBox unnamed;
     private JCheckBox primers;
+    private JCheckBox enzymes;
+    private JCheckBox duplicates;
+    private JCheckBox verify;
     private JFileChooser selector, dirSelector;
     private JTextArea disp, dirDisp;
+    private ProgressTableModel progressModel;
+    private JProgressBar progressBar;
+    private Timer refreshTimer; //shows what the workers queued at a fixed rate
+    private ConcurrentLinkedQueue<String> pendingMessages; //messages of the running batch not yet shown
+    private AtomicReference<CompletionEstimator> latestProgress;
     private GCKFilter filter;
     private String directoryPath;
     private boolean outputDirectorySet;
     private boolean includeApEData;
     private boolean includeUnnamed;
     private boolean includePrimers;
+    private boolean includeEnzymes;
+    private RestrictionSiteScanner enzymeScanner;
+    private boolean detectDuplicates;
+    private boolean verifyOutput;
     private RegionParser.ParseLevel parseLevel;
-    private LinkedList<String[]> library;
+    private FeatureLibrary library;
 
-    private int counter;
     private boolean withoutErrors;
+
+    /***** CONSTANTS *****/
+    private final static int REFRESH_INTERVAL_MS = 100; //the table and the progress are shown ten times a second
 }
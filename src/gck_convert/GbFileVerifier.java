@@ -0,0 +1,364 @@
+package gck_convert;
+
+import gckfilestructure.GCKFile;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Adler32;
+
+/**
+ * Checks that written GeneBank files match the GCK files they were made from.
+ *
+ * When a file is written, the few facts needed to check it are kept in a small Expectation: the sequence length,
+ * a checksum of the sequence, and the number of features. The GeneBank file is later read back in a single
+ * streaming pass using a reusable line buffer, and compared to the expectation. The GCK files do not have to be
+ * kept in memory or read again.
+ *
+ * @author Matyas Medzihradszky
+ * @version 0.1
+ */
+public class GbFileVerifier {
+
+    /**
+     * What a GeneBank file is expected to contain.
+     */
+    public static class Expectation {
+        /**
+         * Records the expected content of the GeneBank file written from a GCK file.
+         *
+         * @param gckFile The GCK file the GeneBank file was written from.
+         * @param numFeatures The number of features written to the GeneBank file.
+         */
+        public Expectation(GCKFile gckFile, int numFeatures) {
+            String sequence = gckFile.getSequence();
+            sequenceLength = Math.min(sequence.length(), gckFile.getSequenceLength());
+            Adler32 adler = new Adler32();
+            byte[] chunk = new byte[8192];
+            for (int done = 0; done < sequenceLength; ) {
+                int count = Math.min(chunk.length, sequenceLength - done);
+                for (int i = 0; i < count; i++) {
+                    //The sequence is decoded and written as ISO-8859-1, so every character is the byte in the file.
+                    chunk[i] = (byte) sequence.charAt(done + i);
+                }
+                adler.update(chunk, 0, count);
+                done += count;
+            }
+            sequenceChecksum = adler.getValue();
+            this.numFeatures = numFeatures;
+        }
+
+        private final int sequenceLength;
+        private final long sequenceChecksum;
+        private final int numFeatures;
+    }
+
+    /**
+     * Standard constructor.
+     */
+    public GbFileVerifier() {
+        super();
+        line = new byte[256];
+        readBuffer = new byte[1 << 16];
+    }
+
+    /**
+     * Verifies a number of GeneBank files in parallel.
+     *
+     * @param expectations The files to check with what they should contain.
+     * @param threads The number of threads to use.
+     * @return A description of every problem found. Empty if all the files are correct.
+     */
+    public static List<String> verifyAll(Map<File, Expectation> expectations, int threads) {
+        final List<String> problems = Collections.synchronizedList(new ArrayList<String>());
+        ExecutorService workers = Executors.newFixedThreadPool(Math.max(1, threads));
+        final ThreadLocal<GbFileVerifier> verifiers = ThreadLocal.withInitial(GbFileVerifier::new);
+        for (final Map.Entry<File, Expectation> entry : expectations.entrySet()) {
+            workers.execute(() -> problems.addAll(verifiers.get().verify(entry.getKey(), entry.getValue())));
+        }
+        workers.shutdown();
+        try {
+            while (!workers.awaitTermination(1, TimeUnit.MINUTES)) {
+                //Keep waiting, the files are still being checked.
+            }
+        } catch (InterruptedException ex) {
+            workers.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+        return problems;
+    }
+
+    /**
+     * Compares a GeneBank file byte for byte with a golden file written earlier from the same GCK file, for example
+     * by a previous version of the converter. The date at the end of the LOCUS line is not compared.
+     *
+     * @param gbFile The GeneBank file.
+     * @param goldenFile The golden file.
+     * @return A description of the first difference, or null if the files are the same.
+     */
+    public static String compareWithGolden(File gbFile, File goldenFile) {
+        byte[] actual;
+        byte[] golden;
+        try {
+            actual = Files.readAllBytes(gbFile.toPath());
+            golden = Files.readAllBytes(goldenFile.toPath());
+        } catch (IOException ex) {
+            return gbFile.getName() + ": cannot be compared with " + goldenFile.getPath() + " (" + ex.getMessage() + ")";
+        }
+        int actualStart = dateStart(actual);
+        int goldenStart = dateStart(golden);
+        int actualBody = lineEnd(actual);
+        int goldenBody = lineEnd(golden);
+        if (actualStart != goldenStart || !rangeEquals(actual, 0, golden, 0, actualStart)) {
+            return gbFile.getName() + ": the LOCUS line differs from the golden file";
+        }
+        int line = 2;
+        int i = actualBody;
+        int j = goldenBody;
+        while (i < actual.length && j < golden.length && actual[i] == golden[j]) {
+            if (actual[i] == '\n') {
+                line++;
+            }
+            i++;
+            j++;
+        }
+        if (i == actual.length && j == golden.length) {
+            return null;
+        }
+        return gbFile.getName() + ": differs from the golden file on line " + line;
+    }
+
+    /**
+     * @return The position of the last space on the first line, where the date starts.
+     */
+    private static int dateStart(byte[] bytes) {
+        int end = lineEnd(bytes);
+        for (int i = end - 1; i >= 0; i--) {
+            if (bytes[i] == ' ') {
+                return i;
+            }
+        }
+        return end;
+    }
+
+    /**
+     * @return The position after the first line break, or the length if there is none.
+     */
+    private static int lineEnd(byte[] bytes) {
+        for (int i = 0; i < bytes.length; i++) {
+            if (bytes[i] == '\n') {
+                return i + 1;
+            }
+        }
+        return bytes.length;
+    }
+
+    private static boolean rangeEquals(byte[] a, int aStart, byte[] b, int bStart, int length) {
+        for (int i = 0; i < length; i++) {
+            if (a[aStart + i] != b[bStart + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Reads back a GeneBank file and compares it to what it should contain.
+     *
+     * @param gbFile The GeneBank file.
+     * @param expectation What the file should contain.
+     * @return A description of every problem found. Empty if the file is correct.
+     */
+    public List<String> verify(File gbFile, Expectation expectation) {
+        List<String> problems = new ArrayList<String>();
+        name = gbFile.getName();
+        section = Section.HEADER;
+        locusLength = -1;
+        locusCircular = false;
+        numFeatures = 0;
+        numBases = 0;
+        ended = false;
+        adler.reset();
+        this.expectation = expectation;
+        this.problems = problems;
+        try (InputStream in = new FileInputStream(gbFile)) {
+            int lineLength = 0;
+            int read;
+            while ((read = in.read(readBuffer)) > 0) {
+                for (int i = 0; i < read; i++) {
+                    byte b = readBuffer[i];
+                    if (b == '\n') {
+                        processLine(lineLength);
+                        lineLength = 0;
+                    } else if (b != '\r') {
+                        if (lineLength == line.length) {
+                            byte[] longer = new byte[2 * line.length];
+                            System.arraycopy(line, 0, longer, 0, lineLength);
+                            line = longer;
+                        }
+                        line[lineLength++] = b;
+                    }
+                }
+            }
+            if (lineLength > 0) {
+                processLine(lineLength);
+            }
+        } catch (IOException ex) {
+            problems.add(name + ": cannot be read (" + ex.getMessage() + ")");
+            return problems;
+        }
+
+        if (locusLength != expectation.sequenceLength) {
+            problems.add(name + ": LOCUS length " + locusLength + " instead of " + expectation.sequenceLength);
+        }
+        if (numFeatures != expectation.numFeatures) {
+            problems.add(name + ": " + numFeatures + " features instead of " + expectation.numFeatures);
+        }
+        if (numBases != expectation.sequenceLength) {
+            problems.add(name + ": " + numBases + " bases instead of " + expectation.sequenceLength);
+        } else if (adler.getValue() != expectation.sequenceChecksum) {
+            problems.add(name + ": the sequence differs from the GCK file");
+        }
+        if (!ended) {
+            problems.add(name + ": the file is truncated, // is missing");
+        }
+        return problems;
+    }
+
+    /**
+     * Checks a single line of the file, stored in the line buffer.
+     */
+    private void processLine(int length) {
+        if (length >= 2 && line[0] == '/' && line[1] == '/') {
+            ended = true;
+            section = Section.END;
+        } else if (section == Section.ORIGIN) {
+            for (int i = 0; i < length; i++) {
+                byte b = line[i];
+                if (b != ' ' && (b < '0' || b > '9')) {
+                    adler.update(b);
+                    numBases++;
+                }
+            }
+        } else if (startsWith(line, length, "ORIGIN")) {
+            section = Section.ORIGIN;
+        } else if (startsWith(line, length, "FEATURES")) {
+            section = Section.FEATURES;
+        } else if (startsWith(line, length, "LOCUS")) {
+            locusLength = parseLocusLength(length);
+            locusCircular = contains(line, length, " circular");
+        } else if (section == Section.FEATURES && length > 21 && line[5] != ' ' && startsWith(line, 5, "     ")) {
+            numFeatures++;
+            checkLocation(length);
+        }
+    }
+
+    /**
+     * Finds the sequence length given just before " bp" on the LOCUS line.
+     */
+    private int parseLocusLength(int length) {
+        for (int i = 0; i + 3 <= length; i++) {
+            if (line[i] == ' ' && line[i + 1] == 'b' && line[i + 2] == 'p') {
+                int end = i;
+                int start = end;
+                while (start > 0 && line[start - 1] >= '0' && line[start - 1] <= '9') {
+                    start--;
+                }
+                return start < end ? parseNumber(start, end) : -1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Checks that the location of a feature, starting on column 22, is within the sequence. On a circular sequence
+     * a feature may run over the origin, ending before it starts.
+     */
+    private void checkLocation(int length) {
+        int i = 21;
+        while (i < length && (line[i] < '0' || line[i] > '9')) {
+            i++; //skip "(complement)" or "complement("
+        }
+        int startDigits = i;
+        while (i < length && line[i] >= '0' && line[i] <= '9') {
+            i++;
+        }
+        int start = parseNumber(startDigits, i);
+        if (i + 2 > length || line[i] != '.' || line[i + 1] != '.') {
+            problems.add(name + ": unreadable location in feature " + numFeatures);
+            return;
+        }
+        i += 2;
+        int endDigits = i;
+        while (i < length && line[i] >= '0' && line[i] <= '9') {
+            i++;
+        }
+        int end = parseNumber(endDigits, i);
+        if (start < 1 || start > expectation.sequenceLength || end < 1 || end > expectation.sequenceLength
+                || (start > end && !locusCircular)) {
+            problems.add(name + ": feature " + numFeatures + " at " + start + ".." + end + " is outside the sequence");
+        }
+    }
+
+    private int parseNumber(int start, int end) {
+        if (start >= end) {
+            return -1;
+        }
+        long value = 0;
+        for (int i = start; i < end && value <= Integer.MAX_VALUE; i++) {
+            value = 10 * value + (line[i] - '0');
+        }
+        return (int) Math.min(value, Integer.MAX_VALUE);
+    }
+
+    private static boolean startsWith(byte[] bytes, int length, String prefix) {
+        if (length < prefix.length()) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length(); i++) {
+            if (bytes[i] != prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean contains(byte[] bytes, int length, String text) {
+        for (int i = 0; i + text.length() <= length; i++) {
+            int j = 0;
+            while (j < text.length() && bytes[i + j] == text.charAt(j)) {
+                j++;
+            }
+            if (j == text.length()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private enum Section {
+        HEADER, FEATURES, ORIGIN, END
+    }
+
+    private byte[] line; //the current line, reused for every line
+    private final byte[] readBuffer;
+    private final Adler32 adler = new Adler32();
+    private String name;
+    private Section section;
+    private int locusLength;
+    private boolean locusCircular; //whether the LOCUS line says the sequence is circular
+    private int numFeatures;
+    private int numBases;
+    private boolean ended;
+    private Expectation expectation;
+    private List<String> problems;
+}
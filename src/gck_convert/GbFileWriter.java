@@ -4,12 +4,24 @@ import java.io.PrintWriter;
 import java.io.FileNotFoundException;
 import gckfilestructure.GCKFile;
 import gckfilestructure.Feature;
-import gckfilestructure.Region;
+import gckfilestructure.SequenceStatistics;
+import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
 import java.util.Calendar;
 import java.util.List;
 import java.util.Locale;
 import java.util.LinkedList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
  *
@@ -38,16 +50,67 @@ public class GbFileWriter {
      * @throws FileNotFoundException Thrown if the output file is not found.
      */
     public void writeGbFile(GCKFile gckFile, File outputFile, RegionParser.ParseLevel parseLevel, LinkedList<String[]> library, boolean includeApEData, boolean includeUnnamed, boolean includePrimers) throws FileNotFoundException {
-        //setup variables
+        this.includeApEData = includeApEData;
+        writeGbFile(gckFile, outputFile, buildFeatureList(gckFile, parseLevel, FeatureLibrary.fromEntries(library), includeUnnamed, includePrimers));
+    }
+
+    /**
+     * Builds the sorted list of features to write for a GCK file, including the restriction sites if a scanner is set.
+     *
+     * @param gckFile A GCK File object including the needed information on Regions and Features.
+     * @param parseLevel How rigorously the number of included regions should be pruned.
+     * @param library A list of names used to find out the Feature types.
+     * @param includeUnnamed Whether unnamed coloured regions in the original GCK file should be included.
+     * @param includePrimers Whether primers should be included.
+     * @return The features to write.
+     */
+    public List<Feature> buildFeatureList(GCKFile gckFile, RegionParser.ParseLevel parseLevel, FeatureLibrary library, boolean includeUnnamed, boolean includePrimers) {
+        RegionParser parser = new RegionParser();
+        List<Feature> featureList = parser.buildFeatureList(gckFile, parseLevel, library, includeUnnamed, includePrimers);
+        if (restrictionSiteScanner != null) {
+            featureList.addAll(restrictionSiteScanner.scan(gckFile));
+            featureList = RegionParser.sortFeatures(featureList);
+        }
+        return featureList;
+    }
+
+    /**
+     * Writes the full gene bank file with an already built list of features. Whether ApE data is included is taken
+     * from setApEData.
+     *
+     * @param gckFile A GCK File object including the needed information on Header and Sequence.
+     * @param outputFile The file to write the information to.
+     * @param featureList The features to write, as returned by buildFeatureList.
+     * @throws FileNotFoundException Thrown if the output file is not found.
+     */
+    public void writeGbFile(GCKFile gckFile, File outputFile, List<Feature> featureList) throws FileNotFoundException {
+        writeGbFile(gckFile, new FileOutputStream(outputFile), featureList);
+    }
+
+    /**
+     * Writes the full gene bank file to a stream, which is closed at the end, also when writing fails. The text is
+     * encoded as ISO-8859-1, one byte per character, the way the GCK file was decoded, so its bytes are written back
+     * unchanged whatever the platform charset is.
+     *
+     * @param gckFile A GCK File object including the needed information on Header and Sequence.
+     * @param output The stream to write the information to.
+     * @param featureList The features to write, as returned by buildFeatureList.
+     */
+    public void writeGbFile(GCKFile gckFile, OutputStream output, List<Feature> featureList) {
         this.gckFile = gckFile;
-        printWriter = new PrintWriter(outputFile);
+        this.output = output;
+        printWriter = new PrintWriter(new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.ISO_8859_1)));
+        sequenceWriteFailed = false;
         calendar = Calendar.getInstance();
-        this.parser = new RegionParser();
-        this.includeApEData = includeApEData;
-        writeGbFileHeader();
-        //get the list of features and regions to write from the parser and write them to the file
-        writeFeatures(parser.buildFeatureList(gckFile, parseLevel, library, includeUnnamed, includePrimers));
-        writeSequence();
+        try {
+            writeGbFileHeader();
+            writeFeatures(featureList);
+            writeSequence();
+        } finally {
+            //Closed even if a feature comment cannot be read, so the caller only has to delete the file.
+            printWriter.close();
+            writeFailed = printWriter.checkError() || sequenceWriteFailed;
+        }
     }
 
 
@@ -72,99 +135,136 @@ public class GbFileWriter {
         if (includeApEData) {
             printWriter.println("COMMENT    ApEinfo:methylated:1");
         }
+        SequenceStatistics statistics = gckFile.getSequenceStatistics();
+        if (includeStatistics && statistics != null) {
+            printWriter.println("COMMENT     Base counts: " + statistics.getA() + " a, " + statistics.getC() + " c, "
+                    + statistics.getG() + " g, " + statistics.getT() + " t, " + statistics.getN() + " n, "
+                    + statistics.getAmbiguous() + " other IUPAC, " + statistics.getInvalid() + " invalid");
+            printWriter.println("COMMENT     GC content: " + String.format(Locale.ENGLISH, "%.2f", statistics.getGCContent() * 100) + "%");
+        }
     }
 
     /**
      * Write the list of features (sequence annotations) to the GeneBank file. Information about the annotations is
-     * stored in the gckfilestructre.Feature object.
+     * stored in the gckfilestructre.Feature object. ApE data, information for display in the ApE program, is
+     * included if set. The formatting is done by a FeatureTableEmitter.
      *
      * @param featureList A list of gckfilestructure.Feature objects that contain the annotations to write to the GeneBank file.
      */
     private void writeFeatures(List<Feature> featureList) {
         //Data format: Feature keys start at column 6 and has at most 15 characters.
         //Data format: location and other qualifiers begin on column 22 and can extend to column 80.
-        printWriter.write(String.format("%-21s%s\n", "FEATURES", "Location/Qualifiers"));
-        for (Feature f : featureList) {
-            printWriter.write(String.format("%5s%-16.15s", " ", f.getType().dispName()));
-            if (f.getStrand() == Feature.Strand.REVERSE) { printWriter.write("(complement)"); }
-            printWriter.write("" + f.getStart() + ".." + f.getEnd() + "\n");
-            printWriter.write(String.format("%21s%7s%-2.52s\n", " ", "/label=", f.getName()));
-            if (f.hasComment()) {  //TODO: Do we need line breaks?
-                printWriter.write(String.format("%21s%9s\"%-2s\"\n", " ", "/comment=", f.getComment()));
-            }
-            //ApE data includes information for display in the ApE program. Not needed for a simple gb file.
-            if (includeApEData) { writeApEData(f); }
+        numFeaturesWritten = featureList.size();
+        if (featureTableEmitter == null) {
+            featureTableEmitter = new FeatureTableEmitter(System.lineSeparator());
         }
+        featureTableEmitter.emit(printWriter, featureList, includeApEData);
     }
 
     /**
-     * Write information about an annotation for the ApE (A Plasmid Editor) program.
-     * This information includes display colour and the arrow type and size.
-     * The way the information is stored makes it not readily available for other programs.
+     * Writes the sequence extracted from the GCK file and the closing line to the final GeneBank file.
+     * This should be called last when writing a GeneBank file.
      *
-     * @param f The feature to write information about.
+     * The sequence lines are formatted straight to ISO-8859-1 bytes and written to the underlying stream, skipping
+     * the character encoder. Long sequences are split into chunks of whole lines which are formatted in parallel on
+     * the common fork-join pool, and then written to the file in order.
      */
-    private void writeApEData(Feature f) {
-        if (((int) f.getColourRed() & 0xff) > 0 || ((int) f.getColourGreen() & 0xff) > 0 || ((int) f.getColourBlue() & 0xff) > 0) {
-            printWriter.println("                     /ApEinfo_fwdcolor=#" + String.format("%02X", f.getColourRed()) +
-                    String.format("%02X", f.getColourGreen()) +
-                    String.format("%02X", f.getColourBlue()));
-            printWriter.println("                     /ApEinfo_revcolor=#" + String.format("%02X", f.getColourRed()) +
-                    String.format("%02X", f.getColourGreen()) +
-                    String.format("%02X", f.getColourBlue()));
-        } else { //Use these default colours if none are included
-            if (f.getType() == Region.RegionType.GENE) {
-                printWriter.write("                     /ApEinfo_fwdcolor=#ff0000\n");
-                printWriter.write("                     /ApEinfo_revcolor=#ff0000\n");
-            } else {
-                printWriter.write("                     /ApEinfo_fwdcolor=#00ff00\n");
-                printWriter.write("                     /ApEinfo_revcolor=#00ff00\n");
+    private void writeSequence() {
+        printWriter.println("ORIGIN");
+        //Everything before the sequence has to reach the stream before the formatted bytes are written to it.
+        printWriter.flush();
+        String sequence = gckFile.getSequence();
+        int length = Math.min(sequence.length(), gckFile.getSequenceLength());
+        int numLines = (length + BASES_PER_LINE - 1) / BASES_PER_LINE;
+        if (length < PARALLEL_SEQUENCE_THRESHOLD) {
+            writeChunk(formatSequenceLines(sequence, length, 0, numLines));
+        } else {
+            ForkJoinPool pool = ForkJoinPool.commonPool();
+            //Only keep a limited number of formatted chunks waiting, so memory use does not grow with the sequence.
+            int maxPending = Math.max(2, 2 * pool.getParallelism());
+            ArrayDeque<ForkJoinTask<ByteBuffer>> pending = new ArrayDeque<ForkJoinTask<ByteBuffer>>();
+            for (int firstLine = 0; firstLine < numLines; firstLine += LINES_PER_CHUNK) {
+                final int from = firstLine;
+                final int to = Math.min(numLines, firstLine + LINES_PER_CHUNK);
+                pending.add(pool.submit(() -> formatSequenceLines(sequence, length, from, to)));
+                if (pending.size() >= maxPending) {
+                    writeChunk(pending.poll().join());
+                }
+            }
+            while (!pending.isEmpty()) {
+                writeChunk(pending.poll().join());
             }
         }
-        if (f.getStrand() == Feature.Strand.FORWARD) {
-            printWriter.println("                     /ApEinfo_graphicformat=arrow_data {{0 1 2 0 0 -1} {} 0}");
-        } else if (f.getStrand() == Feature.Strand.REVERSE) {
-            printWriter.println("                     /ApEinfo_graphicformat=arrow_data {{0 1 2 0 0 -1} {} 0}");
-        } else if (f.getStrand() == Feature.Strand.BOTH) { //Double headed arrow
-            printWriter.println("                     /ApEinfo_graphicformat=arrow_data {{0 1 2 0 0 -1} {0 1 2 0 0 -1} 0}");
-        } else { //Blunt arrow (no arrowheads)
-            printWriter.println("                     /ApEinfo_graphicformat=arrow_data {{} {} 0}");
-        }
-        printWriter.println("                     width 5 offset 0");
+        printWriter.write("//\n");
     }
 
     /**
-     * Writes the sequence extracted from the GCK file to the final GeneBank file and also 'closes' the file.
-     * This should be called last when writing a GeneBank file.
+     * Formats a range of lines of the ORIGIN section. Each line starts with the position of its first base
+     * right aligned to 9 characters, followed by at most six blocks of 10 bases separated by spaces.
+     *
+     * @param sequence The full sequence.
+     * @param length The number of bases to write from the sequence.
+     * @param firstLine The first line to format.
+     * @param lastLine The line after the last one to format.
+     * @return The formatted lines as ISO-8859-1 bytes.
      */
-    private void writeSequence() {
-        printWriter.println("ORIGIN");
-        int i=0;
-        while (i < gckFile.getSequenceLength()) {
-            for (int s=0; s<(9-String.valueOf(i).length()); s++) {
-                printWriter.write(" ");
+    private static ByteBuffer formatSequenceLines(String sequence, int length, int firstLine, int lastLine) {
+        ByteBuffer chunk = ByteBuffer.allocate((lastLine - firstLine) * MAX_LINE_LENGTH);
+        byte[] out = chunk.array();
+        int pos = 0;
+        for (int line = firstLine; line < lastLine; line++) {
+            int i = line * BASES_PER_LINE;
+            //The padding is calculated from the 0 based position, but the 1 based position is written.
+            for (int s = numDigits(i); s < 9; s++) {
+                out[pos++] = ' ';
+            }
+            int digits = numDigits(i + 1);
+            int n = i + 1;
+            for (int d = pos + digits - 1; d >= pos; d--) {
+                out[d] = (byte) ('0' + n % 10);
+                n /= 10;
             }
-            printWriter.write(String.valueOf(i+1));
-            printWriter.write(" ");
-            for(int j=0; j<6; j++) {
-                String sub;
-                try {
-                    sub = gckFile.getSequence().substring(i, i+10);
-                } catch (IndexOutOfBoundsException ex) {
-                    sub = gckFile.getSequence().substring(i);
-                }                
-                printWriter.write(sub);
-                i=i+10;
-                if (i < gckFile.getSequenceLength() && j<5) {
-                    printWriter.write(" ");                    
+            pos += digits;
+            out[pos++] = ' ';
+            for (int j = 0; j < 6; j++) {
+                int end = Math.min(i + 10, length);
+                //The sequence was decoded as ISO-8859-1, so every character is a single byte.
+                for (int k = i; k < end; k++) {
+                    out[pos++] = (byte) sequence.charAt(k);
+                }
+                i = i + 10;
+                if (i < length && j < 5) {
+                    out[pos++] = ' ';
                 } else {
-                    printWriter.write("\n");
+                    out[pos++] = '\n';
                     break;
                 }
             }
         }
-        printWriter.write("//\n");
-        printWriter.close();
+        chunk.position(pos);
+        return chunk;
+    }
+
+    private static int numDigits(int n) {
+        int digits = 1;
+        while (n >= 10) {
+            n /= 10;
+            digits++;
+        }
+        return digits;
+    }
+
+    private void writeChunk(ByteBuffer chunk) {
+        if (sequenceWriteFailed) {
+            return;
+        }
+        try {
+            output.write(chunk.array(), 0, chunk.position());
+        } catch (IOException ex) {
+            //Reported through hasWriteFailed, the same way the PrintWriter reports its own errors.
+            logger.log(Level.FINE, "Writing the sequence failed", ex);
+            sequenceWriteFailed = true;
+        }
     }
 
     /**
@@ -175,10 +275,55 @@ public class GbFileWriter {
     public void setApEData(boolean state) {
         includeApEData = state;
     }
+
+    /**
+     * Sets whether the base counts and GC content of the sequence are written as comments in the header.
+     *
+     * @param includeStatistics True to write the statistics.
+     */
+    public void setIncludeStatistics(boolean includeStatistics) {
+        this.includeStatistics = includeStatistics;
+    }
+
+    /**
+     * @return The number of features written to the last GeneBank file.
+     */
+    public int getNumFeaturesWritten() {
+        return numFeaturesWritten;
+    }
+
+    /**
+     * @return True if writing the last GeneBank file failed, so the file may be incomplete.
+     */
+    public boolean hasWriteFailed() {
+        return writeFailed;
+    }
+
+    /**
+     * Sets the scanner used to add restriction enzyme sites to the final file.
+     *
+     * @param scanner The scanner to use, or null if restriction sites should not be included.
+     */
+    public void setRestrictionSiteScanner(RestrictionSiteScanner scanner) {
+        restrictionSiteScanner = scanner;
+    }
     
     private PrintWriter printWriter;
+    private OutputStream output; //the stream under printWriter, the sequence bytes are written to it directly
+    private boolean sequenceWriteFailed;
     private GCKFile gckFile;
     private Calendar calendar; //used to include the date in the resulting GCK file
-    private RegionParser parser;
     private boolean includeApEData;
+    private boolean includeStatistics;
+    private RestrictionSiteScanner restrictionSiteScanner;
+    private int numFeaturesWritten;
+    private boolean writeFailed; //set if the PrintWriter of the last file reported an error
+    private FeatureTableEmitter featureTableEmitter; //kept for the next file written by this writer
+
+    /***** CONSTANTS *****/
+    private final static Logger logger = Logger.getLogger("GCK_Converter_logger");
+    private final static int BASES_PER_LINE = 60;
+    private final static int MAX_LINE_LENGTH = 10 + 1 + BASES_PER_LINE + 5 + 1; //position, space, bases, block separators, new line
+    private final static int LINES_PER_CHUNK = 4096; //about 250 kb of sequence per parallel task
+    private final static int PARALLEL_SEQUENCE_THRESHOLD = 4 * LINES_PER_CHUNK * BASES_PER_LINE;
 }
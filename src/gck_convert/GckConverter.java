@@ -0,0 +1,151 @@
+package gck_convert;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Converts GCK files to GeneBank files with a fixed library and fixed options, for use from other programs.
+ *
+ * A converter cannot be changed once created, and all its methods may be called from any number of threads at the
+ * same time, so a service can create one converter and keep using it, instead of loading the library and setting up
+ * a conversion for every request. Single files are converted in the calling thread, and files received in memory or
+ * from a stream are converted without writing them to the disk first. Every batch runs its own BatchConverter,
+ * sharing only the library and the options with the other calls.
+ *
+ * @author Matyas Medzihradszky
+ * @version 0.1
+ */
+public final class GckConverter {
+
+    /**
+     * Constructor.
+     *
+     * @param library The library used to determine the feature types.
+     * @param options The settings of the conversions.
+     */
+    public GckConverter(FeatureLibrary library, ConversionOptions options) {
+        super();
+        if (library == null || options == null) {
+            throw new IllegalArgumentException("The library and the options must be given.");
+        }
+        this.library = library;
+        this.options = options;
+        singleConverter = newBatchConverter(null);
+    }
+
+    /**
+     * Creates a converter with a library read from a file, compiled or not.
+     *
+     * @param libraryFile The library file.
+     * @param options The settings of the conversions.
+     * @return The converter.
+     * @throws IOException Thrown if the library cannot be read.
+     */
+    public static GckConverter load(File libraryFile, ConversionOptions options) throws IOException {
+        return new GckConverter(FeatureLibrary.load(libraryFile), options);
+    }
+
+    /**
+     * Converts a single file in the calling thread. With the verify option the output is read back and checked
+     * before the call returns.
+     *
+     * @param input The GCK file to read.
+     * @param output The GeneBank file to write.
+     * @return The result of the conversion. Errors are recorded in the result rather than thrown.
+     */
+    public ConversionResult convert(Path input, Path output) {
+        return singleConverter.convertFile(input.toFile(), output.toFile());
+    }
+
+    /**
+     * Converts a GCK file held in memory, writing the GeneBank file to a stream, in the calling thread.
+     *
+     * @param input The GCK file, from its position to its limit. Its position is not changed.
+     * @param name The name of the GCK file, giving the construct name and, by its extension, the type of the file.
+     * @param output The stream to write to. It is flushed but not closed.
+     * @return The result of the conversion. Errors are recorded in the result rather than thrown.
+     */
+    public ConversionResult convert(ByteBuffer input, String name, OutputStream output) {
+        return singleConverter.convertStream(new ByteBufferChannel(input), name, output);
+    }
+
+    /**
+     * Converts a GCK file read from a stream, writing the GeneBank file to a stream, in the calling thread. The input
+     * is read into memory first.
+     *
+     * @param input The GCK file, read to its end. It is not closed.
+     * @param name The name of the GCK file, giving the construct name and, by its extension, the type of the file.
+     * @param output The stream to write to. It is flushed but not closed.
+     * @return The result of the conversion. Errors are recorded in the result rather than thrown.
+     */
+    public ConversionResult convert(InputStream input, String name, OutputStream output) {
+        return singleConverter.convertStream(Channels.newChannel(input), name, output);
+    }
+
+    /**
+     * Converts a GCK file read from a channel, writing the GeneBank file to a channel, in the calling thread. A
+     * seekable input, such as a FileChannel, is read in place, any other is read into memory first.
+     *
+     * @param input The GCK file, starting at the current position of the channel. It is not closed.
+     * @param name The name of the GCK file, giving the construct name and, by its extension, the type of the file.
+     * @param output The channel to write to. It is not closed.
+     * @return The result of the conversion. Errors are recorded in the result rather than thrown.
+     */
+    public ConversionResult convert(ReadableByteChannel input, String name, WritableByteChannel output) {
+        return singleConverter.convertStream(input, name, Channels.newOutputStream(output));
+    }
+
+    /**
+     * Converts a batch of files into a directory, returning once all of them are done.
+     *
+     * @param inputs The GCK files to convert.
+     * @param outputDirectory The directory to put the GeneBank files in.
+     * @param listener Receives the progress of the batch, or null.
+     * @return True if all the files were converted without errors.
+     */
+    public boolean convertAll(List<Path> inputs, Path outputDirectory, BatchConverter.Listener listener) {
+        File[] files = new File[inputs.size()];
+        for (int i = 0; i < files.length; i++) {
+            files[i] = inputs.get(i).toFile();
+        }
+        return newBatchConverter(listener).convert(files, outputDirectory.toFile());
+    }
+
+    /**
+     * Converts a batch of files into a directory, returning once all of them are done.
+     *
+     * @param inputs The GCK files to convert.
+     * @param outputDirectory The directory to put the GeneBank files in.
+     * @return True if all the files were converted without errors.
+     */
+    public boolean convertAll(List<Path> inputs, Path outputDirectory) {
+        return convertAll(inputs, outputDirectory, null);
+    }
+
+    private BatchConverter newBatchConverter(BatchConverter.Listener listener) {
+        BatchConverter batchConverter = new BatchConverter(library);
+        batchConverter.setOptions(options);
+        batchConverter.setListener(listener);
+        return batchConverter;
+    }
+
+    public FeatureLibrary getLibrary() {
+        return library;
+    }
+
+    public ConversionOptions getOptions() {
+        return options;
+    }
+
+    private final FeatureLibrary library;
+    private final ConversionOptions options;
+    private final BatchConverter singleConverter; //only converts single files, so its settings never change
+}
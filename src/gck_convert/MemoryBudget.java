@@ -0,0 +1,121 @@
+package gck_convert;
+
+import gckfilestructure.GCKFile;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Limits the memory taken by the files being converted at the same time.
+ *
+ * The budget is a weighted semaphore counting kilobytes. Before a file is read its footprint is estimated from the
+ * lengths stated in its header, and that much of the budget is taken until the file is written. Many small files can
+ * be converted together, while a big one waits until there is room for it. A file estimated to need more than the
+ * whole budget takes all of it, so it is converted alone instead of never. Waiting files are admitted in order.
+ *
+ * @author Matyas Medzihradszky
+ * @version 0.1
+ */
+public class MemoryBudget {
+
+    /**
+     * Constructor.
+     *
+     * @param budget The memory the files being converted may take together, in bytes.
+     */
+    public MemoryBudget(long budget) {
+        super();
+        totalUnits = (int) Math.min(Integer.MAX_VALUE, Math.max(1, budget / UNIT));
+        units = new Semaphore(totalUnits, true);
+    }
+
+    /**
+     * Takes memory from the budget, waiting until enough is free.
+     *
+     * @param bytes The memory needed.
+     * @return The memory actually taken, to be passed to release.
+     * @throws InterruptedException Thrown if the thread is interrupted while waiting.
+     */
+    public long acquire(long bytes) throws InterruptedException {
+        int count = toUnits(bytes);
+        units.acquire(count);
+        return (long) count * UNIT;
+    }
+
+    /**
+     * Gives back memory taken with acquire.
+     *
+     * @param bytes The value returned by acquire.
+     */
+    public void release(long bytes) {
+        units.release(toUnits(bytes));
+    }
+
+    private int toUnits(long bytes) {
+        return (int) Math.min(totalUnits, Math.max(1, (bytes + UNIT - 1) / UNIT));
+    }
+
+    /**
+     * @return The size of the whole budget in bytes.
+     */
+    public long getBudget() {
+        return (long) totalUnits * UNIT;
+    }
+
+    /**
+     * @return The memory not taken at the moment, in bytes.
+     */
+    public long getAvailable() {
+        return (long) units.availablePermits() * UNIT;
+    }
+
+    /**
+     * Estimates the memory needed to convert a GCK file, reading only the lengths in its header.
+     *
+     * The sequence is held as bytes, characters and a string while it is read, the regions and features are kept in
+     * tables and the names and comments, which fill the rest of the file, are decoded to characters.
+     *
+     * @param gckFile The GCK file.
+     * @return The estimated footprint in bytes. If the header cannot be read it is estimated from the file length.
+     */
+    public static long estimate(File gckFile) {
+        long fileLength = gckFile.length();
+        try (RandomAccessFile file = new RandomAccessFile(gckFile, "r")) {
+            file.seek(GCKFile.HEADER_LENGTH - 4);
+            long sequenceLength = file.readInt();
+            if (sequenceLength < 0 || GCKFile.HEADER_LENGTH + sequenceLength + 4 > fileLength) {
+                return fallbackEstimate(fileLength);
+            }
+            file.seek(GCKFile.HEADER_LENGTH + sequenceLength);
+            long lengthRegions = file.readInt();
+            if (lengthRegions < 0 || GCKFile.HEADER_LENGTH + sequenceLength + lengthRegions + 8 > fileLength) {
+                return fallbackEstimate(fileLength);
+            }
+            file.seek(GCKFile.HEADER_LENGTH + sequenceLength + 4 + lengthRegions);
+            long lengthFeatures = Math.max(0, file.readInt());
+            long rest = Math.max(0, fileLength - GCKFile.HEADER_LENGTH - sequenceLength - lengthRegions - lengthFeatures - 8);
+            return JOB_OVERHEAD + BYTES_PER_BASE * sequenceLength + BYTES_PER_TABLE_BYTE * (lengthRegions + lengthFeatures)
+                    + BYTES_PER_TEXT_BYTE * rest;
+        } catch (IOException ex) {
+            return fallbackEstimate(fileLength);
+        }
+    }
+
+    private static long fallbackEstimate(long fileLength) {
+        return JOB_OVERHEAD + BYTES_PER_BASE * fileLength;
+    }
+
+    private final int totalUnits;
+    private final Semaphore units; //one permit per UNIT of the budget
+
+    /***** CONSTANTS *****/
+    private final static long UNIT = 1024;
+    //Buffers, the feature list and the writer of every file.
+    private final static long JOB_OVERHEAD = 256 * 1024;
+    //Read buffer, character array and string of the sequence.
+    private final static long BYTES_PER_BASE = 5;
+    private final static long BYTES_PER_TABLE_BYTE = 4;
+    private final static long BYTES_PER_TEXT_BYTE = 2;
+}
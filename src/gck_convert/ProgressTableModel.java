@@ -0,0 +1,170 @@
+package gck_convert;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import javax.swing.table.AbstractTableModel;
+
+/**
+ * The files of a batch with their size, status and conversion time, as shown in the table of the GUI.
+ *
+ * The rows are kept in plain arrays, and a JTable only asks for the rows it shows, so the table costs the same
+ * however many files are selected. Sizes are looked up when a row is first shown. Finished files can be reported
+ * from any thread: they are only queued, and applied by applyPendingUpdates on the event dispatch thread, which
+ * repaints all the rows that changed since the last call at once.
+ *
+ * @author Matyas Medzihradszky
+ * @version 0.1
+ */
+public class ProgressTableModel extends AbstractTableModel {
+
+    /**
+     * Constructor, for an empty table.
+     */
+    public ProgressTableModel() {
+        super();
+        files = new File[0];
+        sizes = new long[0];
+        statuses = new String[0];
+        durations = new long[0];
+        rows = new HashMap<File, Integer>();
+        pending = new ConcurrentLinkedQueue<ConversionResult>();
+    }
+
+    /**
+     * Shows a new selection of files, all waiting. Must be called on the event dispatch thread.
+     *
+     * @param files The files.
+     */
+    public void setFiles(File[] files) {
+        pending.clear();
+        this.files = files.clone();
+        sizes = new long[files.length];
+        statuses = new String[files.length];
+        durations = new long[files.length];
+        rows = new HashMap<File, Integer>(2 * files.length);
+        for (int i = files.length - 1; i >= 0; i--) {
+            sizes[i] = UNKNOWN;
+            durations[i] = UNKNOWN;
+            rows.put(files[i], i);
+        }
+        numFinished = 0;
+        fireTableDataChanged();
+    }
+
+    /**
+     * Sets all the files back to waiting, for a new conversion. Must be called on the event dispatch thread.
+     */
+    public void reset() {
+        pending.clear();
+        for (int i = 0; i < files.length; i++) {
+            statuses[i] = null;
+            durations[i] = UNKNOWN;
+        }
+        numFinished = 0;
+        fireTableDataChanged();
+    }
+
+    /**
+     * Queues the result of a finished file. May be called from any thread.
+     *
+     * @param result The result.
+     */
+    public void post(ConversionResult result) {
+        pending.add(result);
+    }
+
+    /**
+     * Applies the queued results to the rows, notifying the table once for all of them. Must be called on the event
+     * dispatch thread.
+     *
+     * @return The number of results applied.
+     */
+    public int applyPendingUpdates() {
+        int first = Integer.MAX_VALUE;
+        int last = -1;
+        int count = 0;
+        ConversionResult result;
+        while ((result = pending.poll()) != null) {
+            count++;
+            Integer row = rows.get(result.getInput());
+            if (row == null) {
+                continue;
+            }
+            if (statuses[row] == null) {
+                numFinished++;
+            }
+            statuses[row] = result.getStatus().dispName();
+            durations[row] = (result.getReadNanos() + result.getParseNanos() + result.getWriteNanos()) / 1000000;
+            first = Math.min(first, row);
+            last = Math.max(last, row);
+        }
+        if (last >= 0) {
+            fireTableRowsUpdated(first, last);
+        }
+        return count;
+    }
+
+    /**
+     * @return The number of files with a result.
+     */
+    public int getNumFinished() {
+        return numFinished;
+    }
+
+    @Override
+    public int getRowCount() {
+        return files.length;
+    }
+
+    @Override
+    public int getColumnCount() {
+        return COLUMN_NAMES.length;
+    }
+
+    @Override
+    public String getColumnName(int column) {
+        return COLUMN_NAMES[column];
+    }
+
+    @Override
+    public Class<?> getColumnClass(int column) {
+        return column == SIZE_COLUMN || column == TIME_COLUMN ? Long.class : String.class;
+    }
+
+    @Override
+    public Object getValueAt(int row, int column) {
+        switch (column) {
+            case FILE_COLUMN:
+                return files[row].getName();
+            case SIZE_COLUMN:
+                if (sizes[row] == UNKNOWN) {
+                    sizes[row] = files[row].length();
+                }
+                return sizes[row];
+            case STATUS_COLUMN:
+                return statuses[row] != null ? statuses[row] : WAITING;
+            default:
+                return durations[row] != UNKNOWN ? durations[row] : null;
+        }
+    }
+
+    private File[] files;
+    private long[] sizes; //in bytes, read from the file system when first shown
+    private String[] statuses; //null while waiting
+    private long[] durations; //in milliseconds
+    private Map<File, Integer> rows; //the row of every file
+    private int numFinished;
+    private final ConcurrentLinkedQueue<ConversionResult> pending; //results not yet shown
+
+    /***** CONSTANTS *****/
+    private final static long serialVersionUID = 1L;
+    private final static String[] COLUMN_NAMES = {"File", "Size (bytes)", "Status", "Time (ms)"};
+    private final static int FILE_COLUMN = 0;
+    private final static int SIZE_COLUMN = 1;
+    private final static int STATUS_COLUMN = 2;
+    private final static int TIME_COLUMN = 3;
+    private final static long UNKNOWN = -1;
+    private final static String WAITING = "waiting";
+}
@@ -2,13 +2,17 @@ package gck_convert;
 
 import gckfilestructure.GCKFile;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
-import java.util.regex.Pattern;
-import java.util.regex.Matcher;
 import java.util.LinkedList;
 
 import gckfilestructure.Region;
 import gckfilestructure.Feature;
+import gckfilestructure.RegionTable;
+import gckfilestructure.FeatureTable;
 
 /**
  * RegionParser is responsible for the pruning, ordering, and sorting of the 
@@ -17,7 +21,7 @@ import gckfilestructure.Feature;
  * It has a number of methods to validate and modify the extracted list of 
  * regions and features.
  *
- * Note: Sorting is not implemented at the moment.
+ * The final list of features is sorted by start, then end, then type.
  * 
  * @author Matyas Medzihradszky
  * @version 0.1
@@ -40,13 +44,32 @@ public class RegionParser {
      * @param library Contains information about how to annotate Features.
      * @param includeUnnamed Whether unnamed Regions are to be included.
      * @param includePrimers Whether primer annotations are to be included.
-     * @return Returns a list of Features containing all the annotations to be included in the final GeneBank file.
+     * @return Returns a list of Features containing all the annotations to be included in the final GeneBank file,
+     * sorted by their position.
      */
     public List<Feature> buildFeatureList(GCKFile gckFile, ParseLevel parseLevel, LinkedList<String[]> library, boolean includeUnnamed, boolean includePrimers) {
+        return buildFeatureList(gckFile, parseLevel, FeatureLibrary.fromEntries(library), includeUnnamed, includePrimers);
+    }
+
+    /**
+     * Creates the list of Features (sequence annotations) to write to the final GeneBank file, using an already
+     * built library.
+     *
+     * @param gckFile Contains all the information about the found Features and Regions.
+     * @param parseLevel The level of scrutiny to use in which Regions and Features to keep.
+     * @param library Contains information about how to annotate Features.
+     * @param includeUnnamed Whether unnamed Regions are to be included.
+     * @param includePrimers Whether primer annotations are to be included.
+     * @return Returns a list of Features containing all the annotations to be included in the final GeneBank file,
+     * sorted by their position.
+     */
+    public List<Feature> buildFeatureList(GCKFile gckFile, ParseLevel parseLevel, FeatureLibrary library, boolean includeUnnamed, boolean includePrimers) {
         this.gckFile = gckFile;
         this.parseLevel = parseLevel;
         LinkedList<Feature> featureList = new LinkedList();
-        pairRegionsWithFeatures();
+        if (mergeRegions(pairRegionsWithFeatures())) {
+            pairRegionsWithFeatures();
+        }
         idFeatures(library);
         parseRegions();
         validateNames();
@@ -74,7 +97,123 @@ public class RegionParser {
                 }
             }
         }
-        return featureList;
+        return sortFeatures(featureList);
+    }
+
+    /**
+     * Sorts features by start, then end, then type.
+     *
+     * Starts and ends are replaced by their rank among the distinct values, so that the ranks, the type, and the
+     * position in the original list can be packed into a single long per feature. Sorting the packed keys
+     * then gives the final order without comparing Feature objects.
+     *
+     * @param featureList The features to sort.
+     * @return A new list holding the sorted features.
+     */
+    static List<Feature> sortFeatures(List<Feature> featureList) {
+        Feature[] features = featureList.toArray(new Feature[featureList.size()]);
+        int n = features.length;
+        int[] starts = new int[n];
+        int[] ends = new int[n];
+        for (int i = 0; i < n; i++) {
+            starts[i] = features[i].getStart();
+            ends[i] = features[i].getEnd();
+        }
+        int[] distinctStarts = distinctSorted(starts);
+        int[] distinctEnds = distinctSorted(ends);
+        int indexBits = bitsFor(n);
+        int typeBits = bitsFor(Region.RegionType.values().length);
+        int endBits = bitsFor(distinctEnds.length);
+        int startBits = bitsFor(distinctStarts.length);
+
+        if (startBits + endBits + typeBits + indexBits > 63) {
+            //Too many features to pack the keys, which does not happen with real files.
+            ArrayList<Feature> sorted = new ArrayList<Feature>(featureList);
+            Collections.sort(sorted, FEATURE_ORDER);
+            return sorted;
+        }
+
+        long[] keys = new long[n];
+        for (int i = 0; i < n; i++) {
+            long key = Arrays.binarySearch(distinctStarts, starts[i]);
+            key = (key << endBits) | Arrays.binarySearch(distinctEnds, ends[i]);
+            key = (key << typeBits) | features[i].getType().byteValue();
+            keys[i] = (key << indexBits) | i;
+        }
+        Arrays.sort(keys);
+
+        long indexMask = (1L << indexBits) - 1;
+        ArrayList<Feature> sorted = new ArrayList<Feature>(n);
+        for (int i = 0; i < n; i++) {
+            sorted.add(features[(int) (keys[i] & indexMask)]);
+        }
+        return sorted;
+    }
+
+    /**
+     * @param values Values to process. The array itself is not modified.
+     * @return The distinct values in ascending order.
+     */
+    private static int[] distinctSorted(int[] values) {
+        int[] sorted = values.clone();
+        Arrays.sort(sorted);
+        int count = 0;
+        for (int i = 0; i < sorted.length; i++) {
+            if (i == 0 || sorted[i] != sorted[count - 1]) {
+                sorted[count++] = sorted[i];
+            }
+        }
+        return Arrays.copyOf(sorted, count);
+    }
+
+    /**
+     * @param count Number of different values to store.
+     * @return The number of bits needed to store a value between 0 and count - 1.
+     */
+    private static int bitsFor(int count) {
+        return Math.max(1, 32 - Integer.numberOfLeadingZeros(Math.max(0, count - 1)));
+    }
+
+    /**
+     * Joins touching or overlapping regions of the same colour into one.
+     *
+     * GCK starts a new region at every change of formatting, so a single coloured stretch of the sequence is often
+     * stored as many regions. Only the colour of a region is used, so such a run is joined into its first region,
+     * in a single pass that compares every region with the last one kept. Regions already paired with a feature
+     * are never joined, so that touching features coloured alike keep their own regions. The regions kept are
+     * moved to the front of the table and the number of regions of the file is lowered to match.
+     *
+     * @param paired Which regions are paired with a feature, see pairRegionsWithFeatures.
+     * @return True if any regions were joined.
+     */
+    private boolean mergeRegions(boolean[] paired) {
+        RegionTable regions = gckFile.getRegionTable();
+        int numRegions = gckFile.getNumRegions();
+        int kept = 0;
+        for (int i = 0; i < numRegions; i++) {
+            int last = kept - 1;
+            if (last >= 0 && !paired[i] && !paired[last] && regions.getColour(i) == regions.getColour(last)
+                    && regions.getStart(i) <= regions.getEnd(last) + 1 && regions.getEnd(i) + 1 >= regions.getStart(last)) {
+                regions.setStart(last, Math.min(regions.getStart(last), regions.getStart(i)));
+                regions.setEnd(last, Math.max(regions.getEnd(last), regions.getEnd(i)));
+                regions.setToDisplay(last, regions.isToDisplay(last) || regions.isToDisplay(i));
+                continue;
+            }
+            if (kept != i) {
+                regions.setStart(kept, regions.getStart(i));
+                regions.setEnd(kept, regions.getEnd(i));
+                regions.copyColour(kept, regions, i);
+                regions.setFontType(kept, regions.getFontType(i));
+                regions.setGrouping(kept, regions.getGrouping(i));
+                regions.setToDisplay(kept, regions.isToDisplay(i));
+                regions.hasName(kept, regions.hasName(i));
+                regions.hasComment(kept, regions.hasComment(i));
+                paired[kept] = paired[i];
+            }
+            kept++;
+        }
+        gckFile.setNumRegions((short) kept);
+        return kept < numRegions;
     }
 
     /**
@@ -83,27 +222,34 @@ public class RegionParser {
      * This is needed because GCK files store coloured regions of the sequence and
      * a corresponding defined sequence separately, without a clear way to connect
      * the two as even starting and ending points can be different.
+     *
+     * @return Which regions were paired with a feature.
      */
-    private void pairRegionsWithFeatures() {
+    private boolean[] pairRegionsWithFeatures() {
         //Pair regions to features if it is possible.
         //Regions are not always the same length as the corresponding feature because
         //features are only the protein sequence without stops or leading bases.
         //Thus allow +- 5 bp difference on both sides (this is arbitrary).
+        RegionTable regions = gckFile.getRegionTable();
+        FeatureTable features = gckFile.getFeatureTable();
+        boolean[] paired = new boolean[gckFile.getNumRegions()];
         for (int i = 0; i < gckFile.getNumRegions(); i++) {
+            int regionStart = regions.getStart(i);
+            int regionEnd = regions.getEnd(i);
             for (int j = 0; j < gckFile.getNumFeatures(); j++) {
-                if(     gckFile.getRegion(i).getStart() - gckFile.getFeature(j).getStart() <= 5 &&
-                        gckFile.getRegion(i).getStart() - gckFile.getFeature(j).getStart() >= -5 &&
-                        gckFile.getRegion(i).getEnd() - gckFile.getFeature(j).getEnd() <= 5 && 
-                        gckFile.getRegion(i).getEnd() - gckFile.getFeature(j).getEnd() >= -5) {
+                if(     regionStart - features.getStart(j) <= 5 &&
+                        regionStart - features.getStart(j) >= -5 &&
+                        regionEnd - features.getEnd(j) <= 5 && 
+                        regionEnd - features.getEnd(j) >= -5) {
                     //If a match has been found copy the colour data from the region. Only actually matters for APE.
-                    gckFile.getFeature(j).setColourRed(gckFile.getRegion(i).getColourRed());
-                    gckFile.getFeature(j).setColourGreen(gckFile.getRegion(i).getColourGreen());
-                    gckFile.getFeature(j).setColourBlue(gckFile.getRegion(i).getColourBlue());
+                    features.copyColour(j, regions, i);
                     //Set the region's display attribute to false.
-                    gckFile.getRegion(i).setToDisplay(false);
+                    regions.setToDisplay(i, false);
+                    paired[i] = true;
                 }
             }
         }
+        return paired;
     }
 
     /**
@@ -111,21 +257,22 @@ public class RegionParser {
      * Make sure the direction is also the same.
      */
     private void removeDuplicates() {
+        FeatureTable features = gckFile.getFeatureTable();
         for (int i = 0; i < gckFile.getNumFeatures()-1; i++) {
             for (int j = i + 1; j < gckFile.getNumFeatures(); j++) {
                 //Because of the way things are stored in GCK files it often
                 //+happens that the same feature is stored with slightly
                 //+different end and start points. Such as when a feature has
                 //+an arrow as well as a protein sequence.
-                if (gckFile.getFeature(i).getStart() - gckFile.getFeature(j).getStart() <= 5 &&
-                        gckFile.getFeature(i).getStart() - gckFile.getFeature(j).getStart() >= -5 &&
-                        gckFile.getFeature(i).getEnd() - gckFile.getFeature(j).getEnd() <= 5 &&
-                        gckFile.getFeature(i).getEnd() - gckFile.getFeature(j).getEnd() >= -5) {
-                    if (gckFile.getFeature(i).getStrand() == gckFile.getFeature(j).getStrand()) {
-                        if (gckFile.getFeature(j).getType() == Region.RegionType.CDS) {
-                            gckFile.getFeature(i).setToDisplay(false);
+                if (features.getStart(i) - features.getStart(j) <= 5 &&
+                        features.getStart(i) - features.getStart(j) >= -5 &&
+                        features.getEnd(i) - features.getEnd(j) <= 5 &&
+                        features.getEnd(i) - features.getEnd(j) >= -5) {
+                    if (features.getStrand(i) == features.getStrand(j)) {
+                        if (features.getType(j) == Region.RegionType.CDS) {
+                            features.setToDisplay(i, false);
                         } else {
-                            gckFile.getFeature(j).setToDisplay(false);
+                            features.setToDisplay(j, false);
                         }
                     }
                 }
@@ -139,9 +286,10 @@ public class RegionParser {
      * If the inclusion of unnamed regions is not selected by the user, this is redundant.
      */
     private void removeSmallRegions() {
+        RegionTable regions = gckFile.getRegionTable();
         for (int i = 0; i < gckFile.getNumRegions(); i++) {
-            if ((gckFile.getRegion(i).getEnd()-gckFile.getRegion(i).getStart()) <= 10) {
-                gckFile.getRegion(i).setToDisplay(false);
+            if ((regions.getEnd(i) - regions.getStart(i)) <= 10) {
+                regions.setToDisplay(i, false);
             }
         }
     }
@@ -150,9 +298,10 @@ public class RegionParser {
      * Mark features that have been marked for exclusion.
      */
     private void markExcluded() {
+        FeatureTable features = gckFile.getFeatureTable();
         for (int i = 0; i < gckFile.getNumFeatures(); i++) {
-            if (gckFile.getFeature(i).getType() == Region.RegionType.EXCLUDE) {
-                gckFile.getFeature(i).setToDisplay(false);
+            if (features.getType(i) == Region.RegionType.EXCLUDE) {
+                features.setToDisplay(i, false);
             }
         }
     }
@@ -162,12 +311,17 @@ public class RegionParser {
      * Only removes regions withing Features set to be displayed.
      */
     private void removeRegionsInFeatures() {
+        RegionTable regions = gckFile.getRegionTable();
+        FeatureTable features = gckFile.getFeatureTable();
         for (int i = 0; i < gckFile.getNumFeatures(); i++) {
-            Feature f = gckFile.getFeature(i);
+            if (!features.isToDisplay(i)) {
+                continue;
+            }
+            int featureStart = features.getStart(i);
+            int featureEnd = features.getEnd(i);
             for (int j = 0; j < gckFile.getNumRegions(); j++) {
-                Region r = gckFile.getRegion(j);
-                if (r.getStart() >= f.getStart() && r.getEnd() <= f.getEnd() && f.isToDisplay()) {
-                    r.setToDisplay(false);
+                if (regions.getStart(j) >= featureStart && regions.getEnd(j) <= featureEnd) {
+                    regions.setToDisplay(j, false);
                 }
             }
         }
@@ -179,13 +333,14 @@ public class RegionParser {
      * It is better to use the library to prune what is kept and what is thrown away.
      */
     private void removeFeaturesInFeatures() {
+        FeatureTable features = gckFile.getFeatureTable();
         for (int i = 0; i < gckFile.getNumFeatures() - 1; i++) {
             for (int j = i + 1; j < gckFile.getNumFeatures(); j++) {
-                if(gckFile.getFeature(i).getStart() <= gckFile.getFeature(j).getStart() && gckFile.getFeature(i).getEnd() >= gckFile.getFeature(j).getEnd()) {
-                    gckFile.getFeature(j).setToDisplay(false);
+                if(features.getStart(i) <= features.getStart(j) && features.getEnd(i) >= features.getEnd(j)) {
+                    features.setToDisplay(j, false);
                 }
-                if(gckFile.getFeature(j).getStart() <= gckFile.getFeature(i).getStart() && gckFile.getFeature(j).getEnd() >= gckFile.getFeature(i).getEnd()) {
-                    gckFile.getFeature(i).setToDisplay(false);
+                if(features.getStart(j) <= features.getStart(i) && features.getEnd(j) >= features.getEnd(i)) {
+                    features.setToDisplay(i, false);
                 }
             }
         }
@@ -217,16 +372,10 @@ public class RegionParser {
      *
      * @param library Definitions of region types depending on names.
      */
-    private void idFeatures(LinkedList<String[]> library) {
+    private void idFeatures(FeatureLibrary library) {
         //Put back any features containing primer binding sites
         for (int i = 0; i < gckFile.getNumFeatures(); i++) {
-            for (String[] s: library) {
-                currentPattern = Pattern.compile(s[0]);
-                matcher = currentPattern.matcher(gckFile.getFeature(i).getName().toLowerCase());
-                if (matcher.find()) {
-                    gckFile.getFeature(i).setType(Region.RegionType.valueOf(s[1].toUpperCase()));
-                }
-            }
+            idFeature(gckFile.getFeature(i), library);
         }
     }
 
@@ -240,13 +389,10 @@ public class RegionParser {
      * @param f The feature to examine.
      * @param library Definitions of region types depending on names.
      */
-    private void idFeature(Feature f, LinkedList<String[]> library) {
-        for (String[] s: library) {
-            currentPattern = Pattern.compile(s[0]);
-            matcher = currentPattern.matcher(f.getName().toLowerCase());
-            if (matcher.find()) {
-                f.setType(Region.RegionType.valueOf(s[1].toUpperCase()));
-            }
+    private void idFeature(Feature f, FeatureLibrary library) {
+        Region.RegionType type = library.classify(f.getName());
+        if (type != null) {
+            f.setType(type);
         }
     }
     
@@ -283,8 +429,22 @@ public class RegionParser {
         }
     }
     
+    /**
+     * The same order as sortFeatures, for lists too large to pack the sort keys.
+     */
+    private final static Comparator<Feature> FEATURE_ORDER = new Comparator<Feature>() {
+        @Override
+        public int compare(Feature a, Feature b) {
+            if (a.getStart() != b.getStart()) {
+                return Integer.compare(a.getStart(), b.getStart());
+            }
+            if (a.getEnd() != b.getEnd()) {
+                return Integer.compare(a.getEnd(), b.getEnd());
+            }
+            return Byte.compare(a.getType().byteValue(), b.getType().byteValue());
+        }
+    };
+
     private GCKFile gckFile;
     private ParseLevel parseLevel;
-    private Pattern currentPattern;
-    private Matcher matcher;
 }
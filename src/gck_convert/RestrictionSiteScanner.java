@@ -0,0 +1,419 @@
+package gck_convert;
+
+import gckfilestructure.Feature;
+import gckfilestructure.FeatureTable;
+import gckfilestructure.GCKFile;
+import gckfilestructure.Region;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Scanner;
+import java.util.logging.Logger;
+
+/**
+ * Finds restriction enzyme recognition sites in the sequence of a GCK file.
+ *
+ * The plain recognition sites of all the enzymes, and their reverse complements, are compiled into a single
+ * Aho-Corasick automaton. Sites with IUPAC degenerate codes are matched bit-parallel instead (shift-and): every
+ * position of every such site is a bit, and each base of the sequence clears the bits of the positions it does not
+ * fit. Both kinds are searched in the same pass over the sequence, in time linear in its length. The first bases of
+ * a circular sequence are searched again after its end, so sites spanning the origin are found too.
+ *
+ * Instances are immutable once created and can be shared between threads.
+ *
+ * @author Matyas Medzihradszky
+ * @version 0.1
+ */
+public class RestrictionSiteScanner {
+
+    /**
+     * Builds the automaton for the supplied enzymes.
+     *
+     * @param names The names of the enzymes.
+     * @param sites The recognition sites of the enzymes, in the same order as the names. IUPAC codes are allowed.
+     */
+    public RestrictionSiteScanner(List<String> names, List<String> sites) {
+        super();
+        enzymeNames = names.toArray(new String[names.size()]);
+        enzymeSites = sites.toArray(new String[sites.size()]);
+        enzymeComments = new String[enzymeSites.length];
+        for (int i = 0; i < enzymeSites.length; i++) {
+            enzymeComments[i] = "Restriction site " + enzymeSites[i];
+        }
+        maxSitesPerEnzyme = Integer.MAX_VALUE;
+        buildAutomaton();
+    }
+
+    /**
+     * Reads a list of enzymes from a file.
+     *
+     * Two formats are accepted. Either each line holds the name of an enzyme and its recognition site
+     * separated by white space or a comma, or the file uses the REBASE tagged format where the name is given
+     * on a line starting with &lt;1&gt; and the site on a line starting with &lt;3&gt;. Cut positions marked
+     * with ^ or given in brackets are ignored. Lines starting with '//' or '#' are comments.
+     *
+     * @param enzymeFile The file listing the enzymes.
+     * @return A scanner for the enzymes in the file.
+     * @throws FileNotFoundException Thrown if the enzyme file is not found.
+     */
+    public static RestrictionSiteScanner load(File enzymeFile) throws FileNotFoundException {
+        LinkedList<String> names = new LinkedList<String>();
+        LinkedList<String> sites = new LinkedList<String>();
+        String rebaseName = null;
+        try (Scanner reader = new Scanner(enzymeFile)) {
+            while (reader.hasNextLine()) {
+                String line = reader.nextLine().trim();
+                if (line.isEmpty() || line.startsWith("//") || line.startsWith("#")) {
+                    continue;
+                }
+                if (line.startsWith("<1>")) {
+                    rebaseName = line.substring(3).trim();
+                } else if (line.startsWith("<3>")) {
+                    if (rebaseName != null && !rebaseName.isEmpty()) {
+                        addEnzyme(names, sites, rebaseName, line.substring(3));
+                    }
+                    rebaseName = null;
+                } else if (!line.startsWith("<")) {
+                    String[] parts = line.split("[\\s,]+", 3);
+                    if (parts.length >= 2) {
+                        addEnzyme(names, sites, parts[0], parts[1]);
+                    }
+                }
+            }
+        }
+        logger.info("Read " + names.size() + " enzymes from " + enzymeFile.getName());
+        return new RestrictionSiteScanner(names, sites);
+    }
+
+    private static void addEnzyme(List<String> names, List<String> sites, String name, String site) {
+        site = site.replaceAll("\\(.*?\\)", "").replace("^", "").trim().toUpperCase();
+        if (site.isEmpty() || site.equals("?")) {
+            return;
+        }
+        for (int i = 0; i < site.length(); i++) {
+            if (IUPAC.indexOf(site.charAt(i)) < 0) {
+                logger.warning("Skipping enzyme " + name + " with unknown site " + site);
+                return;
+            }
+        }
+        names.add(name);
+        sites.add(site);
+    }
+
+    /**
+     * Only report enzymes that cut at most this many times. Frequent cutters are usually just noise in the final file.
+     *
+     * @param maxSites The highest number of sites an enzyme may have to be reported.
+     * @return A scanner sharing the automaton of this one with the new limit.
+     */
+    public RestrictionSiteScanner withMaxSitesPerEnzyme(int maxSites) {
+        RestrictionSiteScanner limited = new RestrictionSiteScanner(this);
+        limited.maxSitesPerEnzyme = maxSites;
+        return limited;
+    }
+
+    private RestrictionSiteScanner(RestrictionSiteScanner other) {
+        super();
+        enzymeNames = other.enzymeNames;
+        enzymeSites = other.enzymeSites;
+        enzymeComments = other.enzymeComments;
+        next = other.next;
+        outputs = other.outputs;
+        numWords = other.numWords;
+        baseMasks = other.baseMasks;
+        startBits = other.startBits;
+        endBits = other.endBits;
+        endBitPattern = other.endBitPattern;
+        patternEnzyme = other.patternEnzyme;
+        patternLength = other.patternLength;
+        patternStrand = other.patternStrand;
+        maxPatternLength = other.maxPatternLength;
+        maxSitesPerEnzyme = other.maxSitesPerEnzyme;
+    }
+
+    public int getNumEnzymes() {
+        return enzymeNames.length;
+    }
+
+    /**
+     * Finds all the recognition sites in the sequence of a GCK file.
+     *
+     * @param gckFile The file to search. Its sequence must already have been read.
+     * @return A misc_feature for every site found, labelled with the name of the enzyme.
+     */
+    public List<Feature> scan(GCKFile gckFile) {
+        String sequence = gckFile.getSequence();
+        int length = Math.min(sequence.length(), gckFile.getSequenceLength());
+        //Sites spanning the origin end in the first bases, which are searched again after the end.
+        int end = gckFile.isCircular() ? length + Math.min(length, maxPatternLength - 1) : length;
+        //Every hit is stored as the position of its last base and the pattern found there.
+        int[] hitEnd = new int[64];
+        int[] hitPattern = new int[64];
+        int numHits = 0;
+        int[] siteCounts = new int[enzymeNames.length];
+        int state = 0;
+        long[] matched = new long[numWords]; //the positions of the degenerate sites matched up to the current base
+        for (int i = 0; i < end; i++) {
+            int base = baseCode(sequence.charAt(i < length ? i : i - length));
+            if (base < 0) {
+                state = 0; //No site contains anything other than A, C, G, or T.
+                Arrays.fill(matched, 0);
+                continue;
+            }
+            state = next[4 * state + base];
+            int[] found = outputs[state];
+            int numFound = found.length;
+            long[] baseMask = baseMasks[base];
+            long carry = 0;
+            for (int w = 0; w < numWords; w++) {
+                long bits = matched[w];
+                bits = ((bits << 1) | carry | startBits[w]) & baseMask[w];
+                carry = matched[w] >>> 63;
+                matched[w] = bits;
+                for (long ends = bits & endBits[w]; ends != 0; ends &= ends - 1) {
+                    if (numFound == found.length) {
+                        found = Arrays.copyOf(found, 2 * numFound + 1);
+                    }
+                    found[numFound++] = endBitPattern[64 * w + Long.numberOfTrailingZeros(ends)];
+                }
+            }
+            for (int f = 0; f < numFound; f++) {
+                int pattern = found[f];
+                if (i >= length && i - patternLength[pattern] + 1 >= length) {
+                    continue; //Lies within the first bases, already found at the start.
+                }
+                if (numHits == hitEnd.length) {
+                    hitEnd = Arrays.copyOf(hitEnd, 2 * numHits);
+                    hitPattern = Arrays.copyOf(hitPattern, 2 * numHits);
+                }
+                hitEnd[numHits] = i;
+                hitPattern[numHits++] = pattern;
+                siteCounts[patternEnzyme[pattern]]++;
+            }
+        }
+
+        int numSites = 0;
+        for (int h = 0; h < numHits; h++) {
+            if (siteCounts[patternEnzyme[hitPattern[h]]] <= maxSitesPerEnzyme) {
+                numSites++;
+            }
+        }
+        FeatureTable table = new FeatureTable(numSites);
+        ArrayList<Feature> sites = new ArrayList<Feature>(numSites);
+        for (int h = 0, row = 0; h < numHits; h++) {
+            int pattern = hitPattern[h];
+            int enzyme = patternEnzyme[pattern];
+            if (siteCounts[enzyme] > maxSitesPerEnzyme) {
+                continue;
+            }
+            Feature site = new Feature(table, row++);
+            site.setStart(hitEnd[h] - patternLength[pattern] + 2);
+            //A site spanning the origin ends before it starts.
+            site.setEnd(hitEnd[h] < length ? hitEnd[h] + 1 : hitEnd[h] - length + 1);
+            site.setName(enzymeNames[enzyme]);
+            site.setComment(enzymeComments[enzyme]);
+            site.setStrand(patternStrand[pattern]);
+            site.setType(Region.RegionType.MISC_FEATURE);
+            sites.add(site);
+        }
+        logger.info("Found " + sites.size() + " restriction sites.");
+        return sites;
+    }
+
+    /**
+     * Splits the recognition sites of both strands into plain and degenerate patterns, and builds the automaton
+     * and the shift-and masks from them. The plain patterns are numbered first.
+     */
+    private void buildAutomaton() {
+        ArrayList<String> patterns = new ArrayList<String>();
+        ArrayList<Integer> enzymes = new ArrayList<Integer>();
+        ArrayList<Feature.Strand> strands = new ArrayList<Feature.Strand>();
+        ArrayList<String> degenerate = new ArrayList<String>();
+        ArrayList<Integer> degenerateEnzymes = new ArrayList<Integer>();
+        ArrayList<Feature.Strand> degenerateStrands = new ArrayList<Feature.Strand>();
+        for (int e = 0; e < enzymeSites.length; e++) {
+            String site = enzymeSites[e].replace('U', 'T');
+            String reverse = reverseComplement(site);
+            boolean palindrome = site.equals(reverse);
+            boolean plain = isPlain(site);
+            (plain ? patterns : degenerate).add(site);
+            (plain ? enzymes : degenerateEnzymes).add(e);
+            (plain ? strands : degenerateStrands).add(palindrome ? Feature.Strand.BOTH : Feature.Strand.FORWARD);
+            if (!palindrome) {
+                (plain ? patterns : degenerate).add(reverse);
+                (plain ? enzymes : degenerateEnzymes).add(e);
+                (plain ? strands : degenerateStrands).add(Feature.Strand.REVERSE);
+            }
+        }
+        int numPatterns = patterns.size() + degenerate.size();
+        patternEnzyme = new int[numPatterns];
+        patternLength = new int[numPatterns];
+        patternStrand = new Feature.Strand[numPatterns];
+        maxPatternLength = 1;
+
+        //Build the trie. Each state has four transitions, one for every base.
+        int maxStates = 1;
+        for (String p : patterns) {
+            maxStates += p.length();
+        }
+        int[] trie = new int[4 * maxStates];
+        Arrays.fill(trie, -1);
+        ArrayList<int[]> stateOutputs = new ArrayList<int[]>();
+        stateOutputs.add(NO_OUTPUT);
+        int numStates = 1;
+        for (int p = 0; p < patterns.size(); p++) {
+            String pattern = patterns.get(p);
+            patternEnzyme[p] = enzymes.get(p);
+            patternLength[p] = pattern.length();
+            patternStrand[p] = strands.get(p);
+            maxPatternLength = Math.max(maxPatternLength, pattern.length());
+            int state = 0;
+            for (int i = 0; i < pattern.length(); i++) {
+                int base = baseCode(pattern.charAt(i));
+                if (trie[4 * state + base] < 0) {
+                    trie[4 * state + base] = numStates++;
+                    stateOutputs.add(NO_OUTPUT);
+                }
+                state = trie[4 * state + base];
+            }
+            stateOutputs.set(state, append(stateOutputs.get(state), p));
+        }
+
+        //Add the failure transitions breadth first, turning the trie into a complete automaton.
+        next = Arrays.copyOf(trie, 4 * numStates);
+        int[] fail = new int[numStates];
+        ArrayDeque<Integer> queue = new ArrayDeque<Integer>();
+        for (int base = 0; base < 4; base++) {
+            if (next[base] < 0) {
+                next[base] = 0;
+            } else {
+                fail[next[base]] = 0;
+                queue.add(next[base]);
+            }
+        }
+        while (!queue.isEmpty()) {
+            int state = queue.poll();
+            //Sites found through the failure link end at the same position as the ones of the state itself.
+            stateOutputs.set(state, concat(stateOutputs.get(state), stateOutputs.get(fail[state])));
+            for (int base = 0; base < 4; base++) {
+                int child = next[4 * state + base];
+                if (child < 0) {
+                    next[4 * state + base] = next[4 * fail[state] + base];
+                } else {
+                    fail[child] = next[4 * fail[state] + base];
+                    queue.add(child);
+                }
+            }
+        }
+        outputs = stateOutputs.toArray(new int[numStates][]);
+
+        //Give every position of the degenerate patterns a bit, one pattern after the other.
+        int numBits = 0;
+        for (String p : degenerate) {
+            numBits += p.length();
+        }
+        numWords = (numBits + 63) / 64;
+        baseMasks = new long[4][numWords];
+        startBits = new long[numWords];
+        endBits = new long[numWords];
+        endBitPattern = new int[64 * numWords];
+        int bit = 0;
+        for (int d = 0; d < degenerate.size(); d++) {
+            String pattern = degenerate.get(d);
+            int p = patterns.size() + d;
+            patternEnzyme[p] = degenerateEnzymes.get(d);
+            patternLength[p] = pattern.length();
+            patternStrand[p] = degenerateStrands.get(d);
+            maxPatternLength = Math.max(maxPatternLength, pattern.length());
+            startBits[bit >>> 6] |= 1L << bit;
+            for (int i = 0; i < pattern.length(); i++, bit++) {
+                String bases = IUPAC_BASES[IUPAC.indexOf(pattern.charAt(i))];
+                for (int b = 0; b < bases.length(); b++) {
+                    baseMasks[baseCode(bases.charAt(b))][bit >>> 6] |= 1L << bit;
+                }
+            }
+            endBits[(bit - 1) >>> 6] |= 1L << (bit - 1);
+            endBitPattern[bit - 1] = p;
+        }
+        logger.info("Restriction site automaton built with " + patterns.size() + " patterns and " + numStates
+                + " states, and " + degenerate.size() + " degenerate patterns matched on " + numBits + " bits.");
+    }
+
+    /**
+     * @param site A recognition site.
+     * @return True if the site only contains A, C, G and T.
+     */
+    private static boolean isPlain(String site) {
+        for (int i = 0; i < site.length(); i++) {
+            if (baseCode(site.charAt(i)) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param site A sequence, possibly containing IUPAC codes.
+     * @return The reverse complement of the sequence.
+     */
+    static String reverseComplement(String site) {
+        char[] c = new char[site.length()];
+        for (int i = 0; i < c.length; i++) {
+            c[c.length - 1 - i] = IUPAC_COMPLEMENT.charAt(IUPAC.indexOf(site.charAt(i)));
+        }
+        return String.valueOf(c);
+    }
+
+    private static int baseCode(char base) {
+        switch (base) {
+            case 'A': case 'a': return 0;
+            case 'C': case 'c': return 1;
+            case 'G': case 'g': return 2;
+            case 'T': case 't': return 3;
+            default: return -1;
+        }
+    }
+
+    private static int[] append(int[] array, int value) {
+        int[] longer = Arrays.copyOf(array, array.length + 1);
+        longer[array.length] = value;
+        return longer;
+    }
+
+    private static int[] concat(int[] a, int[] b) {
+        if (b.length == 0) {
+            return a;
+        }
+        int[] both = Arrays.copyOf(a, a.length + b.length);
+        System.arraycopy(b, 0, both, a.length, b.length);
+        return both;
+    }
+
+    private final String[] enzymeNames;
+    private final String[] enzymeSites;
+    private final String[] enzymeComments;
+    private int[] next; //transitions of the automaton, four per state
+    private int[][] outputs; //the patterns ending in each state
+    private int numWords; //the longs holding a bit for every position of the degenerate patterns
+    private long[][] baseMasks; //for every base, the positions of the degenerate patterns it fits
+    private long[] startBits; //the first position of every degenerate pattern
+    private long[] endBits; //the last position of every degenerate pattern
+    private int[] endBitPattern; //the pattern ending at each bit
+    private int[] patternEnzyme;
+    private int[] patternLength;
+    private Feature.Strand[] patternStrand;
+    private int maxPatternLength;
+    private int maxSitesPerEnzyme;
+    private final static Logger logger = Logger.getLogger("GCK_Converter_logger");
+
+    /***** CONSTANTS *****/
+    private final static int[] NO_OUTPUT = new int[0];
+    private final static String IUPAC = "ACGTURYSWKMBDHVN";
+    private final static String IUPAC_COMPLEMENT = "TGCAAYRSWMKVHDBN";
+    private final static String[] IUPAC_BASES = {"A", "C", "G", "T", "T", "AG", "CT", "CG", "AT", "GT", "AC", "CGT", "AGT", "ACT", "ACG", "ACGT"};
+}
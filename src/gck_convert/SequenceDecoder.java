@@ -0,0 +1,134 @@
+package gck_convert;
+
+import gckfilestructure.SequenceStatistics;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Turns the bytes of a sequence read from a GCK file into a string, validating and counting the bases on the way.
+ *
+ * Bytes are decoded as ISO-8859-1, one byte per character without sign extension, so the string is a plain copy of
+ * the bytes. Before that the bytes are checked in one pass, eight at a time: the bytes of a word are compared with
+ * A, C, G and T in all eight positions at once using bit operations, and a word made only of these bases is counted
+ * and, if asked for, put in lower case without looking at its bytes one by one. Only words holding anything else go
+ * through the per byte tables, which also sort out the other IUPAC codes and invalid characters.
+ *
+ * @author Matyas Medzihradszky
+ * @version 0.1
+ */
+public class SequenceDecoder {
+
+    /**
+     * Constructor.
+     *
+     * @param lowerCase Whether the letters of the sequence should be put in lower case.
+     */
+    public SequenceDecoder(boolean lowerCase) {
+        super();
+        this.lowerCase = lowerCase;
+    }
+
+    /**
+     * Decodes a sequence. The statistics of the sequence are available from getStatistics afterwards.
+     *
+     * @param bytes The sequence as read from the file. Changed in place if the case is normalised.
+     * @param length The number of bytes to decode.
+     * @return The sequence.
+     */
+    public String decode(byte[] bytes, int length) {
+        long[] counts = new long[NUM_CLASSES];
+        long a = 0, c = 0, g = 0, t = 0;
+        firstInvalid = -1;
+        ByteBuffer words = ByteBuffer.wrap(bytes);
+        int i = 0;
+        for (; i + 8 <= length; i += 8) {
+            long folded = words.getLong(i) | CASE_BITS;
+            int na = Long.bitCount(zeroBytes(folded ^ ALL_A));
+            int nc = Long.bitCount(zeroBytes(folded ^ ALL_C));
+            int ng = Long.bitCount(zeroBytes(folded ^ ALL_G));
+            int nt = Long.bitCount(zeroBytes(folded ^ ALL_T));
+            if (na + nc + ng + nt == 8) {
+                a += na;
+                c += nc;
+                g += ng;
+                t += nt;
+                if (lowerCase) {
+                    words.putLong(i, folded);
+                }
+            } else {
+                decodeBytes(bytes, i, i + 8, counts);
+            }
+        }
+        decodeBytes(bytes, i, length, counts);
+        statistics = new SequenceStatistics(a + counts[A], c + counts[C], g + counts[G], t + counts[T], counts[N],
+                counts[AMBIGUOUS], counts[INVALID], firstInvalid);
+        return new String(bytes, 0, length, StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Classifies and counts a range of bytes one by one.
+     */
+    private void decodeBytes(byte[] bytes, int from, int to, long[] counts) {
+        for (int i = from; i < to; i++) {
+            int b = bytes[i] & 0xff;
+            int type = CLASSES[b];
+            counts[type]++;
+            if (type == INVALID) {
+                if (firstInvalid < 0) {
+                    firstInvalid = i;
+                }
+            } else if (lowerCase) {
+                bytes[i] = (byte) (b | 0x20);
+            }
+        }
+    }
+
+    /**
+     * Marks the bytes of a word that are zero with their highest bit, and clears every other bit.
+     */
+    private static long zeroBytes(long word) {
+        return ~(((word & LOW_BITS) + LOW_BITS) | word | LOW_BITS);
+    }
+
+    /**
+     * @return The statistics of the last decoded sequence.
+     */
+    public SequenceStatistics getStatistics() {
+        return statistics;
+    }
+
+    private final boolean lowerCase;
+    private SequenceStatistics statistics;
+    private long firstInvalid;
+
+    /***** CONSTANTS *****/
+    private final static int A = 0;
+    private final static int C = 1;
+    private final static int G = 2;
+    private final static int T = 3;
+    private final static int N = 4;
+    private final static int AMBIGUOUS = 5;
+    private final static int INVALID = 6;
+    private final static int NUM_CLASSES = 7;
+    private final static long LOW_BITS = 0x7F7F7F7F7F7F7F7FL;
+    private final static long CASE_BITS = 0x2020202020202020L; //sets every letter of a word to lower case
+    private final static long ALL_A = 0x6161616161616161L;
+    private final static long ALL_C = 0x6363636363636363L;
+    private final static long ALL_G = 0x6767676767676767L;
+    private final static long ALL_T = 0x7474747474747474L;
+    private final static int[] CLASSES = new int[256]; //class of every byte value
+    static {
+        Arrays.fill(CLASSES, INVALID);
+        for (char base : "RYSWKMBDHVU".toCharArray()) {
+            CLASSES[base] = AMBIGUOUS;
+            CLASSES[Character.toLowerCase(base)] = AMBIGUOUS;
+        }
+        String bases = "ACGTN";
+        for (int i = 0; i < bases.length(); i++) {
+            CLASSES[bases.charAt(i)] = i;
+            CLASSES[Character.toLowerCase(bases.charAt(i))] = i;
+        }
+    }
+}
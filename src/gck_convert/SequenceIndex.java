@@ -0,0 +1,624 @@
+package gck_convert;
+
+import gckfilestructure.Feature;
+import gckfilestructure.GCKFile;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+
+/**
+ * A k-mer index of the sequences of a collection of GCK files, answering which files contain a sequence.
+ *
+ * Every sequence is cut into k-mers of K bases, each taken on the strand where it sorts first, so a sequence and its
+ * reverse complement give the same k-mers. Of every W neighbouring k-mers only the one with the smallest hash, the
+ * minimizer, is kept. A sequence of at least K + W - 1 bases found in a file has all its minimizers among the
+ * minimizers of the file, so the files holding all the minimizers of a query are the only candidates; these are then
+ * read and searched for the query on both strands. The k-mers of a circular sequence run on across its origin, so a
+ * query found across the origin is found too.
+ *
+ * The index is a single file that is memory mapped when queried. It holds a table of the indexed files, an open
+ * addressing hash table of the minimizers with, for every minimizer, the first of its postings and their number, and
+ * the postings themselves, the files every minimizer is found in. It is updated like a FeatureIndex: the minimizers
+ * of the files that have not changed are taken from the previous index and only new and changed files are read.
+ *
+ * @author Matyas Medzihradszky
+ * @version 0.1
+ */
+public class SequenceIndex {
+
+    /**
+     * An occurrence of a query found in a file.
+     */
+    public static class Hit {
+        private Hit(String file, int start, int end, Feature.Strand strand, int sequenceLength) {
+            this.file = file;
+            this.start = start;
+            this.end = end;
+            this.strand = strand;
+            this.sequenceLength = sequenceLength;
+        }
+
+        public String getFile() {
+            return file;
+        }
+
+        /**
+         * @return The 1 based position of the first base of the occurrence.
+         */
+        public int getStart() {
+            return start;
+        }
+
+        /**
+         * @return The 1 based position of the last base of the occurrence, smaller than the start if it runs across the
+         * origin of a circular sequence.
+         */
+        public int getEnd() {
+            return end;
+        }
+
+        public Feature.Strand getStrand() {
+            return strand;
+        }
+
+        public int getSequenceLength() {
+            return sequenceLength;
+        }
+
+        private final String file;
+        private final int start;
+        private final int end;
+        private final Feature.Strand strand;
+        private final int sequenceLength;
+    }
+
+    private SequenceIndex(File indexFile, ByteBuffer image) throws IOException {
+        super();
+        this.indexFile = indexFile;
+        this.image = image;
+        if (image.capacity() < HEADER_LENGTH || image.getInt(0) != MAGIC) {
+            throw new IOException(indexFile.getName() + " is not a sequence index.");
+        }
+        if (image.getInt(4) != VERSION) {
+            throw new IOException(indexFile.getName() + " is a sequence index of an unsupported version.");
+        }
+        k = image.getInt(8);
+        w = image.getInt(12);
+        numDocuments = image.getInt(16);
+        tableCapacity = image.getInt(20);
+        numPostings = image.getInt(24);
+        documentsOffset = image.getInt(28);
+        tableOffset = image.getInt(32);
+        postingsOffset = image.getInt(36);
+        int stringsOffset = image.getInt(40);
+        int stringsLength = image.getInt(44);
+        if ((long) stringsOffset + 2L * stringsLength != image.capacity() || Integer.bitCount(tableCapacity) != 1) {
+            throw new IOException(indexFile.getName() + " is cut short.");
+        }
+        ByteBuffer stringBytes = image.duplicate();
+        stringBytes.position(stringsOffset);
+        strings = stringBytes.slice().asCharBuffer();
+    }
+
+    /**
+     * Maps an index for querying.
+     *
+     * @param indexFile The index file.
+     * @return The index.
+     * @throws IOException Thrown if the file cannot be read or is not a valid index.
+     */
+    public static SequenceIndex open(File indexFile) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(indexFile, "r")) {
+            if (file.length() > Integer.MAX_VALUE) {
+                throw new IOException(indexFile.getName() + " is too large to be mapped.");
+            }
+            return new SequenceIndex(indexFile, file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length()));
+        }
+    }
+
+    /**
+     * Finds the files that may contain a sequence, on either strand. Every file containing it is among them.
+     *
+     * @param query The sequence, of A, C, G and T only.
+     * @return The indexes of the candidate files. All the files if the query is too short to use the index.
+     */
+    public int[] findCandidates(String query) {
+        if (query.length() < getMinimumQueryLength()) {
+            int[] all = new int[numDocuments];
+            for (int d = 0; d < numDocuments; d++) {
+                all[d] = d;
+            }
+            return all;
+        }
+        int[] keys = minimizers(query, query.length(), false, k, w);
+        int[] counts = new int[numDocuments];
+        for (int key : keys) {
+            int slot = findSlot(key);
+            if (slot < 0) {
+                return new int[0];
+            }
+            int position = tableOffset + slot * SLOT_SIZE;
+            int first = image.getInt(position + 4);
+            int count = image.getInt(position + 8);
+            for (int p = first; p < first + count; p++) {
+                counts[image.getInt(postingsOffset + p * POSTING_SIZE)]++;
+            }
+        }
+        int numCandidates = 0;
+        int[] candidates = new int[numDocuments];
+        for (int d = 0; d < numDocuments; d++) {
+            if (counts[d] == keys.length) {
+                candidates[numCandidates++] = d;
+            }
+        }
+        return Arrays.copyOf(candidates, numCandidates);
+    }
+
+    /**
+     * Finds every occurrence of a sequence, on either strand, reading only the candidate files.
+     *
+     * @param query The sequence, of A, C, G and T only, in any case.
+     * @return The occurrences found, in the order of the indexed files.
+     * @throws IllegalArgumentException Thrown if the query contains anything other than A, C, G and T.
+     */
+    public List<Hit> find(String query) {
+        String forward = query.toUpperCase(Locale.ENGLISH);
+        for (int i = 0; i < forward.length(); i++) {
+            if (forward.charAt(i) >= BASE_CODES.length || BASE_CODES[forward.charAt(i)] < 0) {
+                throw new IllegalArgumentException("The query may only contain A, C, G and T: " + query);
+            }
+        }
+        String reverse = RestrictionSiteScanner.reverseComplement(forward);
+        List<Hit> hits = new ArrayList<Hit>();
+        if (forward.isEmpty()) {
+            return hits;
+        }
+        for (int document : findCandidates(forward)) {
+            String path = string(image.getInt(documentsOffset + document * DOCUMENT_SIZE));
+            GCKFile gckFile = BatchConverter.newGCKFile(new File(path));
+            try {
+                new GCKFileAnalyzer(gckFile).readGCKFile();
+            } catch (IOException ex) {
+                logger.warning("Candidate " + path + " cannot be read: " + ex.getMessage());
+                continue;
+            }
+            String sequence = gckFile.getSequence();
+            int length = Math.min(sequence.length(), gckFile.getSequenceLength());
+            String text = sequence.substring(0, length).toUpperCase(Locale.ENGLISH);
+            if (gckFile.isCircular()) {
+                text += text.substring(0, Math.min(length, forward.length() - 1));
+            }
+            addOccurrences(path, text, length, forward, Feature.Strand.FORWARD, hits);
+            if (!reverse.equals(forward)) {
+                addOccurrences(path, text, length, reverse, Feature.Strand.REVERSE, hits);
+            }
+        }
+        return hits;
+    }
+
+    private static void addOccurrences(String path, String text, int length, String pattern, Feature.Strand strand, List<Hit> hits) {
+        for (int at = text.indexOf(pattern); at >= 0 && at < length; at = text.indexOf(pattern, at + 1)) {
+            hits.add(new Hit(path, at + 1, (at + pattern.length() - 1) % length + 1, strand, length));
+        }
+    }
+
+    /**
+     * @return The slot of a key in the hash table, or -1 if it is not there.
+     */
+    private int findSlot(int key) {
+        int mask = tableCapacity - 1;
+        for (int slot = hash(key) & mask; ; slot = (slot + 1) & mask) {
+            int stored = image.getInt(tableOffset + slot * SLOT_SIZE);
+            if (stored == key) {
+                return slot;
+            } else if (stored == EMPTY) {
+                return -1;
+            }
+        }
+    }
+
+    private String string(int ref) {
+        char[] chars = new char[strings.get(ref)];
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = strings.get(ref + 1 + i);
+        }
+        return new String(chars);
+    }
+
+    /**
+     * @param document The index of a file.
+     * @return The path of the file.
+     */
+    public String getFile(int document) {
+        return string(image.getInt(documentsOffset + document * DOCUMENT_SIZE));
+    }
+
+    /**
+     * @return The length of the shortest query the index narrows down; shorter queries search every file.
+     */
+    public int getMinimumQueryLength() {
+        return k + w - 1;
+    }
+
+    public int getNumDocuments() {
+        return numDocuments;
+    }
+
+    public int getNumPostings() {
+        return numPostings;
+    }
+
+    public File getIndexFile() {
+        return indexFile;
+    }
+
+    /**
+     * Finds the minimizers of a sequence.
+     *
+     * @param sequence The sequence. K-mers holding anything other than A, C, G and T are skipped.
+     * @param length The number of bases of the sequence.
+     * @param circular Whether the k-mers run on across the end of the sequence to its start.
+     * @return The distinct minimizers, sorted.
+     */
+    static int[] minimizers(String sequence, int length, boolean circular, int k, int w) {
+        int extra = circular ? Math.min(length, k + w - 2) : 0;
+        int[] kmers = new int[length + extra];
+        int mask = (1 << (2 * k)) - 1;
+        int forward = 0;
+        int reverse = 0;
+        int valid = 0;
+        for (int i = 0; i < length + extra; i++) {
+            char base = sequence.charAt(i < length ? i : i - length);
+            int code = base < 0x80 ? BASE_CODES[base] : -1;
+            if (code < 0) {
+                valid = 0;
+                kmers[i] = EMPTY;
+                continue;
+            }
+            forward = ((forward << 2) | code) & mask;
+            reverse = (reverse >>> 2) | ((3 - code) << (2 * (k - 1)));
+            valid++;
+            kmers[i] = valid >= k ? Math.min(forward, reverse) : EMPTY;
+        }
+        int[] found = new int[16];
+        int numFound = 0;
+        int last = EMPTY;
+        for (int end = k + w - 2; end < kmers.length; end++) {
+            int minimum = EMPTY;
+            for (int i = end - w + 1; i <= end; i++) {
+                if (kmers[i] != EMPTY && (minimum == EMPTY || hash(kmers[i]) < hash(minimum)
+                        || hash(kmers[i]) == hash(minimum) && kmers[i] < minimum)) {
+                    minimum = kmers[i];
+                }
+            }
+            if (minimum != EMPTY && minimum != last) {
+                if (numFound == found.length) {
+                    found = Arrays.copyOf(found, 2 * numFound);
+                }
+                found[numFound++] = minimum;
+                last = minimum;
+            }
+        }
+        return sortedDistinct(found, numFound);
+    }
+
+    private static int[] sortedDistinct(int[] keys, int length) {
+        Arrays.sort(keys, 0, length);
+        int distinct = 0;
+        for (int i = 0; i < length; i++) {
+            if (distinct == 0 || keys[i] != keys[distinct - 1]) {
+                keys[distinct++] = keys[i];
+            }
+        }
+        return Arrays.copyOf(keys, distinct);
+    }
+
+    private static int hash(int key) {
+        int h = key * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & Integer.MAX_VALUE;
+    }
+
+    /**
+     * The minimizers of one indexed file, kept while an index is built.
+     */
+    private static class Document {
+        Document(File file, int sequenceLength, boolean circular, int[] keys) {
+            path = file.getPath();
+            length = file.length();
+            modified = file.lastModified();
+            this.sequenceLength = sequenceLength;
+            this.circular = circular;
+            this.keys = keys;
+        }
+
+        final String path;
+        final long length;
+        final long modified;
+        final int sequenceLength;
+        final boolean circular;
+        final int[] keys;
+    }
+
+    /**
+     * Builds the index of a collection of GCK files, or updates an existing one.
+     *
+     * @param indexFile The index to write. An existing index is used to skip the files that have not changed.
+     * @param inputs The GCK files to index.
+     * @param threads The number of threads reading files.
+     * @return What was done.
+     * @throws IOException Thrown if the index cannot be written.
+     */
+    public static FeatureIndex.UpdateResult update(File indexFile, List<File> inputs, int threads) throws IOException {
+        SequenceIndex previous = null;
+        Map<String, Integer> previousDocuments = new HashMap<String, Integer>();
+        if (indexFile.isFile()) {
+            try {
+                previous = open(indexFile);
+                if (previous.k != K || previous.w != W) {
+                    throw new IOException("it uses other k-mers");
+                }
+                for (int d = 0; d < previous.numDocuments; d++) {
+                    previousDocuments.put(previous.getFile(d), d);
+                }
+            } catch (IOException ex) {
+                logger.warning("The previous index " + indexFile.getName() + " cannot be used, building it again: " + ex.getMessage());
+                previous = null;
+            }
+        }
+
+        Document[] documents = new Document[inputs.size()];
+        int[] reusedFrom = new int[previous != null ? previous.numDocuments : 0];
+        Arrays.fill(reusedFrom, -1);
+        List<Future<Document>> reads = new ArrayList<Future<Document>>();
+        List<Integer> readIndices = new ArrayList<Integer>();
+        ExecutorService workers = Executors.newFixedThreadPool(Math.max(1, threads));
+        int numReused = 0;
+        for (int i = 0; i < inputs.size(); i++) {
+            final File input = inputs.get(i);
+            Integer old = previousDocuments.remove(input.getPath());
+            if (old != null && previous.isUnchanged(old, input)) {
+                reusedFrom[old] = i;
+                numReused++;
+            } else {
+                reads.add(workers.submit(() -> readDocument(input)));
+                readIndices.add(i);
+            }
+        }
+        if (numReused > 0) {
+            previous.copyDocuments(inputs, reusedFrom, documents);
+        }
+        int numFailed = 0;
+        try {
+            for (int r = 0; r < reads.size(); r++) {
+                try {
+                    documents[readIndices.get(r)] = reads.get(r).get();
+                } catch (ExecutionException ex) {
+                    logger.severe("Failed to index " + inputs.get(readIndices.get(r)).getName() + ": " + ex.getCause());
+                    numFailed++;
+                }
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while indexing.");
+        } finally {
+            workers.shutdownNow();
+        }
+
+        File temporary = BatchConverter.temporaryFileFor(indexFile);
+        try {
+            write(temporary, documents);
+        } catch (IOException ex) {
+            Files.deleteIfExists(temporary.toPath());
+            throw ex;
+        }
+        BatchConverter.moveIntoPlace(temporary, indexFile);
+        return new FeatureIndex.UpdateResult(numReused, reads.size() - numFailed, numFailed, previousDocuments.size());
+    }
+
+    private boolean isUnchanged(int document, File input) {
+        int position = documentsOffset + document * DOCUMENT_SIZE;
+        return image.getLong(position + 16) == input.length() && image.getLong(position + 24) == input.lastModified();
+    }
+
+    /**
+     * Copies the minimizers of the unchanged files from the index, going through the hash table once.
+     *
+     * @param reusedFrom For every file of the index, the index of the input it is copied to, or -1.
+     */
+    private void copyDocuments(List<File> inputs, int[] reusedFrom, Document[] documents) {
+        int[][] keys = new int[numDocuments][];
+        int[] numKeys = new int[numDocuments];
+        for (int slot = 0; slot < tableCapacity; slot++) {
+            int position = tableOffset + slot * SLOT_SIZE;
+            int key = image.getInt(position);
+            if (key == EMPTY) {
+                continue;
+            }
+            int first = image.getInt(position + 4);
+            int count = image.getInt(position + 8);
+            for (int p = first; p < first + count; p++) {
+                int d = image.getInt(postingsOffset + p * POSTING_SIZE);
+                if (reusedFrom[d] < 0) {
+                    continue;
+                }
+                if (keys[d] == null) {
+                    keys[d] = new int[16];
+                } else if (numKeys[d] == keys[d].length) {
+                    keys[d] = Arrays.copyOf(keys[d], 2 * numKeys[d]);
+                }
+                keys[d][numKeys[d]++] = key;
+            }
+        }
+        for (int d = 0; d < numDocuments; d++) {
+            if (reusedFrom[d] >= 0) {
+                int position = documentsOffset + d * DOCUMENT_SIZE;
+                documents[reusedFrom[d]] = new Document(inputs.get(reusedFrom[d]), image.getInt(position + 4),
+                        image.getInt(position + 8) != 0, sortedDistinct(keys[d] != null ? keys[d] : new int[0], numKeys[d]));
+            }
+        }
+    }
+
+    private static Document readDocument(File input) throws IOException {
+        GCKFile gckFile = BatchConverter.newGCKFile(input);
+        new GCKFileAnalyzer(gckFile).readGCKFile();
+        String sequence = gckFile.getSequence();
+        int length = Math.min(sequence.length(), gckFile.getSequenceLength());
+        return new Document(input, length, gckFile.isCircular(), minimizers(sequence, length, gckFile.isCircular(), K, W));
+    }
+
+    /**
+     * Writes an index of the documents. Files that could not be read are null and left out.
+     */
+    private static void write(File file, Document[] all) throws IOException {
+        List<Document> documents = new ArrayList<Document>(all.length);
+        long numPairs = 0;
+        for (Document d : all) {
+            if (d != null) {
+                documents.add(d);
+                numPairs += d.keys.length;
+            }
+        }
+        if (numPairs > Integer.MAX_VALUE / POSTING_SIZE) {
+            throw new IOException("The index of " + documents.size() + " files is too large to be mapped.");
+        }
+        //Every pair of a minimizer and a file, sorted by minimizer and then file.
+        long[] pairs = new long[(int) numPairs];
+        int numPostings = 0;
+        for (int d = 0; d < documents.size(); d++) {
+            for (int key : documents.get(d).keys) {
+                pairs[numPostings++] = (long) key << 32 | d;
+            }
+        }
+        Arrays.sort(pairs);
+        int numKeys = 0;
+        for (int p = 0; p < numPostings; p++) {
+            if (p == 0 || pairs[p] >>> 32 != pairs[p - 1] >>> 32) {
+                numKeys++;
+            }
+        }
+        int tableCapacity = Integer.highestOneBit(Math.max(8, numKeys)) * 2;
+        if (tableCapacity < 0 || (long) tableCapacity * SLOT_SIZE > Integer.MAX_VALUE / 2) {
+            throw new IOException("The index of " + documents.size() + " files is too large to be mapped.");
+        }
+        int[] table = new int[3 * tableCapacity];
+        for (int slot = 0; slot < tableCapacity; slot++) {
+            table[3 * slot] = EMPTY;
+        }
+        for (int p = 0; p < numPostings; ) {
+            int key = (int) (pairs[p] >>> 32);
+            int count = 1;
+            while (p + count < numPostings && (int) (pairs[p + count] >>> 32) == key) {
+                count++;
+            }
+            int slot = hash(key) & (tableCapacity - 1);
+            while (table[3 * slot] != EMPTY) {
+                slot = (slot + 1) & (tableCapacity - 1);
+            }
+            table[3 * slot] = key;
+            table[3 * slot + 1] = p;
+            table[3 * slot + 2] = count;
+            p += count;
+        }
+
+        StringBuilder stringArea = new StringBuilder();
+        Map<String, Integer> stringRefs = new HashMap<String, Integer>();
+        int documentsOffset = HEADER_LENGTH;
+        int tableOffset = documentsOffset + documents.size() * DOCUMENT_SIZE;
+        int postingsOffset = tableOffset + tableCapacity * SLOT_SIZE;
+        long stringsOffset = postingsOffset + (long) numPostings * POSTING_SIZE;
+        if (stringsOffset > Integer.MAX_VALUE) {
+            throw new IOException("The index of " + documents.size() + " files is too large to be mapped.");
+        }
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(K);
+            out.writeInt(W);
+            out.writeInt(documents.size());
+            out.writeInt(tableCapacity);
+            out.writeInt(numPostings);
+            out.writeInt(documentsOffset);
+            out.writeInt(tableOffset);
+            out.writeInt(postingsOffset);
+            out.writeInt((int) stringsOffset);
+            out.writeInt(0); //the length of the strings, filled in at the end
+
+            for (Document document : documents) {
+                out.writeInt(FeatureIndex.addString(stringArea, stringRefs, document.path));
+                out.writeInt(document.sequenceLength);
+                out.writeInt(document.circular ? 1 : 0);
+                out.writeInt(0);
+                out.writeLong(document.length);
+                out.writeLong(document.modified);
+            }
+            for (int value : table) {
+                out.writeInt(value);
+            }
+            for (int p = 0; p < numPostings; p++) {
+                out.writeInt((int) pairs[p]);
+            }
+            if (stringsOffset + 2L * stringArea.length() > Integer.MAX_VALUE) {
+                throw new IOException("The index of " + documents.size() + " files is too large to be mapped.");
+            }
+            out.writeChars(stringArea.toString());
+        }
+        try (RandomAccessFile patch = new RandomAccessFile(file, "rw")) {
+            patch.seek(HEADER_LENGTH - 4);
+            patch.writeInt(stringArea.length());
+        }
+    }
+
+    private final File indexFile;
+    private final ByteBuffer image; //the mapped index, see write for the layout
+    private final CharBuffer strings;
+    private final int k;
+    private final int w;
+    private final int numDocuments;
+    private final int tableCapacity;
+    private final int numPostings;
+    private final int documentsOffset;
+    private final int tableOffset;
+    private final int postingsOffset;
+    private final static Logger logger = Logger.getLogger("GCK_Converter_logger");
+
+    /***** CONSTANTS *****/
+    public final static String INDEX_EXTENSION = ".gsi";
+    public final static int K = 13; //bases in a k-mer, two bits each
+    public final static int W = 6; //k-mers a minimizer is chosen from
+    private final static int MAGIC = 0x47434B53; //"GCKS"
+    private final static int VERSION = 1;
+    private final static int HEADER_LENGTH = 48;
+    private final static int DOCUMENT_SIZE = 32; //path, sequence length, circular, unused, length, modification time
+    private final static int SLOT_SIZE = 12; //minimizer, first posting, number of postings
+    private final static int POSTING_SIZE = 4; //document
+    private final static int EMPTY = -1; //an unused slot of the hash table, or a position without a k-mer
+    private final static int[] BASE_CODES = new int[128];
+    static {
+        Arrays.fill(BASE_CODES, -1);
+        String bases = "ACGT";
+        for (int i = 0; i < bases.length(); i++) {
+            BASE_CODES[bases.charAt(i)] = i;
+            BASE_CODES[Character.toLowerCase(bases.charAt(i))] = i;
+        }
+    }
+}
@@ -2,6 +2,7 @@ package gckfilestructure;
 
 /**
  * A Feature is a special Region. It has a name, a direction, and a type. Otherwise it is the same as a Region.
+ * Like a Region, it is a view onto a row of a FeatureTable.
  *
  * @author Matyas Medzihradszky
  * @version 0.1
@@ -12,7 +13,7 @@ public class Feature extends Region {
      * Constructor
      */
     public Feature() {
-        this(0,0,(byte)0, (byte)0, (byte)0, true, "", "", Strand.FORWARD, RegionType.GENE);
+        this(new FeatureTable(1), 0);
     }
 
     /**
@@ -52,7 +53,7 @@ public class Feature extends Region {
      * @param type
      */
     public Feature(int start, int end, byte red, byte green, byte blue, boolean toDisplay, String name, String comment, Strand strand, RegionType type) {
-        super();
+        this();
         setStart(start);
         setEnd(end);
         setColourRed(red);
@@ -65,63 +66,81 @@ public class Feature extends Region {
         setType(type);
     }
 
+    /**
+     * Creates a view of a feature stored in a FeatureTable. Changes made through the view are stored in the table.
+     *
+     * @param table The table holding the feature.
+     * @param index The index of the feature in the table.
+     */
+    public Feature(FeatureTable table, int index) {
+        super(table, index);
+        this.features = table;
+    }
+
     public String getName() {
-        return name;
+        return features.getName(index);
     }
 
     public void setName(String name) {
-        this.name = name;
+        features.setName(index, name);
     }
 
     public Strand getStrand() {
-        return strand;
+        return features.getStrand(index);
     }
 
     public void setStrand(Strand strand) {
-        this.strand = strand;
+        features.setStrand(index, strand);
     }
     
     public void setStrand(byte btStrand) {
         switch (btStrand) {
-            case 0: this.strand = Strand.NONE; break;
-            case 1: this.strand = Strand.REVERSE; break;
-            case 2: this.strand = Strand.FORWARD; break;
-            case 3: this.strand = Strand.BOTH; break;
-            default: this.strand = Strand.FORWARD;
+            case 0: setStrand(Strand.NONE); break;
+            case 1: setStrand(Strand.REVERSE); break;
+            case 2: setStrand(Strand.FORWARD); break;
+            case 3: setStrand(Strand.BOTH); break;
+            default: setStrand(Strand.FORWARD);
         }
     }
 
     public Region.RegionType getType() {
-        return type;
+        return features.getType(index);
     }
 
     public void setType(Region.RegionType type) {
-        this.type = type;
+        features.setType(index, type);
     }
     
     public void setType(short btType) {
         if( btType > 0 ) {
-            this.type = Region.RegionType.CDS;
+            setType(Region.RegionType.CDS);
         } else {
-            this.type = Region.RegionType.GENE;
+            setType(Region.RegionType.GENE);
         }
     }
 
 
     public String getComment() {
-        return comment;
+        return features.getComment(index);
     }
 
     public void setComment(String comment) {
-        this.comment = comment;
+        features.setComment(index, comment);
+    }
+
+    /**
+     * @return Where the comment is in the GCK file, or null if it is kept in memory.
+     */
+    public TextReference getCommentReference() {
+        return features.getCommentReference(index);
     }
 
     public boolean isAutomatic() {
-        return automatic;
+        return features.isAutomatic(index);
     }
 
     public void setAutomatic(boolean automatic) {
-        this.automatic = automatic;
+        features.setAutomatic(index, automatic);
     }
     
     public enum Strand {
@@ -134,11 +153,20 @@ public class Feature extends Region {
         Strand(byte direction) {
             this.direction = direction;
         }
+
+        public byte byteValue() {
+            return direction;
+        }
+
+        public static Strand fromByte(byte direction) {
+            switch (direction) {
+                case 0: return NONE;
+                case 1: return REVERSE;
+                case 3: return BOTH;
+                default: return FORWARD;
+            }
+        }
     }
     
-    private String name;
-    private Strand strand;
-    private RegionType type;
-    private String comment;
-    private boolean automatic = false;
+    private final FeatureTable features; //the same table as the one of the Region, but typed
 }
\ No newline at end of file
@@ -0,0 +1,225 @@
+package gckfilestructure;
+
+import java.util.HashMap;
+
+/**
+ * Columnar storage for a number of features.
+ *
+ * Adds the strand, type, and automatic flag of every feature to the columns of a RegionTable. Names are kept
+ * in a pool shared by all the features of the table, as automatic annotations often repeat the same names.
+ * Long comments can be left in the GCK file and only referenced, see setCommentReference.
+ *
+ * Names and comments can also be given as raw bytes of the GCK file, see setText. They are only decoded into
+ * Strings when first asked for, so reading a file for its sequence or its feature positions does not pay for
+ * decoding text it never uses.
+ *
+ * @author Matyas Medzihradszky
+ * @version 0.1
+ */
+public class FeatureTable extends RegionTable {
+
+    /**
+     * Creates a table holding the given number of features with the same default values as a new Feature.
+     *
+     * @param size The number of features.
+     */
+    public FeatureTable(int size) {
+        super(size);
+        strand = new byte[size];
+        type = new byte[size];
+        nameId = new int[size];
+        comments = new String[size];
+        namePool = new String[8];
+        nameIds = new HashMap<String, Integer>();
+        int emptyName = poolName("");
+        for (int i = 0; i < size; i++) {
+            setToDisplay(i, true);
+            strand[i] = Feature.Strand.FORWARD.byteValue();
+            type[i] = Region.RegionType.GENE.byteValue();
+            nameId[i] = emptyName;
+            comments[i] = "";
+        }
+    }
+
+    /**
+     * Returns the name of a feature, decoding it from the text of the table when first asked for.
+     *
+     * @param i The index of the feature.
+     * @return The name.
+     */
+    public String getName(int i) {
+        if (nameId[i] == UNDECODED) {
+            nameId[i] = poolName(decode(nameStart[i], nameLength[i]));
+        }
+        return namePool[nameId[i]];
+    }
+
+    public void setName(int i, String name) {
+        nameId[i] = poolName(name);
+    }
+
+    /**
+     * Sets the raw bytes the names and comments given with setNameBytes and setCommentBytes are decoded from.
+     *
+     * @param text The bytes, one per character as in the GCK file. The array is kept, not copied.
+     */
+    public void setText(byte[] text) {
+        this.text = text;
+        if (nameStart == null) {
+            nameStart = new int[nameId.length];
+            nameLength = new int[nameId.length];
+            commentStart = new int[nameId.length];
+            commentLength = new int[nameId.length];
+        }
+    }
+
+    /**
+     * Sets the name of a feature to a part of the text, decoded when first asked for. setText must be called first.
+     *
+     * @param i The index of the feature.
+     * @param start The position of the name in the text.
+     * @param length The length of the name in bytes.
+     */
+    public void setNameBytes(int i, int start, int length) {
+        nameId[i] = UNDECODED;
+        nameStart[i] = start;
+        nameLength[i] = length;
+    }
+
+    /**
+     * Sets the comment of a feature to a part of the text, decoded when first asked for. setText must be called
+     * first.
+     *
+     * @param i The index of the feature.
+     * @param start The position of the comment in the text.
+     * @param length The length of the comment in bytes.
+     */
+    public void setCommentBytes(int i, int start, int length) {
+        setComment(i, null);
+        commentStart[i] = start;
+        commentLength[i] = length;
+    }
+
+    public Feature.Strand getStrand(int i) {
+        return Feature.Strand.fromByte(strand[i]);
+    }
+
+    public void setStrand(int i, Feature.Strand strand) {
+        this.strand[i] = strand.byteValue();
+    }
+
+    public Region.RegionType getType(int i) {
+        return Region.RegionType.fromByte(type[i]);
+    }
+
+    public void setType(int i, Region.RegionType type) {
+        this.type[i] = type.byteValue();
+    }
+
+    /**
+     * Returns the comment of a feature. A referenced comment is read from the file every time, a comment set with
+     * setCommentBytes is decoded the first time.
+     *
+     * @param i The index of the feature.
+     * @return The comment.
+     */
+    public String getComment(int i) {
+        if (comments[i] == null) {
+            if (commentReferences != null && commentReferences[i] != null) {
+                return commentReferences[i].read();
+            }
+            if (commentStart != null) {
+                comments[i] = decode(commentStart[i], commentLength[i]);
+            }
+        }
+        return comments[i];
+    }
+
+    public void setComment(int i, String comment) {
+        comments[i] = comment;
+        if (commentReferences != null) {
+            commentReferences[i] = null;
+        }
+    }
+
+    /**
+     * @param i The index of the feature.
+     * @return Where the comment is in the GCK file, or null if the comment is kept in memory.
+     */
+    public TextReference getCommentReference(int i) {
+        return commentReferences == null ? null : commentReferences[i];
+    }
+
+    /**
+     * Leaves the comment of a feature in the GCK file, keeping only its position.
+     *
+     * @param i The index of the feature.
+     * @param reference Where the comment is.
+     */
+    public void setCommentReference(int i, TextReference reference) {
+        if (commentReferences == null) {
+            commentReferences = new TextReference[comments.length];
+        }
+        commentReferences[i] = reference;
+        comments[i] = null;
+    }
+
+    public boolean isAutomatic(int i) {
+        return getFlag(i, AUTOMATIC);
+    }
+
+    public void setAutomatic(int i, boolean automatic) {
+        setFlag(i, AUTOMATIC, automatic);
+    }
+
+    /**
+     * Turns a part of the text into a String, one character per byte as the rest of the GCK file is read. Bytes are
+     * taken as ISO-8859-1, without sign extension, so the GeneBank writer gives back the same bytes.
+     */
+    private String decode(int start, int length) {
+        char[] c = new char[length];
+        for (int j = 0; j < length; j++) {
+            c[j] = (char) (text[start + j] & 0xff);
+        }
+        return String.valueOf(c);
+    }
+
+    /**
+     * Finds the name in the pool, adding it if it is not there yet.
+     *
+     * @param name The name to look up.
+     * @return The index of the name in the pool.
+     */
+    private int poolName(String name) {
+        Integer id = nameIds.get(name);
+        if (id == null) {
+            if (poolSize == namePool.length) {
+                String[] grown = new String[2 * namePool.length];
+                System.arraycopy(namePool, 0, grown, 0, poolSize);
+                namePool = grown;
+            }
+            id = poolSize;
+            namePool[poolSize++] = name;
+            nameIds.put(name, id);
+        }
+        return id;
+    }
+
+    private final byte[] strand;
+    private final byte[] type;
+    private final int[] nameId; //index of each name in the name pool
+    private final String[] comments;
+    private TextReference[] commentReferences; //created when the first comment is left in the file
+    private String[] namePool;
+    private int poolSize;
+    private final HashMap<String, Integer> nameIds;
+    private byte[] text; //raw names and comments, decoded on demand
+    private int[] nameStart; //created with the text, like the three below
+    private int[] nameLength;
+    private int[] commentStart;
+    private int[] commentLength;
+
+    /***** CONSTANTS *****/
+    private final static int AUTOMATIC = 0x08;
+    private final static int UNDECODED = -1; //name id of a name not yet decoded from the text
+}
@@ -17,6 +17,8 @@ public class GCKFile {
         this.file = file;
         this.type = type;
         sequence = "";
+        regions = new RegionTable(0);
+        features = new FeatureTable(0);
     }
 
     public File getFile() {
@@ -79,6 +81,17 @@ public class GCKFile {
         this.sequence = sequence;
     }
 
+    /**
+     * @return The composition of the sequence, or null if it has not been read.
+     */
+    public SequenceStatistics getSequenceStatistics() {
+        return sequenceStatistics;
+    }
+
+    public void setSequenceStatistics(SequenceStatistics sequenceStatistics) {
+        this.sequenceStatistics = sequenceStatistics;
+    }
+
     public int getSequenceLength() {
         return sequenceLength;
     }
@@ -88,28 +101,52 @@ public class GCKFile {
     }
 
     public void allocateRegions() {
-        regions = new Region[numRegions];
-        for (int i = 0; i < regions.length; i++) {
-            regions[i] = new Region();
-        }
+        regions = new RegionTable(numRegions);
     }
     
+    /**
+     * Returns a view of a single region. Changes made through the view are stored in the region table.
+     *
+     * @param i Index of the region.
+     * @return The region.
+     */
     public Region getRegion(int i) {
-        return regions[i];
+        if (i < 0 || i >= regions.size()) {
+            throw new ArrayIndexOutOfBoundsException(i);
+        }
+        return new Region(regions, i);
+    }
+
+    public RegionTable getRegionTable() {
+        return regions;
     }
     
     public void allocateFeatures() {
-        features = new Feature[numFeatures];
-        for (int i = 0; i < features.length; i++) {
-            features[i] = new Feature();
-        }
+        features = new FeatureTable(numFeatures);
     }
     
+    /**
+     * Returns a view of a single feature. Changes made through the view are stored in the feature table.
+     *
+     * @param i Index of the feature.
+     * @return The feature.
+     */
     public Feature getFeature(int i) {
-        return features[i];
+        if (i < 0 || i >= features.size()) {
+            throw new ArrayIndexOutOfBoundsException(i);
+        }
+        return new Feature(features, i);
     }
 
     public Feature[] getFeatures() {
+        Feature[] views = new Feature[features.size()];
+        for (int i = 0; i < views.length; i++) {
+            views[i] = new Feature(features, i);
+        }
+        return views;
+    }
+
+    public FeatureTable getFeatureTable() {
         return features;
     }
 
@@ -135,11 +172,12 @@ public class GCKFile {
     private int lengthFeatures; //total length of feature definitions in bytes
     private short numFeatures; //number of defined features found
     private short numSites;
-    private Region[] regions;
-    private Feature[] features;
+    private RegionTable regions;
+    private FeatureTable features;
     private boolean isCircular;
     private String constructName;
     private String sequence;
+    private SequenceStatistics sequenceStatistics;
     private int sequenceLength;
     private FileType type;
 
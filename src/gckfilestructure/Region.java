@@ -6,116 +6,122 @@ package gckfilestructure;
  *+binding sites to protein sequences. This base class only contains the start,
  *+end, display font and colour for a region.
  *
+ * A Region is a view onto a row of a RegionTable, where the data is actually stored.
+ * Regions created on their own get a table of their own.
+ *
  * @author Matyas Medzihradszky
  * @version 0.1
  */
 public class Region extends Site {
     public Region() {
-        start = 0;
-        end = 0;
-        colourRed = 0;
-        colourGreen = 0;
-        colourBlue = 0;
-        grouping = 1;
-        toDisplay = false;
+        this(new RegionTable(1), 0);
     }
 
     public Region(int start, int end, byte red, byte green, byte blue, short grouping, boolean toDisplay) {
-        this.start = start;
-        this.end = end;
-        this.colourRed = red;
-        this.colourGreen = green;
-        this.colourBlue = blue;
-        this.grouping = grouping;
-        this.toDisplay = toDisplay;
+        this();
+        setStart(start);
+        setEnd(end);
+        setColourRed(red);
+        setColourGreen(green);
+        setColourBlue(blue);
+        setGrouping(grouping);
+        setToDisplay(toDisplay);
+    }
+
+    /**
+     * Creates a view of a region stored in a RegionTable. Changes made through the view are stored in the table.
+     *
+     * @param table The table holding the region.
+     * @param index The index of the region in the table.
+     */
+    public Region(RegionTable table, int index) {
+        super();
+        this.table = table;
+        this.index = index;
     }
 
     public int getStart() {
-        return start;
+        return table.getStart(index);
     }
 
     public void setStart(int start) {
-        this.start = start;
+        table.setStart(index, start);
     }
 
     public int getEnd() {
-        return end;
+        return table.getEnd(index);
     }
 
     public void setEnd(int end) {
-        this.end = end;
+        table.setEnd(index, end);
     }
 
-//    public int getFont() {
-//        return font;
-//    }
-//
-//    public void setFont(int font) {
-//        this.font = font;
-//    }
-//
     public byte getFontType() {
-        return fontType;
+        return table.getFontType(index);
     }
 
     public void setFontType(byte fontType) {
-        this.fontType = fontType;
-    }
-//
-//    public byte getFontCase() {
-//        return fontCase;
-//    }
-//
-//    public void setFontCase(byte fontCase) {
-//        this.fontCase = fontCase;
-//    }
-//
-//    public short getFontSize() {
-//        return fontSize;
-//    }
-//
-//    public void setFontSize(short fontSize) {
-//        this.fontSize = fontSize;
-//    }
+        table.setFontType(index, fontType);
+    }
 
     public byte getColourRed() {
-        return colourRed;
+        return table.getColourRed(index);
     }
 
     public void setColourRed(byte colourRed) {
-        this.colourRed = colourRed;
+        table.setColourRed(index, colourRed);
     }
 
     public byte getColourGreen() {
-        return colourGreen;
+        return table.getColourGreen(index);
     }
 
     public void setColourGreen(byte colourGreen) {
-        this.colourGreen = colourGreen;
+        table.setColourGreen(index, colourGreen);
     }
 
     public byte getColourBlue() {
-        return colourBlue;
+        return table.getColourBlue(index);
     }
 
     public void setColourBlue(byte colourBlue) {
-        this.colourBlue = colourBlue;
+        table.setColourBlue(index, colourBlue);
     }
 
     public short getGrouping() {
-        return grouping;
+        return table.getGrouping(index);
     }
 
     public void setGrouping(short grouping) {
-        this.grouping = grouping;
+        table.setGrouping(index, grouping);
     }
 
     public boolean isToDisplay() {
-        return toDisplay;
+        return table.isToDisplay(index);
     }
 
     public void setToDisplay(boolean toDisplay) {
-        this.toDisplay = toDisplay;
+        table.setToDisplay(index, toDisplay);
+    }
+
+    @Override
+    public void hasName(boolean hasName) {
+        table.hasName(index, hasName);
+    }
+
+    @Override
+    public boolean hasName() {
+        return table.hasName(index);
+    }
+
+    @Override
+    public void hasComment(boolean hasComment) {
+        table.hasComment(index, hasComment);
+    }
+
+    @Override
+    public boolean hasComment() {
+        return table.hasComment(index);
     }
 
     public static enum RegionType {
@@ -149,20 +155,20 @@ public class Region extends Site {
         public String dispName() {
             return name;
         }
+
+        public static RegionType fromByte(byte type) {
+            return BY_BYTE[type];
+        }
+
+        private static final RegionType[] BY_BYTE = new RegionType[values().length];
+        static {
+            for (RegionType t : values()) {
+                BY_BYTE[t.type] = t;
+            }
+        }
     }
     
     
-    private boolean toDisplay; //whether it is shown on the graphical GCK display
-    private int start; //first base in the sequence
-    private int end; //last base in the sequence
-    //font used to display the sequence
-    //private int font;
-    private byte fontType;
-    //private byte fontCase;
-    //private short fontSize;
-    //colour for the sequence defined in rgb space
-    private byte colourRed;
-    private byte colourGreen;
-    private byte colourBlue;
-    private short grouping;
+    protected final RegionTable table; //the table actually holding the data of the region
+    protected final int index; //the row of the table
 }
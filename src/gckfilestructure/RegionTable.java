@@ -0,0 +1,164 @@
+package gckfilestructure;
+
+/**
+ * Columnar storage for a number of regions.
+ *
+ * Every attribute of the regions is stored in its own primitive array, indexed by the number of the region.
+ * Region objects handed out by GCKFile are light views onto a row of this table, so files with a large
+ * number of regions do not need an object per region.
+ *
+ * @author Matyas Medzihradszky
+ * @version 0.1
+ */
+public class RegionTable {
+
+    /**
+     * Creates a table holding the given number of regions with the same default values as a new Region.
+     *
+     * @param size The number of regions.
+     */
+    public RegionTable(int size) {
+        super();
+        this.size = size;
+        start = new int[size];
+        end = new int[size];
+        rgb = new byte[3 * size];
+        fontType = new byte[size];
+        grouping = new short[size];
+        flags = new byte[size];
+        for (int i = 0; i < size; i++) {
+            grouping[i] = 1;
+            flags[i] = HAS_NAME | HAS_COMMENT;
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int getStart(int i) {
+        return start[i];
+    }
+
+    public void setStart(int i, int start) {
+        this.start[i] = start;
+    }
+
+    public int getEnd(int i) {
+        return end[i];
+    }
+
+    public void setEnd(int i, int end) {
+        this.end[i] = end;
+    }
+
+    public byte getFontType(int i) {
+        return fontType[i];
+    }
+
+    public void setFontType(int i, byte fontType) {
+        this.fontType[i] = fontType;
+    }
+
+    public byte getColourRed(int i) {
+        return rgb[3 * i];
+    }
+
+    public void setColourRed(int i, byte colourRed) {
+        rgb[3 * i] = colourRed;
+    }
+
+    public byte getColourGreen(int i) {
+        return rgb[3 * i + 1];
+    }
+
+    public void setColourGreen(int i, byte colourGreen) {
+        rgb[3 * i + 1] = colourGreen;
+    }
+
+    public byte getColourBlue(int i) {
+        return rgb[3 * i + 2];
+    }
+
+    public void setColourBlue(int i, byte colourBlue) {
+        rgb[3 * i + 2] = colourBlue;
+    }
+
+    /**
+     * Returns the colour of a region packed into a single int as 0xRRGGBB.
+     *
+     * @param i Index of the region.
+     * @return The packed colour.
+     */
+    public int getColour(int i) {
+        return ((rgb[3 * i] & 0xff) << 16) | ((rgb[3 * i + 1] & 0xff) << 8) | (rgb[3 * i + 2] & 0xff);
+    }
+
+    /**
+     * Copies the colour of a row in another table to a row in this table.
+     *
+     * @param i Index of the region to set.
+     * @param other The table to copy from.
+     * @param j Index of the region to copy the colour of.
+     */
+    public void copyColour(int i, RegionTable other, int j) {
+        System.arraycopy(other.rgb, 3 * j, rgb, 3 * i, 3);
+    }
+
+    public short getGrouping(int i) {
+        return grouping[i];
+    }
+
+    public void setGrouping(int i, short grouping) {
+        this.grouping[i] = grouping;
+    }
+
+    public boolean isToDisplay(int i) {
+        return (flags[i] & TO_DISPLAY) != 0;
+    }
+
+    public void setToDisplay(int i, boolean toDisplay) {
+        setFlag(i, TO_DISPLAY, toDisplay);
+    }
+
+    public boolean hasName(int i) {
+        return (flags[i] & HAS_NAME) != 0;
+    }
+
+    public void hasName(int i, boolean hasName) {
+        setFlag(i, HAS_NAME, hasName);
+    }
+
+    public boolean hasComment(int i) {
+        return (flags[i] & HAS_COMMENT) != 0;
+    }
+
+    public void hasComment(int i, boolean hasComment) {
+        setFlag(i, HAS_COMMENT, hasComment);
+    }
+
+    protected boolean getFlag(int i, int flag) {
+        return (flags[i] & flag) != 0;
+    }
+
+    protected void setFlag(int i, int flag, boolean value) {
+        if (value) {
+            flags[i] |= flag;
+        } else {
+            flags[i] &= ~flag;
+        }
+    }
+
+    private final int size;
+    private final int[] start; //first base of each region
+    private final int[] end; //last base of each region
+    private final byte[] rgb; //three bytes of colour per region
+    private final byte[] fontType;
+    private final short[] grouping;
+    protected final byte[] flags;
+
+    /***** CONSTANTS *****/
+    protected final static int TO_DISPLAY = 0x01;
+    protected final static int HAS_NAME = 0x02;
+    protected final static int HAS_COMMENT = 0x04;
+}
@@ -0,0 +1,95 @@
+package gckfilestructure;
+
+/**
+ * Composition of a DNA sequence, counted while it is decoded.
+ *
+ * Letters are counted without regard to case. The IUPAC ambiguity codes other than N, and U, are counted together.
+ * Anything that is not an IUPAC code is invalid; the position of the first invalid character is kept to point at
+ * the problem.
+ *
+ * @author Matyas Medzihradszky
+ * @version 0.1
+ */
+public class SequenceStatistics {
+
+    /**
+     * Constructor.
+     *
+     * @param a Number of A bases.
+     * @param c Number of C bases.
+     * @param g Number of G bases.
+     * @param t Number of T bases.
+     * @param n Number of N bases.
+     * @param ambiguous Number of other IUPAC codes.
+     * @param invalid Number of characters that are not IUPAC codes.
+     * @param firstInvalid 0 based position of the first invalid character, or -1 if there is none.
+     */
+    public SequenceStatistics(long a, long c, long g, long t, long n, long ambiguous, long invalid, long firstInvalid) {
+        super();
+        this.a = a;
+        this.c = c;
+        this.g = g;
+        this.t = t;
+        this.n = n;
+        this.ambiguous = ambiguous;
+        this.invalid = invalid;
+        this.firstInvalid = firstInvalid;
+    }
+
+    /**
+     * @return The share of G and C among the A, C, G and T bases, between 0 and 1, or 0 if there are none.
+     */
+    public double getGCContent() {
+        long bases = a + c + g + t;
+        return bases == 0 ? 0 : (double) (g + c) / bases;
+    }
+
+    public boolean isValid() {
+        return invalid == 0;
+    }
+
+    public long getLength() {
+        return a + c + g + t + n + ambiguous + invalid;
+    }
+
+    public long getA() {
+        return a;
+    }
+
+    public long getC() {
+        return c;
+    }
+
+    public long getG() {
+        return g;
+    }
+
+    public long getT() {
+        return t;
+    }
+
+    public long getN() {
+        return n;
+    }
+
+    public long getAmbiguous() {
+        return ambiguous;
+    }
+
+    public long getInvalid() {
+        return invalid;
+    }
+
+    public long getFirstInvalid() {
+        return firstInvalid;
+    }
+
+    private final long a;
+    private final long c;
+    private final long g;
+    private final long t;
+    private final long n;
+    private final long ambiguous;
+    private final long invalid;
+    private final long firstInvalid;
+}
@@ -0,0 +1,112 @@
+package gckfilestructure;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+
+/**
+ * Text stored in a GCK file that is not kept in memory, only where it is.
+ *
+ * Used for long comments. The text can be read back whole, or streamed with openReader. Characters are decoded the
+ * same way as text read into memory, one byte per character.
+ *
+ * @author Matyas Medzihradszky
+ * @version 0.1
+ */
+public class TextReference {
+
+    /**
+     * Constructor.
+     *
+     * @param file The file holding the text.
+     * @param offset The position of the first byte of the text in the file.
+     * @param length The length of the text in bytes.
+     */
+    public TextReference(File file, long offset, int length) {
+        super();
+        this.file = file;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    /**
+     * Opens the text for reading. The reader must be closed after use.
+     *
+     * @return A reader returning the characters of the text.
+     * @throws IOException Thrown if the file cannot be opened.
+     */
+    public Reader openReader() throws IOException {
+        final InputStream in = new FileInputStream(file);
+        long skipped = 0;
+        while (skipped < offset) {
+            long n = in.skip(offset - skipped);
+            if (n <= 0) {
+                in.close();
+                throw new IOException("Text at " + offset + " is beyond the end of " + file.getName());
+            }
+            skipped += n;
+        }
+        return new Reader() {
+            @Override
+            public int read(char[] cbuf, int off, int len) throws IOException {
+                if (remaining == 0) {
+                    return -1;
+                }
+                int count = in.read(bytes, 0, Math.min(Math.min(len, bytes.length), remaining));
+                if (count < 0) {
+                    throw new IOException("Text at " + offset + " is cut short in " + file.getName());
+                }
+                for (int i = 0; i < count; i++) {
+                    cbuf[off + i] = (char) (bytes[i] & 0xff);
+                }
+                remaining -= count;
+                return count;
+            }
+
+            @Override
+            public void close() throws IOException {
+                in.close();
+            }
+
+            private final byte[] bytes = new byte[8192];
+            private int remaining = length;
+        };
+    }
+
+    /**
+     * Reads the whole text into memory.
+     *
+     * @return The text, or an empty string if it cannot be read.
+     */
+    public String read() {
+        char[] text = new char[length];
+        int done = 0;
+        try (Reader reader = openReader()) {
+            int count;
+            while (done < length && (count = reader.read(text, done, length - done)) > 0) {
+                done += count;
+            }
+        } catch (IOException ex) {
+            return "";
+        }
+        return new String(text, 0, done);
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    private final File file;
+    private final long offset;
+    private final int length;
+}